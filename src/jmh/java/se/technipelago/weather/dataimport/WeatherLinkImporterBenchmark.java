@@ -0,0 +1,107 @@
+package se.technipelago.weather.dataimport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import of a synthetic WeatherLink month file with 10 minute records for 31 days.
+ * The importer has no data stores, so this measures file parsing and record conversion.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeatherLinkImporterBenchmark {
+
+    private static final int RECORD_SIZE = 88;
+    private static final int DAYS = 31;
+    private static final int RECORDS_PER_DAY = 144;
+
+    private final WeatherLinkImporter importer = new WeatherLinkImporter();
+    private byte[] file;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() {
+        file = monthFile();
+        // importMonth prints progress to stdout.
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void importMonth() throws Exception {
+        importer.importMonth(new DataInputStream(new ByteArrayInputStream(file)), 2021, 4);
+    }
+
+    private static byte[] monthFile() {
+        final int perDay = RECORDS_PER_DAY + 2;
+        final int total = DAYS * perDay;
+        final ByteBuffer buf = ByteBuffer.allocate(16 + 4 + 32 * 6 + total * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put("WDAT5.0\0\0\0\0\0\0\0\1\0".getBytes(StandardCharsets.US_ASCII));
+        buf.putInt(total);
+        buf.putShort((short) 0).putInt(0);
+        for (int day = 1; day < 32; day++) {
+            buf.putShort((short) perDay).putInt((day - 1) * perDay);
+        }
+        for (int day = 1; day <= DAYS; day++) {
+            buf.put(WeatherLinkRecord.TYPE_DAILY_SUMMARY1);
+            buf.position(buf.position() + RECORD_SIZE - 1);
+            buf.put(WeatherLinkRecord.TYPE_DAILY_SUMMARY2);
+            buf.position(buf.position() + RECORD_SIZE - 1);
+            for (int i = 0; i < RECORDS_PER_DAY; i++) {
+                final int start = buf.position();
+                buf.put(WeatherLinkRecord.TYPE_WEATHER_RECORD);
+                buf.put((byte) 10); // archive interval
+                buf.put((byte) 0);
+                buf.put((byte) 0);
+                buf.putShort((short) (i * 10)); // minutes since midnight
+                buf.putShort((short) (600 + i)); // tenths of a degree F
+                buf.putShort((short) (650 + i));
+                buf.putShort((short) (550 + i));
+                buf.putShort((short) 720);
+                buf.putShort((short) 29880); // thousandths of an inch Hg
+                buf.putShort((short) 650); // tenths of a percent
+                buf.putShort((short) 400);
+                buf.putShort((short) (0x2000 | (i % 4))); // 0.2 mm collector
+                buf.putShort((short) 0);
+                buf.putShort((short) 45); // tenths of a mph
+                buf.putShort((short) 120);
+                buf.put((byte) (i % 16));
+                buf.put((byte) ((i + 1) % 16));
+                buf.putShort((short) 200);
+                buf.putShort((short) 350);
+                buf.putShort((short) 400);
+                buf.put((byte) 12);
+                buf.put((byte) 20);
+                buf.position(start + RECORD_SIZE);
+            }
+        }
+        return buf.array();
+    }
+}
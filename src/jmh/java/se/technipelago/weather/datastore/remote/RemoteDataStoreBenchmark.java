@@ -0,0 +1,115 @@
+package se.technipelago.weather.datastore.remote;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records posted by RemoteDataStore to a local stub server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoteDataStoreBenchmark {
+
+    private HttpServer server;
+    private String url;
+    private RemoteDataStore store;
+    private ArchiveRecord record;
+    private List<ArchiveRecord> batch;
+
+    @Setup
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/weather", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                in.readAllBytes();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/weather";
+
+        Properties prop = new Properties();
+        prop.setProperty("url", url);
+        prop.setProperty("client.key", "key");
+        prop.setProperty("client.secret", "secret");
+        store = new RemoteDataStore();
+        store.init(prop);
+
+        record = new ArchiveRecord();
+        record.setTimestamp(new Date(1623974400000L));
+        record.setOutsideTemperature(15.5);
+        record.setBarometer(1012);
+        batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(record);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.cleanup();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public boolean insertData() throws IOException {
+        return store.insertData(record);
+    }
+
+    /**
+     * 100 records in one request, score is records per second.
+     */
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public int insertBatch() throws IOException {
+        return store.insertBatch(batch);
+    }
+
+    /**
+     * A new client and connection for each request, how RemoteDataStore worked before the pooled client.
+     */
+    @Benchmark
+    public int newClientPerRequest() throws IOException {
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            HttpPost post = new HttpPost(url);
+            post.setEntity(new StringEntity("{}", ContentType.create("application/json")));
+            try (CloseableHttpResponse response = client.execute(post)) {
+                EntityUtils.consume(response.getEntity());
+                return response.getStatusLine().getStatusCode();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package se.technipelago.weather.vantagepro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.technipelago.weather.archive.ArchivePage;
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of DMPAFT pages, as done for every page of an archive download.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchivePageBenchmark {
+
+    private final DownloadController controller = new DownloadController();
+    private byte[] page;
+
+    @Setup
+    public void setup() {
+        page = SampleData.archivePage(1, LocalDateTime.of(2021, 6, 18, 12, 0));
+    }
+
+    /**
+     * Parse a page and read the fields a data store writes.
+     */
+    @Benchmark
+    public void parseAndRead(Blackhole bh) {
+        ArchivePage ap = controller.parseArchivePage(page);
+        for (int i = 0; i < 5; i++) {
+            ArchiveRecord rec = ap.getRecord(i);
+            bh.consume(rec.getTimestampMillis());
+            bh.consume(rec.getOutsideTemperature());
+            bh.consume(rec.getInsideTemperature());
+            bh.consume(rec.getOutsideHumidity());
+            bh.consume(rec.getInsideHumidity());
+            bh.consume(rec.getBarometer());
+            bh.consume(rec.getRainFall());
+            bh.consume(rec.getRainRateHigh());
+            bh.consume(rec.getWindSpeedAvg());
+            bh.consume(rec.getWindDirection());
+            bh.consume(rec.getWindSpeedHigh());
+            bh.consume(rec.getSolarRadiation());
+            bh.consume(rec.getUvIndex());
+        }
+    }
+
+    /**
+     * Parse a page and copy every record into a plain ArchiveRecord.
+     */
+    @Benchmark
+    public void parseAndMaterialize(Blackhole bh) {
+        ArchivePage ap = controller.parseArchivePage(page);
+        for (int i = 0; i < 5; i++) {
+            bh.consume(ap.getRecord(i).toArchiveRecord());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package se.technipelago.weather.vantagepro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CRC check of a DMPAFT page and a LOOP packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CRCBenchmark {
+
+    private byte[] page;
+    private byte[] loop;
+
+    @Setup
+    public void setup() {
+        page = SampleData.archivePage(1, LocalDateTime.of(2021, 6, 18, 12, 0));
+        loop = SampleData.loopPacket();
+    }
+
+    @Benchmark
+    public boolean checkPage() {
+        return CRC16.check(page, 0, page.length);
+    }
+
+    @Benchmark
+    public boolean checkLoop() {
+        return CRC16.check(loop, 0, loop.length);
+    }
+
+    @Benchmark
+    public byte[] calculatePage() {
+        return CRC16.calculate(page);
+    }
+
+    /**
+     * One table lookup per byte, how CRC16.check worked before the slicing-by-8 update.
+     */
+    @Benchmark
+    public boolean checkPageBytewise() {
+        CRC16 crc = new CRC16();
+        for (int i = 0; i < page.length; i++) {
+            crc.add(page[i]);
+        }
+        return crc.isValid();
+    }
+}
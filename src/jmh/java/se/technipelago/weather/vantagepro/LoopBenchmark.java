@@ -0,0 +1,54 @@
+package se.technipelago.weather.vantagepro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.technipelago.weather.archive.CurrentRecord;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of LOOP packets, as done every 2 seconds while streaming.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopBenchmark {
+
+    private final DownloadController controller = new DownloadController();
+    private final CurrentRecord current = new CurrentRecord();
+    private byte[] packet;
+
+    @Setup
+    public void setup() {
+        packet = SampleData.loopPacket();
+    }
+
+    /**
+     * One new record per packet, like loop().
+     */
+    @Benchmark
+    public CurrentRecord parseLoopRecord() throws IOException {
+        return controller.parseLoopRecord(packet);
+    }
+
+    /**
+     * Decode into the same record, like streamLoop() before it takes a copy.
+     */
+    @Benchmark
+    public CurrentRecord decodeReused() throws IOException {
+        LoopDecoder.decode(packet, current);
+        return current;
+    }
+}
@@ -0,0 +1,70 @@
+package se.technipelago.weather.vantagepro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moving serial data through the ring buffer, one DMPAFT page at a time.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+
+    private RingBuffer buffer;
+    private final byte[] in = new byte[SampleData.PAGE_SIZE];
+    private final byte[] out = new byte[SampleData.PAGE_SIZE];
+
+    @Setup
+    public void setup() {
+        buffer = new RingBuffer(RingBuffer.DEFAULT_CAPACITY, 1000);
+    }
+
+    /**
+     * Write a page and read it back on the same thread.
+     */
+    @Benchmark
+    @Group("sameThread")
+    public int writeRead() throws IOException {
+        buffer.write(in, 0, in.length);
+        int n = 0;
+        while (n < out.length) {
+            n += buffer.read(out, n, out.length - n);
+        }
+        return n;
+    }
+
+    /**
+     * Serial event thread writing pages while the controller reads them.
+     * The writer backs off when the ring is nearly full, the real writer is limited by the baud rate.
+     */
+    @Benchmark
+    @Group("producerConsumer")
+    public void write() {
+        while (buffer.available() > buffer.getCapacity() - in.length) {
+            Thread.onSpinWait();
+        }
+        buffer.write(in, 0, in.length);
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    public int read() throws IOException {
+        return buffer.read(out, 0, out.length);
+    }
+}
@@ -0,0 +1,100 @@
+package se.technipelago.weather.vantagepro;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Synthetic station data for the benchmarks.
+ */
+final class SampleData {
+
+    static final int PAGE_SIZE = 267;
+
+    private SampleData() {
+    }
+
+    /**
+     * Return a DMPAFT page with five 10 minute records starting at <code>start</code>, including CRC.
+     */
+    static byte[] archivePage(int pageNumber, LocalDateTime start) {
+        byte[] page = new byte[PAGE_SIZE];
+        Arrays.fill(page, (byte) 0xff);
+        page[0] = (byte) pageNumber;
+        LocalDateTime ts = start;
+        for (int i = 0; i < 5; i++) {
+            int offset = 1 + i * ArchiveRecordView.RECORD_SIZE;
+            put(page, offset, ts.getDayOfMonth() + ts.getMonthValue() * 32 + (ts.getYear() - 2000) * 512);
+            put(page, offset + 2, ts.getHour() * 100 + ts.getMinute());
+            put(page, offset + 4, VantageUtil.getTemperature(17.5 + i));
+            put(page, offset + 6, VantageUtil.getTemperature(19.0 + i));
+            put(page, offset + 8, VantageUtil.getTemperature(16.0 + i));
+            put(page, offset + 10, VantageUtil.getRain(0.2 * i));
+            put(page, offset + 12, VantageUtil.getRain(1.0));
+            put(page, offset + 14, VantageUtil.getBytes((int) (VantageUtil.millibar2inchHg(1012) * 1000.0)));
+            put(page, offset + 16, VantageUtil.getBytes(742));
+            put(page, offset + 18, VantageUtil.getBytes(123));
+            put(page, offset + 20, VantageUtil.getTemperature(22.5));
+            page[offset + 22] = 40;
+            page[offset + 23] = 65;
+            page[offset + 24] = 5;
+            page[offset + 25] = 12;
+            page[offset + 26] = 4;
+            page[offset + 27] = 5;
+            page[offset + 28] = 12;
+            ts = ts.plusMinutes(10);
+        }
+        addCrc(page);
+        return page;
+    }
+
+    /**
+     * Return a LOOP packet, including CRC.
+     */
+    static byte[] loopPacket() {
+        byte[] buf = new byte[99];
+        Arrays.fill(buf, (byte) 0xff);
+        buf[0] = 'L';
+        buf[1] = 'O';
+        buf[2] = 'O';
+        buf[3] = 20;
+        buf[4] = LoopDecoder.PACKET_TYPE_LOOP;
+        put(buf, 7, VantageUtil.getBytes(29880));
+        put(buf, 9, VantageUtil.getTemperature(22.5));
+        buf[11] = 40;
+        put(buf, 12, VantageUtil.getTemperature(17.5));
+        buf[14] = 5;
+        buf[15] = 6;
+        put(buf, 16, VantageUtil.getBytes(225));
+        buf[33] = 65;
+        put(buf, 41, VantageUtil.getBytes(0));
+        buf[43] = 12;
+        put(buf, 44, VantageUtil.getBytes(742));
+        put(buf, 50, VantageUtil.getRain(1.2));
+        buf[86] = 0;
+        put(buf, 87, VantageUtil.getBytes(800));
+        buf[89] = 0x06;
+        buf[90] = 1;
+        put(buf, 91, VantageUtil.getBytes(632));
+        put(buf, 93, VantageUtil.getBytes(2114));
+        buf[95] = '\n';
+        buf[96] = '\r';
+        addCrc(buf);
+        return buf;
+    }
+
+    private static void addCrc(byte[] buf) {
+        CRC16 crc = new CRC16();
+        for (int i = 0; i < buf.length - 2; i++) {
+            crc.add(buf[i]);
+        }
+        put(buf, buf.length - 2, crc.getCrc());
+    }
+
+    private static void put(byte[] buf, int offset, int value) {
+        put(buf, offset, VantageUtil.getBytes(value));
+    }
+
+    private static void put(byte[] buf, int offset, byte[] value) {
+        System.arraycopy(value, 0, buf, offset, value.length);
+    }
+}
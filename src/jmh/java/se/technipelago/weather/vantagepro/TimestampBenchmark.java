@@ -0,0 +1,103 @@
+package se.technipelago.weather.vantagepro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamp decoding and encoding. The calendar benchmarks are the Calendar based code that
+ * TimestampCodec replaced, kept here as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimestampBenchmark {
+
+    private final TimestampCodec codec = new TimestampCodec();
+    private byte[] page;
+    private byte[] consoleTime;
+    private Date now;
+
+    @Setup
+    public void setup() {
+        page = SampleData.archivePage(1, LocalDateTime.of(2021, 6, 18, 12, 0));
+        consoleTime = new byte[]{15, 2, 23, 9, 10, 121};
+        now = new Date();
+    }
+
+    /**
+     * Timestamps of the five records in a page.
+     */
+    @Benchmark
+    public void archiveCodec(Blackhole bh) {
+        for (int i = 0; i < 5; i++) {
+            bh.consume(codec.decodeArchive(page, 1 + i * ArchiveRecordView.RECORD_SIZE));
+        }
+    }
+
+    @Benchmark
+    public void archiveCalendar(Blackhole bh) {
+        for (int i = 0; i < 5; i++) {
+            bh.consume(calendarTimestamp(page, 1 + i * ArchiveRecordView.RECORD_SIZE));
+        }
+    }
+
+    @Benchmark
+    public Date getTime() {
+        return VantageUtil.getTime(consoleTime, 0);
+    }
+
+    @Benchmark
+    public Date getTimeCalendar() {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(Calendar.SECOND, (int) consoleTime[0]);
+        cal.set(Calendar.MINUTE, (int) consoleTime[1]);
+        cal.set(Calendar.HOUR_OF_DAY, (int) consoleTime[2]);
+        cal.set(Calendar.DAY_OF_MONTH, (int) consoleTime[3]);
+        cal.set(Calendar.MONTH, (int) consoleTime[4] - 1);
+        cal.set(Calendar.YEAR, (int) consoleTime[5] + 1900);
+        return cal.getTime();
+    }
+
+    @Benchmark
+    public byte[] getDate() {
+        return VantageUtil.getDate(now);
+    }
+
+    private static Date calendarTimestamp(byte[] buf, int offset) {
+        int word = VantageUtil.parseWord(buf, offset);
+        int year = ((word >>> 9) & 0x7f) + 2000;
+        int month = ((word >>> 5) & 0x0f) - 1;
+        int day = word & 0x1f;
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.YEAR, year);
+        cal.set(Calendar.MONTH, month);
+        cal.set(Calendar.DAY_OF_MONTH, day);
+
+        word = VantageUtil.parseWord(buf, offset + 2);
+        int hour = word / 100;
+        int minute = word % 100;
+        cal.set(Calendar.HOUR_OF_DAY, hour);
+        cal.set(Calendar.MINUTE, minute);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTime();
+    }
+}
@@ -0,0 +1,150 @@
+package nl.tudelft.davisstreaming;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of records sent asynchronously until the broker has acknowledged them.
+ * <p>
+ * At most <code>window</code> records are in flight, {@link #send(long, Supplier)} blocks when the window is full.
+ * {@link #getCheckpoint(long)} returns the time of the newest record that was acknowledged together with all
+ * records sent before it, so the download status never moves past a record that may be lost.
+ */
+public class AckTracker {
+
+    private static final int PENDING = 0;
+    private static final int ACKED = 1;
+    private static final int FAILED = 2;
+
+    private static final class Entry {
+        private final long time;
+        private int state = PENDING;
+
+        private Entry(long time) {
+            this.time = time;
+        }
+    }
+
+    private final Semaphore window;
+    private final Deque<Entry> sent = new ArrayDeque<>();
+    private int pending;
+    private long lastAcked = -1L;
+    private Throwable failure;
+
+    /**
+     * @param window max number of records waiting for acknowledgement
+     */
+    public AckTracker(int window) {
+        this.window = new Semaphore(Math.max(1, window));
+    }
+
+    /**
+     * Send a record and track its acknowledgement.
+     *
+     * @param time record time
+     * @param send starts sending the record and returns the acknowledgement
+     * @throws IOException if an earlier record failed, records are not sent after a failure
+     */
+    public void send(long time, Supplier<? extends CompletableFuture<?>> send) throws IOException {
+        synchronized (this) {
+            if (failure != null) {
+                throw new IOException("An earlier record was not acknowledged", failure);
+            }
+        }
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for acknowledgements");
+        }
+        final Entry entry = new Entry(time);
+        synchronized (this) {
+            sent.addLast(entry);
+            pending++;
+        }
+        CompletableFuture<?> ack;
+        try {
+            ack = send.get();
+        } catch (RuntimeException e) {
+            ack = new CompletableFuture<>();
+            ack.completeExceptionally(e);
+        }
+        ack.whenComplete((result, error) -> completed(entry, error));
+    }
+
+    private synchronized void completed(Entry entry, Throwable error) {
+        if (error == null) {
+            entry.state = ACKED;
+        } else {
+            entry.state = FAILED;
+            if (failure == null) {
+                failure = error;
+            }
+        }
+        pending--;
+        removeAcked();
+        window.release();
+        notifyAll();
+    }
+
+    private void removeAcked() {
+        while (!sent.isEmpty() && sent.peekFirst().state == ACKED) {
+            lastAcked = sent.removeFirst().time;
+        }
+    }
+
+    /**
+     * Wait until all records sent are acknowledged or have failed.
+     *
+     * @param timeout max time to wait in milliseconds
+     * @return true if no record is waiting for acknowledgement
+     */
+    public synchronized boolean await(long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        long wait;
+        while (pending > 0 && (wait = deadline - System.currentTimeMillis()) > 0) {
+            wait(wait);
+        }
+        return pending == 0;
+    }
+
+    /**
+     * Return how far the download status can safely be moved.
+     *
+     * @param lastRecord time of the last record saved
+     * @return <code>lastRecord</code> if all records are acknowledged, else the time of the newest record
+     * acknowledged after all records before it, or -1 if there is none
+     */
+    public synchronized long getCheckpoint(long lastRecord) {
+        removeAcked();
+        return sent.isEmpty() ? lastRecord : lastAcked;
+    }
+
+    /**
+     * The first failure since the last {@link #reset()}, or null.
+     */
+    public synchronized Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Number of records waiting for acknowledgement.
+     */
+    public synchronized int getPending() {
+        return pending;
+    }
+
+    /**
+     * Forget records and failures before a new download. Records still in flight keep their place in the window.
+     */
+    public synchronized void reset() {
+        sent.clear();
+        lastAcked = -1L;
+        failure = null;
+    }
+}
@@ -267,6 +267,31 @@ public class DavisMessage {
             return this;
         }
 
+        /**
+         * Return a new builder with the same values, so a builder with the station fields can be used as a template.
+         */
+        public Builder copy() {
+            final Builder copy = new Builder();
+            copy.uuid = uuid;
+            copy.latitude = latitude;
+            copy.longitude = longitude;
+            copy.altitude = altitude;
+            copy.ts = ts;
+            copy.tempOut = tempOut;
+            copy.tempIn = tempIn;
+            copy.humOut = humOut;
+            copy.humIn = humIn;
+            copy.barometer = barometer;
+            copy.rain = rain;
+            copy.rainRate = rainRate;
+            copy.windAvg = windAvg;
+            copy.windDir = windDir;
+            copy.windHigh = windHigh;
+            copy.solar = solar;
+            copy.uv = uv;
+            return copy;
+        }
+
         public DavisMessage build() {
             final DavisMessage msg = new DavisMessage();
 
@@ -7,121 +7,162 @@ import se.technipelago.weather.WeatherUtils;
 import se.technipelago.weather.archive.ArchiveRecord;
 import se.technipelago.weather.archive.CurrentRecord;
 import se.technipelago.weather.datastore.DataStore;
+import se.technipelago.weather.datastore.sql.CheckpointStore;
 
+import java.io.File;
 import java.io.IOException;
-import java.sql.*;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
-import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 
-
+/**
+ * Publish archive records to an Apache Pulsar topic.
+ * <p>
+ * Settings are the <code>datastore.&lt;type&gt;.*</code> properties. The download status is kept in a
+ * {@link CheckpointStore} at <code>status.url</code>, stores with the same URL share one database.
+ */
 public class PulsarDataStore implements DataStore {
 
-    private Connection conn;
+    private CheckpointStore checkpoints;
     private PulsarClient client;
     private Producer<DavisMessage> producer;
-    private PreparedStatement selectStatus;
-    private PreparedStatement updateStatus;
-    private PreparedStatement updateCurrent;
+    private AckTracker tracker;
+    private Properties prop;
 
+    /**
+     * Station fields, the same in every message.
+     */
+    private DavisMessage.Builder template;
 
     private static final String PROPERTIES_FILE = "pulsar.properties";
+    private static final String STATUS_URL = "jdbc:h2:file:./statusDb";
+    private static final String TLS_TRUST_CERTS = "/etc/ssl/certs/ca-certificates.crt";
+    private static final int SEND_TIMEOUT = 10;
+    private static final int MAX_PENDING = 1000;
+    private static final int BATCH_MESSAGES = 100;
+    private static final int BATCH_DELAY = 10;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")
+            .withZone(ZoneId.systemDefault());
 
     private static final Logger log = LogManager.getLogger(PulsarDataStore.class);
 
-    final Properties prop = WeatherUtils.loadProperties(PROPERTIES_FILE);
+    private static Properties fileProperties;
 
-    final String service_url = prop.getProperty("pulsar.service_url");
-    final String topic = prop.getProperty("pulsar.topic");
-    final String token = prop.getProperty("pulsar.token");
-    final String uuid = prop.getProperty("sensor.uuid");
+    /**
+     * Settings from <code>pulsar.properties</code>, used by configurations from before the settings were data store
+     * properties. The file is read once.
+     */
+    private static synchronized Properties getFileProperties() {
+        if (fileProperties == null) {
+            fileProperties = new Properties();
+            if (new File(PROPERTIES_FILE).exists()
+                    || PulsarDataStore.class.getClassLoader().getResource(PROPERTIES_FILE) != null) {
+                fileProperties.putAll(WeatherUtils.loadProperties(PROPERTIES_FILE));
+                log.warn("Settings in " + PROPERTIES_FILE + " are deprecated, use datastore.<type>.* properties");
+            }
+        }
+        return fileProperties;
+    }
 
-    final float lon = Float.parseFloat((prop.getProperty("sensor.longitude")));
-    final float lat = Float.parseFloat((prop.getProperty("sensor.latitude")));
-    final float alt = Float.parseFloat((prop.getProperty("sensor.altitude")));
+    private String getRequired(String name) {
+        final String value = prop.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Property '" + name + "' must be set");
+        }
+        return value.trim();
+    }
 
     @Override
     public void init(Properties prop) {
-        // TODO use properties provided here instead of our own property file?
-        if (conn == null) {
+        if (prop.getProperty("pulsar.service_url") == null) {
+            this.prop = new Properties();
+            this.prop.putAll(getFileProperties());
+            this.prop.putAll(prop);
+        } else {
+            this.prop = prop;
+        }
+        final String uuid = getRequired("sensor.uuid");
+        template = DavisMessage.builder()
+                .uuid(uuid)
+                .latitude(Float.parseFloat(getRequired("sensor.latitude")))
+                .longitude(Float.parseFloat(getRequired("sensor.longitude")))
+                .altitude(Float.parseFloat(getRequired("sensor.altitude")));
+
+        if (checkpoints == null) {
             try {
-                conn = DriverManager.getConnection("jdbc:h2:file:./statusDb");
-                createTables(); // TODO this is called every time.
+                checkpoints = CheckpointStore.acquire(this.prop.getProperty("status.url", STATUS_URL),
+                        this.prop.getProperty("status.name", uuid), this.prop);
             } catch (SQLException e) {
                 log.error("Cannot connect to database", e);
                 throw new RuntimeException(e);
             }
-            log.debug("SQL data store initialized");
-        }
-        try {
-            selectStatus = conn.prepareStatement("SELECT last_rec FROM status");
-            updateStatus = conn.prepareStatement("UPDATE status SET last_dl = ?, last_rec = ?");
-        } catch (SQLException e) {
-            log.error("Failed to prepare SQL statements", e);
-            throw new RuntimeException(e);
+            log.debug("Checkpoint store initialized");
         }
         if (client == null) {
             try {
                 client = PulsarClient.builder()
-                        .serviceUrl(service_url)
-                        .tlsTrustCertsFilePath("/etc/ssl/certs/ca-certificates.crt")
+                        .serviceUrl(getRequired("pulsar.service_url"))
+                        .tlsTrustCertsFilePath(this.prop.getProperty("pulsar.tls_trust_certs", TLS_TRUST_CERTS))
                         .authentication(
-                                AuthenticationFactory.token(token)
+                                AuthenticationFactory.token(getRequired("pulsar.token"))
                         )
                         .build();
             } catch (PulsarClientException ex) {
-                ex.printStackTrace();
+                cleanup();
+                throw new RuntimeException("Cannot create Pulsar client", ex);
             }
         }
         if (producer == null) {
             try {
-                producer = client.newProducer(Schema.AVRO(DavisMessage.class))
+                ProducerBuilder<DavisMessage> builder = client.newProducer(Schema.AVRO(DavisMessage.class))
                         .producerName(uuid)
-                        .topic(topic)
-                        .sendTimeout(10, TimeUnit.SECONDS)
-                        .create();
+                        .topic(getRequired("pulsar.topic"))
+                        .sendTimeout(SEND_TIMEOUT, TimeUnit.SECONDS);
+                if (Boolean.parseBoolean(this.prop.getProperty("pulsar.async"))) {
+                    producer = createAsyncProducer(builder);
+                } else {
+                    producer = builder.create();
+                }
             } catch (PulsarClientException ex) {
-                ex.printStackTrace();
+                cleanup();
+                throw new RuntimeException("Cannot create Pulsar producer", ex);
             }
         }
     }
 
+    /**
+     * Create a producer that batches messages and a tracker for their acknowledgements.
+     */
+    private Producer<DavisMessage> createAsyncProducer(ProducerBuilder<DavisMessage> builder) throws PulsarClientException {
+        final int maxPending = WeatherUtils.getInt(prop, "pulsar.max_pending", MAX_PENDING);
+        builder.enableBatching(true)
+                .batchingMaxMessages(WeatherUtils.getInt(prop, "pulsar.batching.max_messages", BATCH_MESSAGES))
+                .batchingMaxPublishDelay(WeatherUtils.getInt(prop, "pulsar.batching.max_delay", BATCH_DELAY), TimeUnit.MILLISECONDS)
+                .maxPendingMessages(maxPending)
+                .blockIfQueueFull(true);
+        final String compression = prop.getProperty("pulsar.compression");
+        if (compression != null && !compression.trim().isEmpty()) {
+            builder.compressionType(CompressionType.valueOf(compression.trim().toUpperCase()));
+        }
+        tracker = new AckTracker(maxPending);
+        return builder.create();
+    }
+
     @Override
     public void cleanup() {
-        if (updateStatus != null) {
-            try {
-                updateStatus.close();
-            } catch (SQLException ex) {
-                log.warn("Exception while closing INSERT statement");
+        if (tracker != null && producer != null) {
+            awaitAcks();
+            if (tracker.getFailure() != null) {
+                log.warn("Pulsar did not acknowledge all records");
             }
-            updateStatus = null;
         }
-        if (selectStatus != null) {
-            try {
-                selectStatus.close();
-            } catch (SQLException ex) {
-                log.warn("Exception while closing SELECT statement");
-            }
-            selectStatus = null;
-        }
-        if (updateCurrent != null) {
-            try {
-                updateCurrent.close();
-            } catch (SQLException ex) {
-                log.warn("Exception while closing UPDATE statement");
-            }
-            updateCurrent = null;
-        }
-        if (conn != null) {
-            try {
-                conn.close();
-            } catch (SQLException ex) {
-                log.error("Cannot close database connection", ex);
-            }
-            conn = null;
+        if (checkpoints != null) {
+            checkpoints.release();
+            checkpoints = null;
         }
         if (producer != null) {
             try {
@@ -129,6 +170,7 @@ public class PulsarDataStore implements DataStore {
             } catch (PulsarClientException ex) {
                 log.warn("Exception while closing Pulsar producer");
             }
+            producer = null;
         }
         if (client != null) {
             try {
@@ -136,6 +178,7 @@ public class PulsarDataStore implements DataStore {
             } catch (PulsarClientException ex) {
                 log.warn("Exception while closing Pulsar client");
             }
+            client = null;
         }
     }
 
@@ -143,12 +186,10 @@ public class PulsarDataStore implements DataStore {
     public Date getLastRecordTime() {
         Date d = null;
         try {
-            ResultSet rs = selectStatus.executeQuery();
-            if (rs.next()) {
-                d = rs.getTimestamp(1);
-            } else {
+            d = checkpoints.getLastRecord();
+            if (d == null) {
                 final Date EPOCH = new Date(0L);
-                d = insertStatus(EPOCH, EPOCH);
+                d = checkpoints.update(EPOCH, EPOCH);
             }
         } catch (SQLException ex) {
             log.error("Failed to get archive status", ex);
@@ -160,16 +201,9 @@ public class PulsarDataStore implements DataStore {
     public boolean insertData(ArchiveRecord rec) throws IOException {
 
         log.debug("Sending message to Pulsar.");
-        Timestamp timestamp = new Timestamp(rec.getTimestamp().getTime());
-
-        final String formattedtimestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'")
-                .format(timestamp);
+        final String formattedtimestamp = TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(rec.getTimestampMillis()));
 
-        producer.newMessage().value(DavisMessage.builder()
-                .uuid(uuid)
-                .latitude(lat)
-                .longitude(lon)
-                .altitude(alt)
+        final TypedMessageBuilder<DavisMessage> message = producer.newMessage().value(template.copy()
                 .ts(formattedtimestamp)
                 .tempOut((float) rec.getOutsideTemperature())
                 .tempIn((float) rec.getInsideTemperature())
@@ -183,62 +217,86 @@ public class PulsarDataStore implements DataStore {
                 .windHigh((float) rec.getWindSpeedHigh())
                 .solar((short) rec.getSolarRadiation())
                 .uv((float) rec.getUvIndex())
-                .build()).send();
+                .build());
 
-//        producer.close();
-//        client.close();
+        if (tracker != null) {
+            tracker.send(rec.getTimestampMillis(), message::sendAsync);
+        } else {
+            message.send();
+        }
 
         return true;
     }
 
-    public Date insertStatus(Date lastDownload, Date lastRecord) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("INSERT INTO status (last_dl, last_rec) VALUES (?, ?)");
-        stmt.setTimestamp(1, new java.sql.Timestamp(lastDownload.getTime()));
-        stmt.setTimestamp(2, new java.sql.Timestamp(lastRecord.getTime()));
-        stmt.execute();
-        return lastRecord;
+    /**
+     * Wait for the records in flight, at most as long as the producer waits for the broker.
+     */
+    private void awaitAcks() {
+        try {
+            producer.flush();
+        } catch (PulsarClientException e) {
+            log.warn("Failed to flush Pulsar producer", e);
+        }
+        try {
+            if (!tracker.await(TimeUnit.SECONDS.toMillis(SEND_TIMEOUT + 5))) {
+                log.warn("{} records not acknowledged by Pulsar", tracker.getPending());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /**
+     * Forget a failure in the previous download, so records are sent again. In async mode a download after a
+     * failure starts at the last acknowledged record only when this is the status data store.
+     */
     @Override
-    public Date updateStatus(Date lastDownload, Date lastRecord) throws IOException {
-        try {
-            updateStatus.setTimestamp(1, new java.sql.Timestamp(lastDownload.getTime()));
-            updateStatus.setTimestamp(2, new java.sql.Timestamp(lastRecord.getTime()));
-            updateStatus.executeUpdate();
-        } catch (SQLException e) {
-            throw new IOException(e);
+    public void beginDownload() {
+        if (tracker != null) {
+            if (tracker.getPending() > 0) {
+                awaitAcks();
+            }
+            tracker.reset();
         }
-        return lastRecord;
     }
 
+    /**
+     * In async mode, wait for the acknowledgement of the records sent in this download.
+     */
     @Override
-    public void updateCurrent(CurrentRecord current) {
+    public void endDownload() {
+        if (tracker != null) {
+            awaitAcks();
+            if (tracker.getFailure() != null) {
+                log.error("Pulsar did not acknowledge all records", tracker.getFailure());
+            }
+        }
     }
 
-    private void createTables() throws SQLException {
-        DatabaseMetaData metaData = conn.getMetaData();
-        ResultSet tables = metaData.getTables(null, "%", null, new String[]{"TABLE"});
-        List<String> tablesFound = new ArrayList<>();
-        while (tables.next()) {
-            tablesFound.add(tables.getString("TABLE_NAME").toLowerCase());
+    /**
+     * Save the download status. In async mode <code>last_rec</code> is only moved as far as Pulsar has
+     * acknowledged all records, without waiting for records still in flight.
+     */
+    @Override
+    public Date updateStatus(Date lastDownload, Date lastRecord) throws IOException {
+        final Date checkpoint;
+        if (tracker != null) {
+            final long acked = tracker.getCheckpoint(lastRecord.getTime());
+            checkpoint = acked >= 0 ? new Date(acked) : null;
+            if (acked != lastRecord.getTime()) {
+                log.debug("Pulsar has not acknowledged all records, status is kept at {}", checkpoint);
+            }
+        } else {
+            checkpoint = lastRecord;
         }
-        Statement stmt = null;
-
         try {
-            stmt = conn.createStatement();
-            if (!tablesFound.contains("status")) {
-                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS status ("
-                        + "id int AUTO_INCREMENT,"
-                        + "last_dl datetime NOT NULL,"
-                        + "last_rec datetime NOT NULL,"
-                        + "PRIMARY KEY (id));");
-            }
-        } finally {
-            assert stmt != null;
-            stmt.close();
+            return checkpoints.update(lastDownload, checkpoint);
+        } catch (SQLException e) {
+            throw new IOException(e);
         }
-        log.debug("Database tables created successfully");
     }
 
+    @Override
+    public void updateCurrent(CurrentRecord current) {
+    }
 }
-
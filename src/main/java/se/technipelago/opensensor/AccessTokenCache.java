@@ -0,0 +1,177 @@
+package se.technipelago.opensensor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets OAuth access tokens with the password grant and keeps them until they expire.
+ * <p>
+ * A token is refreshed in the background shortly before <code>expires_in</code> runs out, so requests do not
+ * wait for the token endpoint. A token without <code>expires_in</code> is kept until {@link #invalidate(String)}
+ * is called, for example when the server answers 401.
+ */
+public class AccessTokenCache implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(AccessTokenCache.class);
+
+    private static final long MAX_REFRESH_AHEAD = 60000L;
+    private static final long MAX_SKEW = 5000L;
+
+    private final CloseableHttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final URI tokenUri;
+    private final String username;
+    private final String password;
+    private final String clientId;
+    private final String clientSecret;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Token token;
+    private ScheduledFuture<?> refresh;
+
+    private static final class Token {
+        private final String value;
+        private final long expires;
+
+        private Token(String value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        private boolean isValid() {
+            return System.currentTimeMillis() < expires;
+        }
+    }
+
+    public AccessTokenCache(CloseableHttpClient httpClient, ObjectMapper objectMapper, URI tokenUri,
+                            String username, String password, String clientId, String clientSecret) {
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.tokenUri = tokenUri;
+        this.username = username;
+        this.password = password;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Return a valid access token, get a new one if there is none.
+     *
+     * @return access token
+     * @throws IOException if the token endpoint failed
+     */
+    public String getToken() throws IOException {
+        Token current = token;
+        if (current == null || !current.isValid()) {
+            synchronized (this) {
+                current = token;
+                if (current == null || !current.isValid()) {
+                    current = fetch();
+                }
+            }
+        }
+        return current.value;
+    }
+
+    /**
+     * Forget a token the server did not accept. The next call to {@link #getToken()} gets a new one.
+     *
+     * @param rejected the token that was rejected
+     */
+    public synchronized void invalidate(String rejected) {
+        if (token != null && token.value.equals(rejected)) {
+            token = null;
+        }
+    }
+
+    private synchronized void refresh() {
+        try {
+            fetch();
+        } catch (IOException e) {
+            // The token is still valid for a while, getToken() tries again when it has expired.
+            log.warn("Failed to refresh access token: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Get a new token. Callers hold the lock, requests with a valid token do not wait for it.
+     */
+    private Token fetch() throws IOException {
+        final HttpPost httpPost = new HttpPost(tokenUri);
+        httpPost.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+        final String credentials = clientId + ":" + clientSecret;
+        httpPost.setHeader(HttpHeaders.AUTHORIZATION,
+                "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+
+        final List<NameValuePair> urlParameters = new ArrayList<NameValuePair>();
+        urlParameters.add(new BasicNameValuePair("username", username));
+        urlParameters.add(new BasicNameValuePair("password", password));
+        urlParameters.add(new BasicNameValuePair("grant_type", "password"));
+        urlParameters.add(new BasicNameValuePair("scope", "sensor data"));
+        urlParameters.add(new BasicNameValuePair("client_id", clientId));
+        urlParameters.add(new BasicNameValuePair("client_secret", clientSecret));
+        httpPost.setEntity(new UrlEncodedFormEntity(urlParameters, StandardCharsets.UTF_8));
+
+        final long issued = System.currentTimeMillis();
+        final JsonNode json;
+        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status != 200) {
+                EntityUtils.consume(response.getEntity());
+                throw new IOException("Token request to " + tokenUri + " failed: " + response.getStatusLine());
+            }
+            json = objectMapper.readTree(response.getEntity().getContent());
+        }
+        final JsonNode accessToken = json.get("access_token");
+        if (accessToken == null) {
+            throw new IOException("No access_token in response from " + tokenUri);
+        }
+        if (refresh != null) {
+            refresh.cancel(false);
+            refresh = null;
+        }
+        final JsonNode expiresIn = json.get("expires_in");
+        if (expiresIn != null && expiresIn.asLong() > 0) {
+            final long lifetime = TimeUnit.SECONDS.toMillis(expiresIn.asLong());
+            token = new Token(accessToken.asText(), issued + lifetime - Math.min(MAX_SKEW, lifetime / 10));
+            final long refreshIn = lifetime - Math.min(MAX_REFRESH_AHEAD, lifetime / 5);
+            refresh = scheduler.schedule(this::refresh, refreshIn, TimeUnit.MILLISECONDS);
+            log.debug("Access token valid for {} seconds", expiresIn.asLong());
+        } else {
+            token = new Token(accessToken.asText(), Long.MAX_VALUE);
+        }
+        return token;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -2,59 +2,118 @@ package se.technipelago.opensensor;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
-import org.apache.http.NameValuePair;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.AuthCache;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.BasicAuthCache;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import se.technipelago.weather.WeatherUtils;
+import se.technipelago.weather.archive.ArchiveField;
 import se.technipelago.weather.archive.ArchiveRecord;
 import se.technipelago.weather.archive.CurrentRecord;
-import se.technipelago.weather.datastore.DataStore;
+import se.technipelago.weather.datastore.BatchDataStore;
+import se.technipelago.weather.datastore.remote.HttpClientFactory;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Send weather data to opensensor.net.
+ * <p>
+ * One HTTP client and one access token are shared by all requests while the store is open, the token is
+ * refreshed before it expires. Each sid gets one request with the values of all records saved at once,
+ * up to <code>concurrency</code> requests are sent in parallel, default 4.
  */
-public class OpenSensorDataStore implements DataStore {
+public class OpenSensorDataStore implements BatchDataStore {
 
     private static final Logger log = LogManager.getLogger(OpenSensorDataStore.class);
+    private static final int CONCURRENCY = 4;
 
     private Properties prop;
+    private ObjectMapper objectMapper;
+    private CloseableHttpClient httpClient;
+    private AccessTokenCache tokens;
+    private ExecutorService uploader;
+    private List<Probe> probes = Collections.emptyList();
+
+    /**
+     * Record times each sid has accepted from the last batch that failed, they are not sent again when the
+     * batch is retried. Empty when the last batch was sent.
+     */
+    private Map<String, Set<Long>> retry = Collections.emptyMap();
+
+    /**
+     * A configured value and the sid it is sent to.
+     */
+    private static final class Probe {
+        private final ArchiveField field;
+        private final String sid;
+
+        private Probe(ArchiveField field, String sid) {
+            this.field = field;
+            this.sid = sid;
+        }
+    }
 
     @Override
     public void init(Properties prop) {
+        this.probes = getProbes(prop);
         this.prop = prop;
+        this.objectMapper = objectMapper();
+        int concurrency = Math.max(1, WeatherUtils.getInt(prop, "concurrency", CONCURRENCY));
+        if (httpClient == null) {
+            // Enough connections for all upload threads, unless configured otherwise.
+            Properties httpProp = new Properties(prop);
+            if (prop.getProperty("http.connections") == null) {
+                httpProp.setProperty("http.connections", String.valueOf(concurrency));
+            }
+            httpClient = HttpClientFactory.create(httpProp);
+        }
+        if (uploader == null) {
+            uploader = Executors.newFixedThreadPool(concurrency, r -> {
+                Thread thread = new Thread(r, "opensensor-upload");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        String tokenUrl = prop.getProperty("accessTokenUri");
+        if (tokens == null && tokenUrl != null && tokenUrl.trim().length() > 0) {
+            tokens = new AccessTokenCache(httpClient, objectMapper, URI.create(tokenUrl.trim()),
+                    prop.getProperty("username"), prop.getProperty("password"),
+                    prop.getProperty("clientId"), prop.getProperty("clientSecret"));
+        }
     }
 
     @Override
     public void cleanup() {
-
+        if (uploader != null) {
+            uploader.shutdownNow();
+            uploader = null;
+        }
+        if (tokens != null) {
+            tokens.close();
+            tokens = null;
+        }
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("Exception while closing HTTP client", e);
+            }
+            httpClient = null;
+        }
     }
 
     @Override
@@ -69,53 +128,104 @@ public class OpenSensorDataStore implements DataStore {
 
     @Override
     public boolean insertData(ArchiveRecord rec) throws IOException {
+        return insertBatch(Collections.singletonList(rec)) > 0;
+    }
+
+    /**
+     * Send records with one request per sid, each request has the values of all records.
+     * Requests are sent in parallel by <code>concurrency</code> threads. If some sids fail, an exception is
+     * thrown after the others are sent. When the records are saved again, values the sids accepted the first
+     * time are not sent again.
+     */
+    @Override
+    public int insertBatch(Collection<? extends ArchiveRecord> records) throws IOException {
         String url = prop.getProperty("url");
         if (url == null || url.trim().length() == 0) {
             log.debug("No REST service configured");
-            return false;
+            return 0;
+        }
+        if (tokens == null) {
+            log.error("Property 'accessTokenUri' must be set");
+            return 0;
         }
 
-        String username = prop.getProperty("username");
-        String password = prop.getProperty("password");
-        String clientId = prop.getProperty("clientId");
-        String clientSecret = prop.getProperty("clientSecret");
-        String tokenUrl = prop.getProperty("accessTokenUri");
+        final Map<String, Set<Long>> sent;
+        synchronized (this) {
+            sent = retry;
+        }
+        List<OpenSensorPayload> payloads = createPayload(records, sent);
+        if (payloads.isEmpty()) {
+            return records.size();
+        }
 
-        String accessToken = getAccessToken(URI.create(tokenUrl), username, password, clientId, clientSecret);
-        CloseableHttpClient httpclient = HttpClients.createDefault();
-        HttpPost httpPost = new HttpPost(url);
+        List<Callable<Void>> uploads = new ArrayList<>(payloads.size());
+        for (OpenSensorPayload payload : payloads) {
+            uploads.add(() -> {
+                send(url, payload);
+                return null;
+            });
+        }
+        List<Future<Void>> results;
         try {
-            List<String> probes = getCollectorProbes(prop);
-            List<OpenSensorPayload> payloads = createPayload(rec, probes, prop);
-            ObjectMapper objectMapper = objectMapper();
-
-            httpPost.setHeader("Authorization", "Bearer " + accessToken);
-
-            for (OpenSensorPayload payload : payloads) {
-
-                JsonNode jsonNode = objectMapper.valueToTree(payload);
-                String jsonString = objectMapper.writeValueAsString(jsonNode);
-
-                httpPost.setEntity(new StringEntity(jsonString, ContentType.APPLICATION_JSON));
-
-                CloseableHttpResponse response = httpclient.execute(httpPost);
-
-                try {
-                    HttpEntity entity = response.getEntity();
-                    System.out.println(response.getStatusLine() + " " + EntityUtils.toString(entity));
-                    //EntityUtils.consume(entity);
-                } finally {
-                    response.close();
+            results = uploader.invokeAll(uploads);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending weather data to " + url);
+        }
+        List<String> failed = new ArrayList<>();
+        IOException error = null;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException e) {
+                failed.add(payloads.get(i).getSid());
+                if (error == null) {
+                    error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
                 }
-
-                log.debug("Weather data for " + payload.getSid() + " sent to " + url);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending weather data to " + url);
             }
-        } finally {
-            httpPost.releaseConnection();
-            httpclient.close();
         }
+        if (error != null) {
+            rememberSent(records, sent, failed);
+            log.warn("Failed to send weather data for " + failed + " to " + url);
+            throw error;
+        }
+        synchronized (this) {
+            retry = Collections.emptyMap();
+        }
+        return records.size();
+    }
 
-        return false;
+    private void send(String url, OpenSensorPayload payload) throws IOException {
+        HttpEntity body = new ByteArrayEntity(objectMapper.writeValueAsBytes(payload), ContentType.APPLICATION_JSON);
+        String accessToken = tokens.getToken();
+        int status = post(url, accessToken, body);
+        if (status == HttpStatus.SC_UNAUTHORIZED) {
+            // The token was revoked or expired early, get a new one and try once more.
+            tokens.invalidate(accessToken);
+            status = post(url, tokens.getToken(), body);
+        }
+        if (status >= 300) {
+            throw new IOException("Failed to send weather data for " + payload.getSid() + " to " + url + ": HTTP " + status);
+        }
+        log.debug("Weather data for " + payload.getSid() + " (" + payload.size() + " values) sent to " + url);
+    }
+
+    private int post(String url, String accessToken, HttpEntity body) throws IOException {
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+        httpPost.setEntity(body);
+        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            HttpEntity entity = response.getEntity();
+            if (entity != null && log.isDebugEnabled()) {
+                log.debug(response.getStatusLine() + " " + EntityUtils.toString(entity));
+            } else {
+                EntityUtils.consume(entity);
+            }
+            return response.getStatusLine().getStatusCode();
+        }
     }
 
     private ObjectMapper objectMapper() {
@@ -129,46 +239,70 @@ public class OpenSensorDataStore implements DataStore {
         return objectMapper;
     }
 
-    private List<String> getCollectorProbes(Properties prop) {
-        List<String> result = new ArrayList<>();
+    /**
+     * Resolve the names in <code>collector.values</code> to archive fields.
+     *
+     * @throws IllegalArgumentException if a name is unknown or has no sid
+     */
+    private static List<Probe> getProbes(Properties prop) {
+        List<Probe> result = new ArrayList<>();
         String line = prop.getProperty("collector.values");
         if (line != null && line.trim().length() > 0) {
             String[] values = line.split(",");
             for (int i = 0; i < values.length; i++) {
-                result.add(values[i].trim());
+                String probe = values[i].trim();
+                String sid = prop.getProperty("collector." + probe + ".sid");
+                if (sid == null) {
+                    throw new IllegalArgumentException("Property collector." + probe + ".sid must be set");
+                }
+                result.add(new Probe(ArchiveField.forName(probe), sid));
             }
         }
         return result;
     }
 
-    private List<OpenSensorPayload> createPayload(ArchiveRecord rec, List<String> probes, Properties prop) {
-        List<OpenSensorPayload> result = new ArrayList<>();
-
-        for (String probe : probes) {
-            OpenSensorPayload payload = new OpenSensorPayload();
-            String sid = prop.getProperty("collector." + probe + ".sid");
-            if (sid == null) {
-                throw new IllegalArgumentException("Property collector." + probe + ".sid must be set");
+    /**
+     * Remember which values of a failed batch each sid has accepted, so a retry only sends the others.
+     */
+    private void rememberSent(Collection<? extends ArchiveRecord> records, Map<String, Set<Long>> sent, List<String> failed) {
+        Set<Long> times = new HashSet<>();
+        for (ArchiveRecord rec : records) {
+            times.add(rec.getTimestampMillis());
+        }
+        Map<String, Set<Long>> result = new HashMap<>();
+        for (Probe probe : probes) {
+            if (!failed.contains(probe.sid)) {
+                result.put(probe.sid, times);
+            } else if (sent.containsKey(probe.sid)) {
+                // Accepted by an earlier attempt and still part of this batch.
+                Set<Long> before = new HashSet<>(sent.get(probe.sid));
+                before.retainAll(times);
+                result.put(probe.sid, before);
             }
-            payload.setSid(sid);
-            payload.addValue(rec.getTimestamp(), (Number) getFieldValue(rec, probe));
-            result.add(payload);
         }
-
-        return result;
+        synchronized (this) {
+            retry = result;
+        }
     }
 
-    private Object getFieldValue(ArchiveRecord rec, String fieldName) {
-        try {
-            Field field = rec.getClass().getDeclaredField(fieldName);
-            field.setAccessible(true);
-            return field.get(rec);
-        } catch (NoSuchFieldException e) {
-            log.error(e.getMessage());
-        } catch (IllegalAccessException e) {
-            log.error(e.getMessage());
-        }
-        return null;
+    /**
+     * Create one payload per sid with the values of the records that sid has not accepted yet.
+     */
+    private List<OpenSensorPayload> createPayload(Collection<? extends ArchiveRecord> records, Map<String, Set<Long>> sent) {
+        List<OpenSensorPayload> result = new ArrayList<>(probes.size());
+        for (Probe probe : probes) {
+            OpenSensorPayload payload = new OpenSensorPayload(probe.sid);
+            Set<Long> skip = sent.getOrDefault(probe.sid, Collections.emptySet());
+            for (ArchiveRecord rec : records) {
+                if (!skip.contains(rec.getTimestampMillis())) {
+                    payload.addValue(rec.getTimestamp(), probe.field.getValue(rec));
+                }
+            }
+            if (payload.size() > 0) {
+                result.add(payload);
+            }
+        }
+        return result;
     }
 
     @Override
@@ -180,56 +314,4 @@ public class OpenSensorDataStore implements DataStore {
     public void updateCurrent(CurrentRecord current) throws IOException {
 
     }
-
-    private String getAccessToken(URI url, String username, String password, String clientId, String clientSecret) throws IOException {
-        String accessToken = null;
-        HttpHost target = new HttpHost(url.getHost(), url.getPort(), url.getScheme());
-        CredentialsProvider credsProvider = new BasicCredentialsProvider();
-        credsProvider.setCredentials(
-                new AuthScope(target.getHostName(), target.getPort()),
-                new UsernamePasswordCredentials(clientId, clientSecret));
-        CloseableHttpClient httpclient = HttpClients.custom().setDefaultCredentialsProvider(credsProvider).build();
-        try {
-            // Create AuthCache instance
-            AuthCache authCache = new BasicAuthCache();
-            // Generate BASIC scheme object and add it to the local auth cache
-            BasicScheme basicAuth = new BasicScheme();
-            authCache.put(target, basicAuth);
-
-            // Add AuthCache to the execution context
-            HttpClientContext localContext = HttpClientContext.create();
-            localContext.setAuthCache(authCache);
-
-            HttpPost httpPost = new HttpPost(url);
-            httpPost.setHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
-
-            List<NameValuePair> urlParameters = new ArrayList<NameValuePair>();
-            urlParameters.add(new BasicNameValuePair("username", username));
-            urlParameters.add(new BasicNameValuePair("password", password));
-            urlParameters.add(new BasicNameValuePair("grant_type", "password"));
-            urlParameters.add(new BasicNameValuePair("scope", "sensor data"));
-            urlParameters.add(new BasicNameValuePair("client_id", clientId));
-            urlParameters.add(new BasicNameValuePair("client_secret", clientSecret));
-
-            httpPost.setEntity(new UrlEncodedFormEntity(urlParameters));
-
-            CloseableHttpResponse response = httpclient.execute(target, httpPost, localContext);
-
-            try {
-                JsonNode json = objectMapper().readTree(response.getEntity().getContent());
-                accessToken = json.get("access_token").asText();
-            } finally {
-                response.close();
-                httpPost.releaseConnection();
-            }
-
-        } catch (ClientProtocolException e) {
-            log.error(e.getMessage());
-        } catch (IOException e) {
-            log.error(e.getMessage());
-        } finally {
-            httpclient.close();
-        }
-        return accessToken;
-    }
 }
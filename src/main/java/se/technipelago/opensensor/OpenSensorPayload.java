@@ -48,6 +48,11 @@ public class OpenSensorPayload implements Serializable {
         return this;
     }
 
+    public OpenSensorPayload addValue(Date timestamp, double value) {
+        data.add(new MeasuredData(timestamp, value));
+        return this;
+    }
+
     public int size() {
         return data.size();
     }
@@ -82,6 +87,11 @@ public class OpenSensorPayload implements Serializable {
             this.value = BigDecimal.valueOf(value.doubleValue());
         }
 
+        public MeasuredData(Date timestamp, double value) {
+            this.timestamp = timestamp;
+            this.value = BigDecimal.valueOf(value);
+        }
+
         public Date getTimestamp() {
             return timestamp;
         }
@@ -4,7 +4,10 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.technipelago.weather.archive.ArchiveRecord;
+import se.technipelago.weather.datastore.AsyncDataStore;
+import se.technipelago.weather.datastore.BatchDataStore;
 import se.technipelago.weather.datastore.DataStore;
+import se.technipelago.weather.datastore.spool.SpoolingDataStore;
 
 import java.io.IOException;
 import java.util.*;
@@ -27,8 +30,7 @@ public abstract class AbstractController implements Controller {
             addDataStore(type, initDataStore(type, prop));
         }
 
-        final String statusType = prop.getProperty("datastore.status");
-        setStatusDataStore(StringUtils.isEmpty(statusType) ? types.get(0) : statusType);
+        setStatusDataStore(getStatusDataStoreType(prop));
         log.debug("Data store " + statusDataStore + " will be used to store download status");
     }
 
@@ -39,12 +41,36 @@ public abstract class AbstractController implements Controller {
             throw new IllegalArgumentException(propertyName + " must be set");
         }
 
-        final DataStore dataStore = createDataStore(className);
-        dataStore.init(getDataStoreProperties(type, prop));
+        DataStore dataStore = createDataStore(className);
+        final Properties storeProperties = getDataStoreProperties(type, prop);
+        dataStore.init(storeProperties);
         log.info("Data store " + type + " (" + className + ") initialized");
+        if (Boolean.parseBoolean(storeProperties.getProperty("spool"))) {
+            // Records are kept on disk until the store has accepted them.
+            dataStore = new SpoolingDataStore(type, dataStore, storeProperties);
+        }
+        if (type.equals(getStatusDataStoreType(prop))) {
+            // Written directly, so the download status is only saved when the records are and errors reach the caller.
+            if (Boolean.parseBoolean(storeProperties.getProperty("async"))) {
+                log.warn("Data store " + type + " keeps the download status and is not asynchronous");
+            }
+            return dataStore;
+        }
+        if (Boolean.parseBoolean(storeProperties.getProperty("async", "true"))) {
+            // Each store is written by its own worker, a slow store does not delay the others.
+            return new AsyncDataStore(type, dataStore, storeProperties);
+        }
         return dataStore;
     }
 
+    /**
+     * The data store that keeps the download status, <code>datastore.status</code> or else the first data store.
+     */
+    protected String getStatusDataStoreType(Properties prop) {
+        final String statusType = prop.getProperty("datastore.status");
+        return StringUtils.isEmpty(statusType) ? getDataStoreTypes(prop).get(0) : statusType;
+    }
+
     protected DataStore createDataStore(String className) {
         try {
             final Class<?> clazz = Class.forName(className);
@@ -113,6 +139,61 @@ public abstract class AbstractController implements Controller {
         });
     }
 
+    /**
+     * Save archive records in all data stores. Stores that implement {@link BatchDataStore} get all records at once.
+     * <p>
+     * A failure in one store does not keep the records from the others. A failure in the status data store is
+     * thrown when all stores have been tried, so the caller does not record the records as saved.
+     *
+     * @param records records in time order
+     * @throws IOException if the status data store failed to save the records
+     */
+    protected void saveRecords(Collection<? extends ArchiveRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        final DataStore statusStore = getStatusDataStore();
+        IOException statusFailure = null;
+        for (DataStore store : getDataStores().values()) {
+            try {
+                if (store instanceof BatchDataStore) {
+                    final int count = ((BatchDataStore) store).insertBatch(records);
+                    if (count < records.size()) {
+                        log.debug((records.size() - count) + " records already saved");
+                    }
+                } else {
+                    for (ArchiveRecord rec : records) {
+                        if (!store.insertData(rec)) {
+                            log.debug("Record already saved: " + rec);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (store == statusStore) {
+                    statusFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+                } else {
+                    log.error("Failed to save weather data", e);
+                }
+            }
+        }
+        if (statusFailure != null) {
+            throw statusFailure;
+        }
+    }
+
+    /**
+     * Log how far behind each asynchronous data store is.
+     */
+    protected void logDataStoreLag() {
+        getDataStores().forEach((type, store) -> {
+            if (store instanceof AsyncDataStore) {
+                final AsyncDataStore async = (AsyncDataStore) store;
+                log.debug("Data store " + type + ": " + async.getPending() + " pending, lag " + async.getLastLag()
+                        + " ms, max lag " + async.getMaxLag() + " ms, " + async.getFailed() + " failed");
+            }
+        });
+    }
+
     public void cleanup() {
         forEachDataStore(store -> {
             try {
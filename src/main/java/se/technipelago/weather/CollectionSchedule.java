@@ -0,0 +1,87 @@
+package se.technipelago.weather;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells a resident collector when to run the next collection cycle.
+ * <p>
+ * Cycles are aligned to the local wall clock, e.g. with a 10 minute interval and a 30 second
+ * offset the collector runs at 12:00:30, 12:10:30, 12:20:30 and so on. The offset gives the
+ * console time to write its archive record before the collector asks for it.
+ */
+public class CollectionSchedule {
+
+    public static final int DEFAULT_INTERVAL = 10;
+    public static final int DEFAULT_OFFSET = 30;
+
+    private final long interval;
+    private final long offset;
+    private final ZoneId zone;
+
+    /**
+     * Create a new schedule.
+     *
+     * @param interval minutes between cycles, should match the console archive interval
+     * @param offset   seconds after each interval boundary
+     */
+    public CollectionSchedule(int interval, int offset) {
+        this(interval, offset, ZoneId.systemDefault());
+    }
+
+    public CollectionSchedule(int interval, int offset, ZoneId zone) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid interval: " + interval);
+        }
+        if (offset < 0 || offset >= interval * 60) {
+            throw new IllegalArgumentException("Invalid offset: " + offset);
+        }
+        this.interval = TimeUnit.MINUTES.toMillis(interval);
+        this.offset = TimeUnit.SECONDS.toMillis(offset);
+        this.zone = zone;
+    }
+
+    /**
+     * Create a schedule from <code>daemon.interval</code> (minutes) and <code>daemon.offset</code> (seconds).
+     *
+     * @param prop collector configuration
+     * @return a new schedule
+     */
+    public static CollectionSchedule fromProperties(Properties prop) {
+        final String interval = prop.getProperty("daemon.interval");
+        final String offset = prop.getProperty("daemon.offset");
+        return new CollectionSchedule(
+                StringUtils.isBlank(interval) ? DEFAULT_INTERVAL : Integer.parseInt(interval.trim()),
+                StringUtils.isBlank(offset) ? DEFAULT_OFFSET : Integer.parseInt(offset.trim()));
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Return the time of the next cycle.
+     *
+     * @param now current time in milliseconds since epoch
+     * @return the time of the next cycle in milliseconds since epoch, always after <code>now</code>
+     */
+    public long next(long now) {
+        final long zoneOffset = zone.getRules().getOffset(Instant.ofEpochMilli(now)).getTotalSeconds() * 1000L;
+        final long local = now + zoneOffset - offset;
+        return Math.floorDiv(local, interval) * interval + interval + offset - zoneOffset;
+    }
+
+    /**
+     * Sleep until the next cycle.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        final long now = System.currentTimeMillis();
+        Thread.sleep(next(now) - now);
+    }
+}
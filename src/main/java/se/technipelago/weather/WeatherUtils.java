@@ -31,4 +31,32 @@ public class WeatherUtils {
         }
         return prop;
     }
+
+    /**
+     * Read an integer property.
+     *
+     * @param prop         properties
+     * @param name         property name
+     * @param defaultValue value if the property is not set or blank
+     * @return the value
+     * @throws NumberFormatException if the value is not a number
+     */
+    public static int getInt(Properties prop, String name, int defaultValue) {
+        final String value = prop.getProperty(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Read a long property.
+     *
+     * @param prop         properties
+     * @param name         property name
+     * @param defaultValue value if the property is not set or blank
+     * @return the value
+     * @throws NumberFormatException if the value is not a number
+     */
+    public static long getLong(Properties prop, String name, long defaultValue) {
+        final String value = prop.getProperty(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : Long.parseLong(value.trim());
+    }
 }
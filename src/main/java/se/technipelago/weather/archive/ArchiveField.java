@@ -0,0 +1,88 @@
+package se.technipelago.weather.archive;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * The measured values of an {@link ArchiveRecord}, by the name of the property.
+ * <p>
+ * Data stores that let the configuration choose which values to send resolve the names once with
+ * {@link #forName(String)} and then read values with {@link #getValue(ArchiveRecord)}, without reflection.
+ */
+public enum ArchiveField {
+
+    OUTSIDE_TEMPERATURE("outsideTemperature", ArchiveRecord::getOutsideTemperature),
+    OUTSIDE_TEMPERATURE_HIGH("outsideTemperatureHigh", ArchiveRecord::getOutsideTemperatureHigh),
+    OUTSIDE_TEMPERATURE_LOW("outsideTemperatureLow", ArchiveRecord::getOutsideTemperatureLow),
+    INSIDE_TEMPERATURE("insideTemperature", ArchiveRecord::getInsideTemperature),
+    EXTRA_TEMPERATURE_1("extraTemperature1", ArchiveRecord::getExtraTemperature1),
+    EXTRA_TEMPERATURE_2("extraTemperature2", ArchiveRecord::getExtraTemperature2),
+    EXTRA_TEMPERATURE_3("extraTemperature3", ArchiveRecord::getExtraTemperature3),
+    RAIN_FALL("rainFall", ArchiveRecord::getRainFall),
+    RAIN_RATE_HIGH("rainRateHigh", ArchiveRecord::getRainRateHigh),
+    BAROMETER("barometer", ArchiveRecord::getBarometer),
+    OUTSIDE_HUMIDITY("outsideHumidity", ArchiveRecord::getOutsideHumidity),
+    INSIDE_HUMIDITY("insideHumidity", ArchiveRecord::getInsideHumidity),
+    EXTRA_HUMIDITY_1("extraHumidity1", ArchiveRecord::getExtraHumidity1),
+    EXTRA_HUMIDITY_2("extraHumidity2", ArchiveRecord::getExtraHumidity2),
+    SOLAR_RADIATION("solarRadiation", ArchiveRecord::getSolarRadiation),
+    UV_INDEX("uvIndex", ArchiveRecord::getUvIndex),
+    WIND_SPEED_AVG("windSpeedAvg", ArchiveRecord::getWindSpeedAvg),
+    WIND_SPEED_HIGH("windSpeedHigh", ArchiveRecord::getWindSpeedHigh),
+    WIND_DIRECTION("windDirection", ArchiveRecord::getWindDirection);
+
+    private static final Map<String, ArchiveField> BY_NAME;
+
+    static {
+        final Map<String, ArchiveField> map = new HashMap<>();
+        for (ArchiveField field : values()) {
+            map.put(field.name, field);
+        }
+        BY_NAME = Collections.unmodifiableMap(map);
+    }
+
+    private final String name;
+    private final ToDoubleFunction<ArchiveRecord> getter;
+
+    ArchiveField(String name, ToDoubleFunction<ArchiveRecord> getter) {
+        this.name = name;
+        this.getter = getter;
+    }
+
+    /**
+     * The property name, for example <code>outsideTemperature</code>.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Read this value from a record. Works with read-only record views too.
+     *
+     * @param rec archive record
+     * @return the value
+     */
+    public double getValue(ArchiveRecord rec) {
+        return getter.applyAsDouble(rec);
+    }
+
+    /**
+     * Find a field by property name.
+     *
+     * @param name property name, for example <code>outsideTemperature</code>
+     * @return the field
+     * @throws IllegalArgumentException if there is no field with that name
+     */
+    public static ArchiveField forName(String name) {
+        final ArchiveField field = BY_NAME.get(name);
+        if (field == null) {
+            throw new IllegalArgumentException("Unknown archive field '" + name + "', valid names are "
+                    + Arrays.stream(values()).map(ArchiveField::getName).collect(Collectors.joining(", ")));
+        }
+        return field;
+    }
+}
@@ -45,5 +45,12 @@ public class ArchivePage {
         }
         return rec;
     }
+
+    public void setRecord(int index, ArchiveRecord rec) {
+        if(index < 0 || index > 4) {
+            throw new IllegalArgumentException("index " + index + " is illegal");
+        }
+        records[index] = rec;
+    }
     
 }
@@ -75,6 +75,23 @@ public class ArchiveRecord {
         this.timestamp = timestamp;
     }
 
+    /**
+     * @return the timestamp in milliseconds since epoch, or 0 if not set
+     */
+    public long getTimestampMillis() {
+        return timestamp != null ? timestamp.getTime() : 0L;
+    }
+
+    /**
+     * Return a plain, modifiable record with the same values.
+     * A plain record returns itself, read-only views return a copy.
+     *
+     * @return an ArchiveRecord
+     */
+    public ArchiveRecord toArchiveRecord() {
+        return this;
+    }
+
     public double getOutsideTemperature() {
         return outsideTemperature;
     }
@@ -207,31 +224,36 @@ public class ArchiveRecord {
     public String toString() {
         StringBuilder buf = new StringBuilder();
         buf.append('#');
-        buf.append(String.valueOf(recordNumber));
+        buf.append(String.valueOf(getRecordNumber()));
         buf.append(' ');
+        Date timestamp = getTimestamp();
         buf.append(timestamp != null ? dateTimeFormat.format(timestamp) : "null");
+        double outsideTemperature = getOutsideTemperature();
         if (outsideTemperature != 32767) {
             buf.append(" <");
             buf.append(tempFormat.format(outsideTemperature));
             buf.append(" \u00B0C>");
         }
         buf.append(" <");
-        buf.append(String.valueOf(barometer));
+        buf.append(String.valueOf(getBarometer()));
         buf.append(" mb>");
         buf.append(" <rain=");
-        buf.append(String.valueOf(rainFall));
+        buf.append(String.valueOf(getRainFall()));
         buf.append(" mm>");
+        int outsideHumidity = getOutsideHumidity();
         if (outsideHumidity != 255) {
             buf.append(" <hum=");
             buf.append(String.valueOf(outsideHumidity));
             buf.append(" %>");
         }
+        double windSpeedAvg = getWindSpeedAvg();
         if (windSpeedAvg != 255) {
             buf.append(" <wind=");
             buf.append(String.valueOf(windSpeedAvg));
             buf.append(" m/s>");
         }
-        if (windDirection != -1) {
+        int windDirection = getWindDirection();
+        if (windDirection >= 0 && windDirection < Constants.WIND_DIR_NAMES.length) {
             buf.append(" <wind dir=");
             buf.append(Constants.WIND_DIR_NAMES[windDirection]);
             buf.append(">");
@@ -16,12 +16,15 @@
  */
 package se.technipelago.weather.archive;
 
+import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * This is a POJO that hold current (live) values from the weather station.
+ * Values are kept in primitive fields so that one instance can be reused for every LOOP packet,
+ * use the copy constructor to take a snapshot that can be handed over to another thread.
  * The following MySQL TABLE can be used to persist the data:<br>
  * <pre>
  * CREATE TABLE current (
@@ -53,26 +56,101 @@ public class CurrentRecord {
     public static final String FORECAST_ICON_SNOW = "snow";
     private int barometerTrend;
     private double consoleBatteryVolt;
-    private String[] forecastIcons;
+    private int forecastIconMask;
     private String forecastMessage;
-    private Date sunrise;
-    private Date sunset;
-    private Date timestamp;
+    private int sunrise;
+    private int sunset;
+    private long timestamp;
     private int transmitterBatteryStatus;
 
+    private int barometer;
+    private double insideTemperature;
+    private int insideHumidity;
+    private double outsideTemperature;
+    private int outsideHumidity;
+    private double windSpeed;
+    private double windSpeedAvg;
+    private double windGust;
+    private int windDirection;
+    private double dewPoint;
+    private double heatIndex;
+    private double windChill;
+    private double rainRate;
+    private double rainDay;
+    private double uvIndex;
+    private int solarRadiation;
+    private double extraTemperature1;
+    private double extraTemperature2;
+    private double extraTemperature3;
+    private int extraHumidity1;
+    private int extraHumidity2;
 
     private static final Map<String, Integer> icons = new HashMap<String, Integer>();
 
+    /**
+     * Icon names for every possible icon mask, so getForecastIcons() does not have to build a new array.
+     */
+    private static final String[][] ICON_NAMES = new String[32][];
+
     static {
         icons.put(FORECAST_ICON_RAIN, 0x01);
         icons.put(FORECAST_ICON_CLOUD, 0x02);
         icons.put(FORECAST_ICON_PARTLY_CLOUD, 0x04);
         icons.put(FORECAST_ICON_SUN, 0x08);
         icons.put(FORECAST_ICON_SNOW, 0x10);
+
+        final String[] order = {FORECAST_ICON_RAIN, FORECAST_ICON_CLOUD, FORECAST_ICON_PARTLY_CLOUD, FORECAST_ICON_SUN, FORECAST_ICON_SNOW};
+        for (int mask = 0; mask < ICON_NAMES.length; mask++) {
+            final String[] names = new String[Integer.bitCount(mask)];
+            int size = 0;
+            for (String icon : order) {
+                if ((mask & icons.get(icon)) != 0) {
+                    names[size++] = icon;
+                }
+            }
+            ICON_NAMES[mask] = names;
+        }
     }
 
     public CurrentRecord() {
-        this.timestamp = new Date();
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Create a copy of another record.
+     *
+     * @param other the record to copy
+     */
+    public CurrentRecord(CurrentRecord other) {
+        this.barometerTrend = other.barometerTrend;
+        this.consoleBatteryVolt = other.consoleBatteryVolt;
+        this.forecastIconMask = other.forecastIconMask;
+        this.forecastMessage = other.forecastMessage;
+        this.sunrise = other.sunrise;
+        this.sunset = other.sunset;
+        this.timestamp = other.timestamp;
+        this.transmitterBatteryStatus = other.transmitterBatteryStatus;
+        this.barometer = other.barometer;
+        this.insideTemperature = other.insideTemperature;
+        this.insideHumidity = other.insideHumidity;
+        this.outsideTemperature = other.outsideTemperature;
+        this.outsideHumidity = other.outsideHumidity;
+        this.windSpeed = other.windSpeed;
+        this.windSpeedAvg = other.windSpeedAvg;
+        this.windGust = other.windGust;
+        this.windDirection = other.windDirection;
+        this.dewPoint = other.dewPoint;
+        this.heatIndex = other.heatIndex;
+        this.windChill = other.windChill;
+        this.rainRate = other.rainRate;
+        this.rainDay = other.rainDay;
+        this.uvIndex = other.uvIndex;
+        this.solarRadiation = other.solarRadiation;
+        this.extraTemperature1 = other.extraTemperature1;
+        this.extraTemperature2 = other.extraTemperature2;
+        this.extraTemperature3 = other.extraTemperature3;
+        this.extraHumidity1 = other.extraHumidity1;
+        this.extraHumidity2 = other.extraHumidity2;
     }
 
     public int getBarometerTrend() {
@@ -91,21 +169,34 @@ public class CurrentRecord {
         this.consoleBatteryVolt = consoleBatteryVolt;
     }
 
+    /**
+     * Return the names of the forecast icons shown on the console.
+     * The returned array is shared and must not be modified.
+     *
+     * @return icon names
+     */
     public String[] getForecastIcons() {
-        return forecastIcons;
+        return ICON_NAMES[forecastIconMask & 0x1f];
     }
 
     public void setForecastIcons(final String[] forecastIcons) {
-        this.forecastIcons = new String[forecastIcons.length];
-        System.arraycopy(forecastIcons, 0, this.forecastIcons, 0, forecastIcons.length);
-    }
-
-    public int getForcastIconMask() {
         int mask = 0;
-        for(String icon : getForecastIcons()) {
+        for (String icon : forecastIcons) {
             mask |= icons.get(icon);
         }
-        return mask;
+        this.forecastIconMask = mask;
+    }
+
+    public int getForecastIconMask() {
+        return forecastIconMask;
+    }
+
+    public void setForecastIconMask(int forecastIconMask) {
+        this.forecastIconMask = forecastIconMask & 0x1f;
+    }
+
+    public int getForcastIconMask() {
+        return getForecastIconMask();
     }
 
     public String getForecastMessage() {
@@ -117,26 +208,56 @@ public class CurrentRecord {
     }
 
     public Date getSunrise() {
-        return sunrise;
+        return today(sunrise);
     }
 
     public void setSunrise(final Date sunrise) {
+        this.sunrise = hourMinute(sunrise);
+    }
+
+    /**
+     * @return time of sunrise as hour * 100 + minute
+     */
+    public int getSunriseTime() {
+        return sunrise;
+    }
+
+    public void setSunriseTime(int sunrise) {
         this.sunrise = sunrise;
     }
 
     public Date getSunset() {
-        return sunset;
+        return today(sunset);
     }
 
     public void setSunset(final Date sunset) {
+        this.sunset = hourMinute(sunset);
+    }
+
+    /**
+     * @return time of sunset as hour * 100 + minute
+     */
+    public int getSunsetTime() {
+        return sunset;
+    }
+
+    public void setSunsetTime(int sunset) {
         this.sunset = sunset;
     }
 
     public Date getTimestamp() {
-        return timestamp;
+        return new Date(timestamp);
     }
 
     public void setTimestamp(Date timestamp) {
+        this.timestamp = timestamp.getTime();
+    }
+
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+
+    public void setTimestampMillis(long timestamp) {
         this.timestamp = timestamp;
     }
 
@@ -147,4 +268,205 @@ public class CurrentRecord {
     public void setTransmitterBatteryStatus(int transmitterBatteryStatus) {
         this.transmitterBatteryStatus = transmitterBatteryStatus;
     }
+
+    public int getBarometer() {
+        return barometer;
+    }
+
+    public void setBarometer(int barometer) {
+        this.barometer = barometer;
+    }
+
+    public double getInsideTemperature() {
+        return insideTemperature;
+    }
+
+    public void setInsideTemperature(double insideTemperature) {
+        this.insideTemperature = insideTemperature;
+    }
+
+    public int getInsideHumidity() {
+        return insideHumidity;
+    }
+
+    public void setInsideHumidity(int insideHumidity) {
+        this.insideHumidity = insideHumidity;
+    }
+
+    public double getOutsideTemperature() {
+        return outsideTemperature;
+    }
+
+    public void setOutsideTemperature(double outsideTemperature) {
+        this.outsideTemperature = outsideTemperature;
+    }
+
+    public int getOutsideHumidity() {
+        return outsideHumidity;
+    }
+
+    public void setOutsideHumidity(int outsideHumidity) {
+        this.outsideHumidity = outsideHumidity;
+    }
+
+    public double getWindSpeed() {
+        return windSpeed;
+    }
+
+    public void setWindSpeed(double windSpeed) {
+        this.windSpeed = windSpeed;
+    }
+
+    /**
+     * @return 10 minute average wind speed
+     */
+    public double getWindSpeedAvg() {
+        return windSpeedAvg;
+    }
+
+    public void setWindSpeedAvg(double windSpeedAvg) {
+        this.windSpeedAvg = windSpeedAvg;
+    }
+
+    /**
+     * @return 10 minute wind gust, only sent in LOOP2 packets
+     */
+    public double getWindGust() {
+        return windGust;
+    }
+
+    public void setWindGust(double windGust) {
+        this.windGust = windGust;
+    }
+
+    /**
+     * @return wind direction in degrees, 0 if there is no wind data
+     */
+    public int getWindDirection() {
+        return windDirection;
+    }
+
+    public void setWindDirection(int windDirection) {
+        this.windDirection = windDirection;
+    }
+
+    /**
+     * @return dew point, only sent in LOOP2 packets
+     */
+    public double getDewPoint() {
+        return dewPoint;
+    }
+
+    public void setDewPoint(double dewPoint) {
+        this.dewPoint = dewPoint;
+    }
+
+    /**
+     * @return heat index, only sent in LOOP2 packets
+     */
+    public double getHeatIndex() {
+        return heatIndex;
+    }
+
+    public void setHeatIndex(double heatIndex) {
+        this.heatIndex = heatIndex;
+    }
+
+    /**
+     * @return wind chill, only sent in LOOP2 packets
+     */
+    public double getWindChill() {
+        return windChill;
+    }
+
+    public void setWindChill(double windChill) {
+        this.windChill = windChill;
+    }
+
+    public double getRainRate() {
+        return rainRate;
+    }
+
+    public void setRainRate(double rainRate) {
+        this.rainRate = rainRate;
+    }
+
+    public double getRainDay() {
+        return rainDay;
+    }
+
+    public void setRainDay(double rainDay) {
+        this.rainDay = rainDay;
+    }
+
+    public double getUvIndex() {
+        return uvIndex;
+    }
+
+    public void setUvIndex(double uvIndex) {
+        this.uvIndex = uvIndex;
+    }
+
+    public int getSolarRadiation() {
+        return solarRadiation;
+    }
+
+    public void setSolarRadiation(int solarRadiation) {
+        this.solarRadiation = solarRadiation;
+    }
+
+    public double getExtraTemperature1() {
+        return extraTemperature1;
+    }
+
+    public void setExtraTemperature1(double extraTemperature1) {
+        this.extraTemperature1 = extraTemperature1;
+    }
+
+    public double getExtraTemperature2() {
+        return extraTemperature2;
+    }
+
+    public void setExtraTemperature2(double extraTemperature2) {
+        this.extraTemperature2 = extraTemperature2;
+    }
+
+    public double getExtraTemperature3() {
+        return extraTemperature3;
+    }
+
+    public void setExtraTemperature3(double extraTemperature3) {
+        this.extraTemperature3 = extraTemperature3;
+    }
+
+    public int getExtraHumidity1() {
+        return extraHumidity1;
+    }
+
+    public void setExtraHumidity1(int extraHumidity1) {
+        this.extraHumidity1 = extraHumidity1;
+    }
+
+    public int getExtraHumidity2() {
+        return extraHumidity2;
+    }
+
+    public void setExtraHumidity2(int extraHumidity2) {
+        this.extraHumidity2 = extraHumidity2;
+    }
+
+    private static int hourMinute(Date time) {
+        final Calendar cal = Calendar.getInstance();
+        cal.setTime(time);
+        return cal.get(Calendar.HOUR_OF_DAY) * 100 + cal.get(Calendar.MINUTE);
+    }
+
+    private static Date today(int hourMinute) {
+        final Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.HOUR_OF_DAY, hourMinute / 100);
+        cal.set(Calendar.MINUTE, hourMinute % 100);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTime();
+    }
 }
@@ -19,6 +19,7 @@ package se.technipelago.weather.dataimport;
 import se.technipelago.weather.AbstractController;
 import se.technipelago.weather.WeatherUtils;
 import se.technipelago.weather.archive.ArchiveRecord;
+import se.technipelago.weather.vantagepro.TimestampCodec;
 import se.technipelago.weather.vantagepro.VantageUtil;
 
 import java.io.DataInputStream;
@@ -29,8 +30,11 @@ import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,6 +48,8 @@ public class WeatherLinkImporter extends AbstractController {
     private static final Pattern FILE_PATTERN = Pattern.compile("([12][09][\\d][\\d]\\-[01][\\d])\\.[wW][lL][kK]$");
     private static final DateFormat FILE_DATE = new SimpleDateFormat("yyyy-MM");
 
+    private final TimestampCodec timestampCodec = new TimestampCodec();
+
     public static void main(String[] args) {
         final WeatherLinkImporter imp = new WeatherLinkImporter();
         imp.start(args);
@@ -118,16 +124,9 @@ public class WeatherLinkImporter extends AbstractController {
             records[i] = rec;
         }
 
-        Calendar cal = Calendar.getInstance();
-        cal.set(Calendar.YEAR, year);
-        cal.set(Calendar.MONTH, month);
-        //cal.set(Calendar.DAY_OF_MONTH, 1);
-        cal.set(Calendar.HOUR_OF_DAY, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
+        final long firstDay = LocalDate.of(year, month + 1, 1).toEpochDay();
+        final List<ArchiveRecord> archive = new ArrayList<>(header.totalRecords);
         for (int i = 1; i < 32; i++) {
-            cal.set(Calendar.DAY_OF_MONTH, i);
             DayIndex di = header.dayIndex[i];
             if (di.recordsInDay > 0) {
                 int pos = di.startPos;
@@ -136,15 +135,18 @@ public class WeatherLinkImporter extends AbstractController {
                 DailySummary2 sum2 = (DailySummary2) records[pos++];
                 while (pos < next) {
                     WeatherDataRecord rec = (WeatherDataRecord) records[pos++];
-                    store(cal.getTime(), sum1, sum2, rec);
+                    // packedTime is minutes since midnight, local time.
+                    long ts = timestampCodec.toEpochMillis(firstDay + i - 1, rec.packedTime * 60L);
+                    archive.add(createArchiveRecord(ts, sum1, sum2, rec));
                 }
             }
         }
-
+        // Data stores that support it save the whole month in batches.
+        saveRecords(archive);
     }
 
     /**
-     * Store archive data in MySQL table.
+     * Convert a WeatherLink record to an archive record for the archive table.
      * The table is created with the following statement:<br>
      * <pre>
      * CREATE TABLE archive (
@@ -165,13 +167,14 @@ public class WeatherLinkImporter extends AbstractController {
      * );
      * </pre>
      *
-     * @param date
+     * @param timestamp record time in milliseconds since epoch
      * @param sum1
      * @param sum2
      * @param rec
+     * @return the archive record
      */
-    private void store(Date date, DailySummary1 sum1, DailySummary2 sum2, WeatherDataRecord rec) throws IOException {
-        Date ts = new Date(date.getTime() + rec.packedTime * 60 * 1000);
+    private ArchiveRecord createArchiveRecord(long timestamp, DailySummary1 sum1, DailySummary2 sum2, WeatherDataRecord rec) {
+        Date ts = new Date(timestamp);
         double temp_out = (int) (VantageUtil.fahrenheit2celcius(rec.outTemp / 10.0) * 10) / 10.0;
         double temp_in = (int) (VantageUtil.fahrenheit2celcius(rec.inTemp / 10.0) * 10) / 10.0;
         int hum_out = rec.outHum / 10;
@@ -245,7 +248,7 @@ public class WeatherLinkImporter extends AbstractController {
         archive.setSolarRadiation(solar);
         archive.setUvIndex(uv);
 
-        saveRecord(archive);
+        return archive;
     }
 
     private static int readUnsignedByte(DataInputStream in) throws IOException {
@@ -0,0 +1,346 @@
+package se.technipelago.weather.datastore;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.technipelago.weather.WeatherUtils;
+import se.technipelago.weather.archive.ArchiveRecord;
+import se.technipelago.weather.archive.CurrentRecord;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes to a data store on worker threads, so a slow store does not hold up the download or the other stores.
+ * <p>
+ * Each store gets its own bounded queue. When the queue is full the caller waits, so memory use stays bounded
+ * when a store is down. Settings, from the properties of the wrapped store:
+ * <ul>
+ * <li><code>async.queue</code> - max number of queued operations, default 1000</li>
+ * <li><code>async.ordered</code> - write in the order the operations were queued, default true.
+ * If false, <code>async.workers</code> threads write concurrently and {@link #updateStatus(Date, Date)} waits for
+ * all earlier writes before it updates the status.</li>
+ * <li><code>async.workers</code> - number of worker threads when not ordered, default 2</li>
+ * <li><code>async.drain</code> - seconds between warnings while {@link #cleanup()} waits for queued operations,
+ * default 60</li>
+ * </ul>
+ * {@link #getLastRecordTime()} waits until all queued operations are done.
+ */
+public class AsyncDataStore implements BatchDataStore {
+
+    private static final Logger log = LogManager.getLogger(AsyncDataStore.class);
+
+    private static final int QUEUE_SIZE = 1000;
+    private static final int WORKERS = 2;
+    private static final int DRAIN_TIMEOUT = 60;
+
+    /**
+     * An operation on the wrapped store.
+     */
+    @FunctionalInterface
+    private interface Operation {
+        void run(DataStore store) throws IOException;
+    }
+
+    private static final class Task {
+        private final Operation operation;
+        private final long queued;
+
+        private Task(Operation operation) {
+            this.operation = operation;
+            this.queued = System.currentTimeMillis();
+        }
+    }
+
+    private static final Task STOP = new Task(store -> {
+    });
+
+    private final String name;
+    private final DataStore delegate;
+    private final boolean ordered;
+    private final long drainTimeout;
+    private final BlockingQueue<Task> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final Object lock = new Object();
+    private int pending;
+    private volatile boolean closed;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long lastLag;
+    private volatile long maxLag;
+
+    /**
+     * Wrap an initialized data store and start its workers.
+     *
+     * @param name     data store name, used in thread names and log messages
+     * @param delegate the data store
+     * @param prop     data store properties
+     */
+    public AsyncDataStore(String name, DataStore delegate, Properties prop) {
+        this.name = name;
+        this.delegate = delegate;
+        this.ordered = Boolean.parseBoolean(prop.getProperty("async.ordered", "true"));
+        this.drainTimeout = TimeUnit.SECONDS.toMillis(Math.max(1, WeatherUtils.getInt(prop, "async.drain", DRAIN_TIMEOUT)));
+        this.queue = new ArrayBlockingQueue<>(WeatherUtils.getInt(prop, "async.queue", QUEUE_SIZE));
+        final int count = ordered ? 1 : Math.max(1, WeatherUtils.getInt(prop, "async.workers", WORKERS));
+        for (int i = 0; i < count; i++) {
+            final Thread thread = new Thread(this::run, "datastore-" + name + (count > 1 ? "-" + i : ""));
+            thread.setDaemon(true);
+            thread.start();
+            workers.add(thread);
+        }
+    }
+
+    /**
+     * The wrapped data store.
+     */
+    public DataStore getDelegate() {
+        return delegate;
+    }
+
+    private void run() {
+        try {
+            Task task;
+            while ((task = queue.take()) != STOP) {
+                try {
+                    task.operation.run(delegate);
+                    completed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.error("Data store {} failed to save weather data", name, e);
+                } finally {
+                    final long lag = System.currentTimeMillis() - task.queued;
+                    lastLag = lag;
+                    if (lag > maxLag) {
+                        maxLag = lag;
+                    }
+                    done();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped without draining the queue.
+        }
+    }
+
+    private void done() {
+        synchronized (lock) {
+            if (--pending == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void submit(Operation operation) throws IOException {
+        if (closed) {
+            throw new IOException("Data store " + name + " is closed");
+        }
+        synchronized (lock) {
+            pending++;
+        }
+        try {
+            queue.put(new Task(operation));
+        } catch (InterruptedException e) {
+            done();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing for data store " + name);
+        }
+    }
+
+    /**
+     * Wait until all queued operations are done.
+     *
+     * @param timeout max time to wait in milliseconds
+     * @return true if the queue is empty, false if the timeout expired
+     */
+    public boolean flush(long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        synchronized (lock) {
+            while (pending > 0) {
+                final long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                lock.wait(wait);
+            }
+        }
+        return true;
+    }
+
+    private void flush() throws InterruptedIOException {
+        try {
+            flush(Long.MAX_VALUE / 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for data store " + name);
+        }
+    }
+
+    /**
+     * Number of operations queued or running.
+     */
+    public int getPending() {
+        synchronized (lock) {
+            return pending;
+        }
+    }
+
+    /**
+     * Time from queueing to completion of the last operation, in milliseconds.
+     */
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    /**
+     * Longest time from queueing to completion of an operation, in milliseconds.
+     */
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public void init(Properties prop) {
+        delegate.init(prop);
+    }
+
+    /**
+     * Wait until all queued operations are done, stop the workers and clean up the wrapped store.
+     * Queued operations are only given up if the calling thread is interrupted.
+     */
+    @Override
+    public void cleanup() {
+        if (!closed) {
+            closed = true;
+            boolean drained = false;
+            try {
+                while (!(drained = flush(drainTimeout))) {
+                    log.warn("Data store {} has {} operations queued, waiting for them to finish", name, getPending());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (drained) {
+                for (int i = 0; i < workers.size(); i++) {
+                    queue.offer(STOP);
+                }
+            } else {
+                log.error("Data store {} interrupted, {} operations not saved", name, getPending());
+                workers.forEach(Thread::interrupt);
+            }
+            log.debug("Data store {}: {} completed, {} failed, max lag {} ms", name, getCompleted(), getFailed(), getMaxLag());
+        }
+        delegate.cleanup();
+    }
+
+    @Override
+    public Date getLastRecordTime() {
+        try {
+            flush();
+        } catch (InterruptedIOException e) {
+            log.warn("Interrupted while waiting for data store {}", name);
+        }
+        return delegate.getLastRecordTime();
+    }
+
+    /**
+     * Queue a record.
+     *
+     * @return always true, records already saved are logged by the worker
+     */
+    @Override
+    public boolean insertData(final ArchiveRecord rec) throws IOException {
+        submit(store -> {
+            if (!store.insertData(rec)) {
+                log.debug("Record already saved: {}", rec);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Queue records, they are saved in one batch if the wrapped store supports it.
+     *
+     * @return the number of records queued
+     */
+    @Override
+    public int insertBatch(final Collection<? extends ArchiveRecord> records) throws IOException {
+        final List<ArchiveRecord> copy = new ArrayList<>(records);
+        submit(store -> {
+            int count = 0;
+            if (store instanceof BatchDataStore) {
+                count = ((BatchDataStore) store).insertBatch(copy);
+            } else {
+                for (ArchiveRecord rec : copy) {
+                    if (store.insertData(rec)) {
+                        count++;
+                    }
+                }
+            }
+            if (count < copy.size()) {
+                log.debug("{} records already saved", copy.size() - count);
+            }
+        });
+        return copy.size();
+    }
+
+    /**
+     * Queue a status update. When not ordered, wait for earlier writes and update the status directly.
+     */
+    @Override
+    public Date updateStatus(final Date lastDownload, final Date lastRecord) throws IOException {
+        if (!ordered) {
+            flush();
+            return delegate.updateStatus(lastDownload, lastRecord);
+        }
+        submit(store -> store.updateStatus(lastDownload, lastRecord));
+        return lastRecord;
+    }
+
+    @Override
+    public void updateCurrent(final CurrentRecord current) throws IOException {
+        submit(store -> store.updateCurrent(current));
+    }
+
+    /**
+     * Queue the start of a download. When not ordered, wait for earlier writes and call the wrapped store directly.
+     */
+    @Override
+    public void beginDownload() throws IOException {
+        if (!ordered) {
+            flush();
+            delegate.beginDownload();
+            return;
+        }
+        submit(DataStore::beginDownload);
+    }
+
+    /**
+     * Queue the end of a download. When not ordered, wait for earlier writes and call the wrapped store directly.
+     */
+    @Override
+    public void endDownload() throws IOException {
+        if (!ordered) {
+            flush();
+            delegate.endDownload();
+            return;
+        }
+        submit(DataStore::endDownload);
+    }
+}
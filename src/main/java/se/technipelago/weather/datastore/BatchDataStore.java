@@ -0,0 +1,24 @@
+package se.technipelago.weather.datastore;
+
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A data store that can save many archive records in one operation.
+ * <p>
+ * Controllers use {@link #insertBatch(Collection)} instead of calling {@link #insertData(ArchiveRecord)}
+ * once per record when a store implements this interface.
+ */
+public interface BatchDataStore extends DataStore {
+
+    /**
+     * Save archive records. Records that are already saved are skipped, like with {@link #insertData(ArchiveRecord)}.
+     *
+     * @param records records in time order
+     * @return number of records saved
+     * @throws IOException if the records could not be saved
+     */
+    int insertBatch(final Collection<? extends ArchiveRecord> records) throws IOException;
+}
@@ -25,4 +25,16 @@ public interface DataStore {
     Date updateStatus(final Date lastDownload, final Date lastRecord) throws IOException;
 
     void updateCurrent(final CurrentRecord current) throws IOException;
+
+    /**
+     * Called on every data store before a download saves archive records.
+     */
+    default void beginDownload() throws IOException {
+    }
+
+    /**
+     * Called on every data store when a download has saved its records, before the final status update.
+     */
+    default void endDownload() throws IOException {
+    }
 }
@@ -0,0 +1,70 @@
+package se.technipelago.weather.datastore.remote;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import se.technipelago.weather.WeatherUtils;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates HTTP clients that keep connections open between requests.
+ * <p>
+ * Data stores create one client in <code>init</code> and close it in <code>cleanup</code>. Settings:
+ * <ul>
+ * <li><code>http.connections</code> - max open connections, default 4</li>
+ * <li><code>http.connect.timeout</code> - connect timeout in milliseconds, default 10000</li>
+ * <li><code>http.socket.timeout</code> - read timeout in milliseconds, default 30000</li>
+ * <li><code>http.idle</code> - seconds before an unused connection is closed, default 60</li>
+ * </ul>
+ */
+public final class HttpClientFactory {
+
+    private static final int CONNECTIONS = 4;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int SOCKET_TIMEOUT = 30000;
+    private static final int IDLE_TIMEOUT = 60;
+    private static final int VALIDATE_AFTER = 2000;
+
+    private HttpClientFactory() {
+    }
+
+    /**
+     * Return a client builder with a connection pool and timeouts, for clients that need more settings.
+     *
+     * @param prop data store properties
+     * @return a client builder
+     */
+    public static HttpClientBuilder builder(Properties prop) {
+        final int connections = WeatherUtils.getInt(prop, "http.connections", CONNECTIONS);
+        final PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(connections);
+        manager.setDefaultMaxPerRoute(connections);
+        // A connection closed by the server while idle is detected before it is used.
+        manager.setValidateAfterInactivity(VALIDATE_AFTER);
+        final int connectTimeout = WeatherUtils.getInt(prop, "http.connect.timeout", CONNECT_TIMEOUT);
+        final RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(WeatherUtils.getInt(prop, "http.socket.timeout", SOCKET_TIMEOUT))
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(config)
+                .evictExpiredConnections()
+                .evictIdleConnections(WeatherUtils.getInt(prop, "http.idle", IDLE_TIMEOUT), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create a client with a connection pool and timeouts.
+     *
+     * @param prop data store properties
+     * @return a client, close it when the data store is cleaned up
+     */
+    public static CloseableHttpClient create(Properties prop) {
+        return builder(prop).build();
+    }
+}
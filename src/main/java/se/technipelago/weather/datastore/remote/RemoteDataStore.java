@@ -1,31 +1,48 @@
 package se.technipelago.weather.datastore.remote;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import se.technipelago.weather.WeatherUtils;
 import se.technipelago.weather.archive.ArchiveRecord;
 import se.technipelago.weather.archive.CurrentRecord;
-import se.technipelago.weather.datastore.DataStore;
+import se.technipelago.weather.datastore.BatchDataStore;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.OutputStream;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by goran on 15-06-13.
+ * <p>
+ * Records are sent as a JSON document with a <code>data</code> array, <code>batch.size</code> records per request.
+ * If <code>batch.window</code> is set, records saved one at a time are buffered and sent when the batch is full
+ * or the window in milliseconds has passed. Set <code>http.gzip</code> to compress requests.
  */
-public class RemoteDataStore implements DataStore {
+public class RemoteDataStore implements BatchDataStore {
 
     private static final String PROPERTIES_FILE = "collector.properties";
+    private static final int BATCH_SIZE = 100;
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")
+            .withZone(ZoneOffset.UTC);
+    private static final ContentType APPLICATION_JSON = ContentType.create("application/json", "UTF-8");
 
     protected final Logger log = LogManager.getLogger(getClass().getName());
 
@@ -35,6 +52,28 @@ public class RemoteDataStore implements DataStore {
 
     private String name;
 
+    private CloseableHttpClient httpClient;
+    private int batchSize = BATCH_SIZE;
+    private long batchWindow;
+    private boolean gzip;
+    private final List<ArchiveRecord> pending = new ArrayList<>();
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Request body, reused between requests.
+     */
+    private final Buffer buffer = new Buffer();
+
+    private static class Buffer extends ByteArrayOutputStream {
+        private HttpEntity toEntity(boolean gzip) {
+            final ByteArrayEntity entity = new ByteArrayEntity(buf, 0, count, APPLICATION_JSON);
+            if (gzip) {
+                entity.setContentEncoding("gzip");
+            }
+            return entity;
+        }
+    }
+
     private String getPrefix() {
         return name != null ? name + "_" : "";
     }
@@ -44,6 +83,19 @@ public class RemoteDataStore implements DataStore {
         name = Optional.ofNullable(prop.getProperty("name"))
                 .map(s -> StringUtils.isBlank(s) ? null : s.trim())
                 .orElse(null);
+        batchSize = Math.max(1, WeatherUtils.getInt(prop, "batch.size", BATCH_SIZE));
+        batchWindow = WeatherUtils.getInt(prop, "batch.window", 0);
+        gzip = Boolean.parseBoolean(prop.getProperty("http.gzip"));
+        if (httpClient == null) {
+            httpClient = HttpClientFactory.create(prop);
+        }
+        if (batchWindow > 0 && flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "remote-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
         url = prop.getProperty("url");
         if (StringUtils.isEmpty(url)) {
             log.error("Property 'url' must be set");
@@ -62,7 +114,23 @@ public class RemoteDataStore implements DataStore {
     }
 
     public void cleanup() {
-
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            log.error("Failed to send buffered weather data to " + url, e);
+        }
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("Exception while closing HTTP client", e);
+            }
+            httpClient = null;
+        }
     }
 
     public Date getLastRecordTime() {
@@ -80,189 +148,186 @@ public class RemoteDataStore implements DataStore {
             log.debug("No REST service configured");
             return false;
         }
-        CloseableHttpClient httpclient = HttpClients.createDefault();
-        HttpPost httpPost = new HttpPost(url);
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        String timestamp = dateFormat.format(rec.getTimestamp());
-        StringBuilder buf = new StringBuilder();
-        buf.append("{\n");
-        buf.append("  \"clientKey\": \"" + clientKey + "\",\n");
-        buf.append("  \"clientSecret\": \"" + clientSecret + "\",\n");
-        buf.append("  \"data\": [\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "outsideTemperature\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getOutsideTemperature() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "outsideHumidity\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getOutsideHumidity() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "windSpeed\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getWindSpeedAvg() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "windGusts\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getWindSpeedHigh() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "windDirection\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getWindDirection() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "barometer\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getBarometer() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "rain\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getRainFall() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "sun\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getSolarRadiation() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "uv\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getUvIndex() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "extra1Temperature\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getExtraTemperature1() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "extra2Temperature\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getExtraTemperature2() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "extra3Temperature\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getExtraTemperature3() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "extra1Humidity\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getExtraHumidity1() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "extra2Humidity\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getExtraHumidity2() + "\n");
-        buf.append("    }\n");
-
-        buf.append("  ]\n");
-        buf.append("}\n");
+        if (batchWindow <= 0) {
+            send(Collections.singletonList(rec));
+            return true;
+        }
+        final boolean first;
+        synchronized (pending) {
+            first = pending.isEmpty();
+            pending.add(rec);
+            if (pending.size() < batchSize) {
+                if (first) {
+                    flusher.schedule(this::flushQuietly, batchWindow, TimeUnit.MILLISECONDS);
+                }
+                return true;
+            }
+        }
+        flush();
+        return true;
+    }
 
-        httpPost.setEntity(new StringEntity(buf.toString(), ContentType.create("application/json")));
+    /**
+     * Send records, <code>batch.size</code> records per request. Records buffered by
+     * {@link #insertData(ArchiveRecord)} are sent first.
+     */
+    public int insertBatch(Collection<? extends ArchiveRecord> records) throws IOException {
+        if (url == null || url.trim().length() == 0) {
+            log.debug("No REST service configured");
+            return 0;
+        }
+        flush();
+        final List<ArchiveRecord> batch = new ArrayList<>(Math.min(records.size(), batchSize));
+        for (ArchiveRecord rec : records) {
+            batch.add(rec);
+            if (batch.size() == batchSize) {
+                send(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+        return records.size();
+    }
 
-        CloseableHttpResponse response = httpclient.execute(httpPost);
+    /**
+     * Send records buffered by {@link #insertData(ArchiveRecord)}, <code>batch.size</code> records per request.
+     * Records are only removed from the buffer when they have been sent, if a request fails they are sent again
+     * by the next flush.
+     */
+    public synchronized void flush() throws IOException {
+        while (true) {
+            final List<ArchiveRecord> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.subList(0, Math.min(pending.size(), batchSize)));
+            }
+            send(batch);
+            synchronized (pending) {
+                // Records added while sending stay in the buffer.
+                pending.subList(0, batch.size()).clear();
+            }
+        }
+    }
 
+    private void flushQuietly() {
         try {
-            HttpEntity entity = response.getEntity();
-            // do something useful with the response body
-            // and ensure it is fully consumed
-            EntityUtils.consume(entity);
-        } finally {
-            response.close();
+            flush();
+        } catch (IOException e) {
+            log.error("Failed to send weather data to " + url, e);
+            // Records still buffered do not schedule a flush when more are added, try again later.
+            final ScheduledExecutorService executor = flusher;
+            if (executor != null && !executor.isShutdown()) {
+                executor.schedule(this::flushQuietly, batchWindow, TimeUnit.MILLISECONDS);
+            }
         }
+    }
 
-        log.debug("Weather data for " + timestamp + " sent to " + url);
+    private synchronized void send(List<ArchiveRecord> records) throws IOException {
+        final String prefix = getPrefix();
+        try (JsonGenerator json = startDocument()) {
+            for (ArchiveRecord rec : records) {
+                final String timestamp = TIMESTAMP_FORMAT.format(rec.getTimestamp().toInstant());
+                writeValue(json, prefix + "outsideTemperature", timestamp, rec.getOutsideTemperature());
+                writeValue(json, prefix + "outsideHumidity", timestamp, rec.getOutsideHumidity());
+                writeValue(json, prefix + "windSpeed", timestamp, rec.getWindSpeedAvg());
+                writeValue(json, prefix + "windGusts", timestamp, rec.getWindSpeedHigh());
+                writeValue(json, prefix + "windDirection", timestamp, rec.getWindDirection());
+                writeValue(json, prefix + "barometer", timestamp, rec.getBarometer());
+                writeValue(json, prefix + "rain", timestamp, rec.getRainFall());
+                writeValue(json, prefix + "sun", timestamp, rec.getSolarRadiation());
+                writeValue(json, prefix + "uv", timestamp, rec.getUvIndex());
+                writeValue(json, prefix + "extra1Temperature", timestamp, rec.getExtraTemperature1());
+                writeValue(json, prefix + "extra2Temperature", timestamp, rec.getExtraTemperature2());
+                writeValue(json, prefix + "extra3Temperature", timestamp, rec.getExtraTemperature3());
+                writeValue(json, prefix + "extra1Humidity", timestamp, rec.getExtraHumidity1());
+                writeValue(json, prefix + "extra2Humidity", timestamp, rec.getExtraHumidity2());
+            }
+            endDocument(json);
+        }
+        post();
 
-        return false;
+        log.debug("Weather data for " + records.size() + " records sent to " + url);
     }
 
     public Date updateStatus(Date lastDownload, Date lastRecord) throws IOException {
         return null;
     }
 
-    public void updateCurrent(CurrentRecord rec) throws IOException {
+    public synchronized void updateCurrent(CurrentRecord rec) throws IOException {
 
         if (url == null || url.trim().length() == 0) {
             log.debug("No REST service configured");
             return;
         }
-        CloseableHttpClient httpclient = HttpClients.createDefault();
-        HttpPost httpPost = new HttpPost(url);
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        String timestamp = dateFormat.format(rec.getTimestamp());
-        StringBuilder buf = new StringBuilder();
-        buf.append("{\n");
-        buf.append("  \"clientKey\": \"" + clientKey + "\",\n");
-        buf.append("  \"clientSecret\": \"" + clientSecret + "\",\n");
-        buf.append("  \"data\": [\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "barometerTrend\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getBarometerTrend() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "icons\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getForcastIconMask() + "\n");
-        buf.append("    },\n");
-
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "batteryStatus\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getTransmitterBatteryStatus() + "\n");
-        buf.append("    },\n");
+        final String prefix = getPrefix();
+        final String timestamp = TIMESTAMP_FORMAT.format(rec.getTimestamp().toInstant());
+        try (JsonGenerator json = startDocument()) {
+            writeValue(json, prefix + "barometerTrend", timestamp, rec.getBarometerTrend());
+            writeValue(json, prefix + "icons", timestamp, rec.getForcastIconMask());
+            writeValue(json, prefix + "batteryStatus", timestamp, rec.getTransmitterBatteryStatus());
+            writeValue(json, prefix + "sunrise", timestamp, rec.getSunrise().getTime());
+            writeValue(json, prefix + "sunset", timestamp, rec.getSunset().getTime());
+            endDocument(json);
+        }
+        post();
 
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "sunrise\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getSunrise().getTime() + "\n");
-        buf.append("    },\n");
+        log.debug("Current data for " + timestamp + " sent to " + url);
+    }
 
-        buf.append("    {\n");
-        buf.append("      \"sid\": \"" + getPrefix() + "sunset\",\n");
-        buf.append("      \"timestamp\": \"" + timestamp + "\",\n");
-        buf.append("      \"value\": " + rec.getSunset().getTime() + "\n");
-        buf.append("    }\n");
+    /**
+     * Start a document in the request buffer and open the <code>data</code> array.
+     */
+    private JsonGenerator startDocument() throws IOException {
+        buffer.reset();
+        final OutputStream out = gzip ? new GZIPOutputStream(buffer, 8192) : buffer;
+        final JsonGenerator json = JSON.createGenerator(out);
+        json.writeStartObject();
+        json.writeStringField("clientKey", clientKey);
+        json.writeStringField("clientSecret", clientSecret);
+        json.writeArrayFieldStart("data");
+        return json;
+    }
 
-        buf.append("  ]\n");
-        buf.append("}\n");
+    private static void endDocument(JsonGenerator json) throws IOException {
+        json.writeEndArray();
+        json.writeEndObject();
+    }
 
-        httpPost.setEntity(new StringEntity(buf.toString(), ContentType.create("application/json")));
+    private static void writeValue(JsonGenerator json, String sid, String timestamp, double value) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("sid", sid);
+        json.writeStringField("timestamp", timestamp);
+        json.writeNumberField("value", value);
+        json.writeEndObject();
+    }
 
-        CloseableHttpResponse response = httpclient.execute(httpPost);
+    private static void writeValue(JsonGenerator json, String sid, String timestamp, long value) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("sid", sid);
+        json.writeStringField("timestamp", timestamp);
+        json.writeNumberField("value", value);
+        json.writeEndObject();
+    }
 
-        try {
-            HttpEntity entity = response.getEntity();
-            // do something useful with the response body
-            // and ensure it is fully consumed
+    /**
+     * POST the request buffer. The response body is consumed, so the connection can be used again.
+     *
+     * @throws IOException if the request failed or the response status is not 2xx
+     */
+    private void post() throws IOException {
+        final HttpPost httpPost = new HttpPost(url);
+        httpPost.setEntity(buffer.toEntity(gzip));
+        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            final HttpEntity entity = response.getEntity();
             EntityUtils.consume(entity);
-        } finally {
-            response.close();
+            final int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status >= 300) {
+                throw new IOException(url + " returned " + response.getStatusLine());
+            }
         }
-
-        log.debug("Current data for " + timestamp + " sent to " + url);
     }
 }
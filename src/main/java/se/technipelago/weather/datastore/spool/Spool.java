@@ -0,0 +1,335 @@
+package se.technipelago.weather.datastore.spool;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only queue of archive records, stored in memory-mapped segment files.
+ * <p>
+ * Records have a fixed size and are checked with a CRC32, so a record that was only partly written when the
+ * program stopped is found and overwritten when the spool is opened again. A segment is deleted when all its
+ * records are read. The read position is saved in a separate file.
+ * <p>
+ * Appended records survive a crash of the program as soon as {@link #append(ArchiveRecord)} returns, and a power
+ * failure after {@link #sync()}. One thread may append while another one reads.
+ */
+public class Spool implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(Spool.class);
+
+    private static final int MAGIC = 0x57535031; // "WSP1"
+    private static final int PAYLOAD_SIZE = 8 + 4 + 12 * 8 + 7 * 4;
+    static final int ENTRY_SIZE = 4 + PAYLOAD_SIZE + 4;
+    private static final String SUFFIX = ".spool";
+    private static final String POSITION_FILE = "position";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int entriesPerSegment;
+    private final FileChannel positionChannel;
+    private final ByteBuffer positionBuffer = ByteBuffer.allocate(12);
+    private final CRC32 writeCrc = new CRC32();
+    private final CRC32 readCrc = new CRC32();
+
+    private long writeSegment;
+    private int writeIndex;
+    private MappedByteBuffer writeBuffer;
+
+    private long readSegment;
+    private int readIndex;
+    private MappedByteBuffer readBuffer;
+    private long readBufferSegment = -1;
+
+    /**
+     * Open a spool, creating the directory if it does not exist.
+     *
+     * @param dir         directory for segment files
+     * @param segmentSize max size of a segment file in bytes
+     * @throws IOException if the spool could not be opened
+     */
+    public Spool(Path dir, int segmentSize) throws IOException {
+        if (segmentSize < ENTRY_SIZE) {
+            throw new IllegalArgumentException("Segment size must be at least " + ENTRY_SIZE);
+        }
+        this.dir = Files.createDirectories(dir);
+        this.entriesPerSegment = segmentSize / ENTRY_SIZE;
+        this.segmentSize = entriesPerSegment * ENTRY_SIZE;
+        this.positionChannel = FileChannel.open(dir.resolve(POSITION_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final TreeSet<Long> segments = listSegments();
+        readPosition(segments.isEmpty() ? 0L : segments.first());
+        for (Long segment : segments.headSet(readSegment)) {
+            Files.deleteIfExists(segmentPath(segment));
+        }
+        recover(segments.isEmpty() ? readSegment : Math.max(segments.last(), readSegment));
+    }
+
+    private TreeSet<Long> listSegments() throws IOException {
+        final TreeSet<Long> segments = new TreeSet<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> segments.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        return segments;
+    }
+
+    private Path segmentPath(long segment) {
+        return dir.resolve(String.format("%016d%s", segment, SUFFIX));
+    }
+
+    private MappedByteBuffer map(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private void readPosition(long firstSegment) throws IOException {
+        positionBuffer.clear();
+        if (positionChannel.read(positionBuffer, 0) == positionBuffer.capacity()) {
+            readSegment = positionBuffer.getLong(0);
+            readIndex = positionBuffer.getInt(8);
+        } else {
+            readSegment = firstSegment;
+            readIndex = 0;
+        }
+    }
+
+    /**
+     * Find the end of the last segment. Entries after the first invalid one are ignored.
+     */
+    private void recover(long segment) throws IOException {
+        writeSegment = segment;
+        writeBuffer = map(segment);
+        writeIndex = 0;
+        while (writeIndex < entriesPerSegment && isValid(writeBuffer, writeIndex * ENTRY_SIZE, readCrc)) {
+            writeIndex++;
+        }
+        if (segment == readSegment && readIndex > writeIndex) {
+            log.warn("Spool {} lost {} records", dir, readIndex - writeIndex);
+            readIndex = writeIndex;
+        }
+    }
+
+    private static boolean isValid(ByteBuffer buf, int offset, CRC32 crc) {
+        if (buf.getInt(offset) != MAGIC) {
+            return false;
+        }
+        crc.reset();
+        final ByteBuffer payload = buf.duplicate();
+        payload.limit(offset + 4 + PAYLOAD_SIZE).position(offset + 4);
+        crc.update(payload);
+        return (int) crc.getValue() == buf.getInt(offset + 4 + PAYLOAD_SIZE);
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param rec the record
+     * @throws IOException if a new segment could not be created
+     */
+    public synchronized void append(ArchiveRecord rec) throws IOException {
+        if (writeIndex == entriesPerSegment) {
+            writeBuffer.force();
+            writeBuffer = map(++writeSegment);
+            writeIndex = 0;
+        }
+        final int offset = writeIndex * ENTRY_SIZE;
+        final ByteBuffer buf = writeBuffer;
+        buf.putLong(offset + 4, rec.getTimestampMillis());
+        buf.putInt(offset + 12, rec.getRecordNumber());
+        int pos = offset + 16;
+        for (double value : new double[]{rec.getOutsideTemperature(), rec.getOutsideTemperatureHigh(),
+                rec.getOutsideTemperatureLow(), rec.getInsideTemperature(), rec.getExtraTemperature1(),
+                rec.getExtraTemperature2(), rec.getExtraTemperature3(), rec.getRainFall(), rec.getRainRateHigh(),
+                rec.getUvIndex(), rec.getWindSpeedAvg(), rec.getWindSpeedHigh()}) {
+            buf.putDouble(pos, value);
+            pos += 8;
+        }
+        for (int value : new int[]{rec.getBarometer(), rec.getOutsideHumidity(), rec.getInsideHumidity(),
+                rec.getExtraHumidity1(), rec.getExtraHumidity2(), rec.getSolarRadiation(), rec.getWindDirection()}) {
+            buf.putInt(pos, value);
+            pos += 4;
+        }
+        writeCrc.reset();
+        final ByteBuffer payload = buf.duplicate();
+        payload.limit(pos).position(offset + 4);
+        writeCrc.update(payload);
+        buf.putInt(pos, (int) writeCrc.getValue());
+        buf.putInt(offset, MAGIC);
+        writeIndex++;
+        if (writeIndex < entriesPerSegment) {
+            // Mark the end, a stale entry from an earlier use of the file must not be read as the next one.
+            buf.putInt(writeIndex * ENTRY_SIZE, 0);
+        }
+    }
+
+    /**
+     * Write appended records and the read position to disk.
+     */
+    public synchronized void sync() throws IOException {
+        writeBuffer.force();
+        positionChannel.force(false);
+    }
+
+    /**
+     * Number of records not yet read.
+     */
+    public synchronized long size() {
+        return (writeSegment - readSegment) * entriesPerSegment + writeIndex - readIndex;
+    }
+
+    /**
+     * Return the next records without removing them.
+     *
+     * @param max max number of records
+     * @return records in the order they were appended, empty if there are none
+     * @throws IOException if a segment could not be read or the next record is corrupt, see {@link #skipSegment()}
+     */
+    public List<ArchiveRecord> peek(int max) throws IOException {
+        final long segment;
+        final int start;
+        final int end;
+        synchronized (this) {
+            nextSegment();
+            segment = readSegment;
+            start = readIndex;
+            end = segment == writeSegment ? writeIndex : entriesPerSegment;
+        }
+        if (readBufferSegment != segment) {
+            readBuffer = segment == writeSegment ? writeBuffer : map(segment);
+            readBufferSegment = segment;
+        }
+        final List<ArchiveRecord> records = new ArrayList<>(Math.min(max, end - start));
+        for (int i = start; i < end && records.size() < max; i++) {
+            final int offset = i * ENTRY_SIZE;
+            if (!isValid(readBuffer, offset, readCrc)) {
+                if (records.isEmpty()) {
+                    throw new IOException("Corrupt record " + i + " in " + segmentPath(segment));
+                }
+                // Return the records before it, the next call fails.
+                break;
+            }
+            records.add(readRecord(readBuffer, offset));
+        }
+        return records;
+    }
+
+    private static ArchiveRecord readRecord(ByteBuffer buf, int offset) {
+        final ArchiveRecord rec = new ArchiveRecord();
+        rec.setTimestamp(new Date(buf.getLong(offset + 4)));
+        rec.setRecordNumber(buf.getInt(offset + 12));
+        int pos = offset + 16;
+        rec.setOutsideTemperature(buf.getDouble(pos));
+        rec.setOutsideTemperatureHigh(buf.getDouble(pos += 8));
+        rec.setOutsideTemperatureLow(buf.getDouble(pos += 8));
+        rec.setInsideTemperature(buf.getDouble(pos += 8));
+        rec.setExtraTemperature1(buf.getDouble(pos += 8));
+        rec.setExtraTemperature2(buf.getDouble(pos += 8));
+        rec.setExtraTemperature3(buf.getDouble(pos += 8));
+        rec.setRainFall(buf.getDouble(pos += 8));
+        rec.setRainRateHigh(buf.getDouble(pos += 8));
+        rec.setUvIndex(buf.getDouble(pos += 8));
+        rec.setWindSpeedAvg(buf.getDouble(pos += 8));
+        rec.setWindSpeedHigh(buf.getDouble(pos += 8));
+        rec.setBarometer(buf.getInt(pos += 8));
+        rec.setOutsideHumidity(buf.getInt(pos += 4));
+        rec.setInsideHumidity(buf.getInt(pos += 4));
+        rec.setExtraHumidity1(buf.getInt(pos += 4));
+        rec.setExtraHumidity2(buf.getInt(pos += 4));
+        rec.setSolarRadiation(buf.getInt(pos += 4));
+        rec.setWindDirection(buf.getInt(pos + 4));
+        return rec;
+    }
+
+    /**
+     * Remove records returned by {@link #peek(int)}. A segment is deleted when all its records are removed.
+     *
+     * @param count number of records
+     * @throws IOException if the read position could not be saved
+     */
+    public synchronized void remove(int count) throws IOException {
+        if (count > size()) {
+            throw new IllegalArgumentException("Cannot remove " + count + " records, spool has " + size());
+        }
+        readIndex += count;
+        nextSegment();
+        writePosition();
+    }
+
+    /**
+     * Skip the unread records in the segment at the read position, when {@link #peek(int)} cannot read them.
+     * A copy of the segment is kept with the suffix <code>.corrupt</code>.
+     *
+     * @return number of records skipped
+     * @throws IOException if the read position could not be saved
+     */
+    public synchronized long skipSegment() throws IOException {
+        final Path path = segmentPath(readSegment);
+        final Path corrupt = dir.resolve(path.getFileName() + ".corrupt");
+        final long skipped;
+        if (readSegment < writeSegment) {
+            skipped = entriesPerSegment - readIndex;
+            if (Files.exists(path)) {
+                Files.move(path, corrupt, StandardCopyOption.REPLACE_EXISTING);
+            }
+            readSegment++;
+            readIndex = 0;
+        } else {
+            // Still being written, later records go after the ones skipped.
+            skipped = writeIndex - readIndex;
+            Files.copy(path, corrupt, StandardCopyOption.REPLACE_EXISTING);
+            readIndex = writeIndex;
+        }
+        readBuffer = null;
+        readBufferSegment = -1;
+        writePosition();
+        log.warn("Spool {} skipped {} records, segment saved as {}", dir, skipped, corrupt.getFileName());
+        return skipped;
+    }
+
+    private void writePosition() throws IOException {
+        positionBuffer.clear();
+        positionBuffer.putLong(0, readSegment).putInt(8, readIndex);
+        positionChannel.write(positionBuffer, 0);
+    }
+
+    /**
+     * Delete segments that are completely read.
+     */
+    private void nextSegment() throws IOException {
+        while (readIndex >= entriesPerSegment && readSegment < writeSegment) {
+            readIndex -= entriesPerSegment;
+            if (readBufferSegment == readSegment) {
+                readBuffer = null;
+                readBufferSegment = -1;
+            }
+            Files.deleteIfExists(segmentPath(readSegment++));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        positionChannel.close();
+    }
+}
@@ -0,0 +1,294 @@
+package se.technipelago.weather.datastore.spool;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.technipelago.weather.WeatherUtils;
+import se.technipelago.weather.archive.ArchiveRecord;
+import se.technipelago.weather.archive.CurrentRecord;
+import se.technipelago.weather.datastore.BatchDataStore;
+import se.technipelago.weather.datastore.DataStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves archive records in a local {@link Spool} and delivers them to a remote data store from a background thread.
+ * <p>
+ * Records are delivered in order. When the remote store fails, delivery is retried with exponential back-off
+ * and new records are kept in the spool, so an outage does not lose data. When the store is back, the spooled
+ * records are sent in batches of <code>spool.batch</code> records.
+ * <p>
+ * Settings, from the properties of the wrapped store:
+ * <ul>
+ * <li><code>spool.dir</code> - spool directory, default spool/<i>name</i></li>
+ * <li><code>spool.segment</code> - segment file size in bytes, default 1 MB</li>
+ * <li><code>spool.sync</code> - write the spool to disk every n records, default 10. A batch is always written
+ * to disk.</li>
+ * <li><code>spool.batch</code> - max number of records delivered at once, default 100</li>
+ * <li><code>spool.retry</code> - first retry delay in milliseconds, default 1000</li>
+ * <li><code>spool.retry.max</code> - max retry delay in milliseconds, default 300000</li>
+ * <li><code>spool.drain</code> - seconds {@link #cleanup()} waits for the spool to be delivered, default 10</li>
+ * </ul>
+ * Current values are sent directly to the wrapped store, they are not spooled.
+ */
+public class SpoolingDataStore implements BatchDataStore {
+
+    private static final Logger log = LogManager.getLogger(SpoolingDataStore.class);
+
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final int SYNC_RECORDS = 10;
+    private static final int BATCH_SIZE = 100;
+    private static final long RETRY_DELAY = 1000L;
+    private static final long MAX_RETRY_DELAY = 300000L;
+    private static final int DRAIN_TIMEOUT = 10;
+
+    private final String name;
+    private final DataStore delegate;
+    private final Spool spool;
+    private final int syncRecords;
+    private final int batchSize;
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    private final long drainTimeout;
+    private final Thread drainer;
+    private final Object lock = new Object();
+    private int unsynced;
+    private volatile boolean running = true;
+
+    /**
+     * Wrap an initialized data store, open its spool and start delivering spooled records.
+     *
+     * @param name     data store name, used for the default spool directory
+     * @param delegate the remote data store
+     * @param prop     data store properties
+     * @throws UncheckedIOException if the spool could not be opened
+     */
+    public SpoolingDataStore(String name, DataStore delegate, Properties prop) {
+        this.name = name;
+        this.delegate = delegate;
+        this.syncRecords = WeatherUtils.getInt(prop, "spool.sync", SYNC_RECORDS);
+        this.batchSize = Math.max(1, WeatherUtils.getInt(prop, "spool.batch", BATCH_SIZE));
+        this.retryDelay = WeatherUtils.getLong(prop, "spool.retry", RETRY_DELAY);
+        this.maxRetryDelay = WeatherUtils.getLong(prop, "spool.retry.max", MAX_RETRY_DELAY);
+        this.drainTimeout = TimeUnit.SECONDS.toMillis(WeatherUtils.getInt(prop, "spool.drain", DRAIN_TIMEOUT));
+        try {
+            this.spool = new Spool(Paths.get(prop.getProperty("spool.dir", "spool/" + name)),
+                    WeatherUtils.getInt(prop, "spool.segment", SEGMENT_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open spool for data store " + name, e);
+        }
+        if (spool.size() > 0) {
+            log.info("Data store {} has {} spooled records", name, spool.size());
+        }
+        this.drainer = new Thread(this::drain, "spool-" + name);
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * The wrapped data store.
+     */
+    public DataStore getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Number of records waiting to be delivered.
+     */
+    public long getBacklog() {
+        return spool.size();
+    }
+
+    private void drain() {
+        long delay = retryDelay;
+        while (running) {
+            try {
+                final List<ArchiveRecord> records = peek();
+                if (records.isEmpty()) {
+                    synchronized (lock) {
+                        lock.notifyAll();
+                        if (spool.size() == 0 && running) {
+                            lock.wait(1000L);
+                        }
+                    }
+                    continue;
+                }
+                final int delivered = deliver(records);
+                if (delivered > 0) {
+                    spool.remove(delivered);
+                }
+                if (delivered < records.size()) {
+                    log.debug("Data store {} retries in {} ms, {} records spooled", name, delay, spool.size());
+                    Thread.sleep(delay);
+                    delay = Math.min(delay * 2, maxRetryDelay);
+                } else {
+                    delay = retryDelay;
+                }
+            } catch (InterruptedException e) {
+                // Stopped.
+                return;
+            } catch (IOException e) {
+                log.error("Spool for data store {} failed, retrying in {} ms", name, delay, e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                delay = Math.min(delay * 2, maxRetryDelay);
+            }
+        }
+    }
+
+    /**
+     * Read the next records from the spool. Records that cannot be read are skipped, so they do not stop delivery
+     * of the records after them.
+     */
+    private List<ArchiveRecord> peek() throws IOException {
+        try {
+            return spool.peek(batchSize);
+        } catch (IOException e) {
+            log.error("Data store {} cannot read spooled records", name, e);
+            spool.skipSegment();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Deliver records to the wrapped store.
+     *
+     * @return number of records delivered before a failure
+     */
+    private int deliver(List<ArchiveRecord> records) {
+        if (delegate instanceof BatchDataStore) {
+            try {
+                ((BatchDataStore) delegate).insertBatch(records);
+                return records.size();
+            } catch (Exception e) {
+                log.warn("Data store {} failed to save {} records", name, records.size(), e);
+                return 0;
+            }
+        }
+        int count = 0;
+        for (ArchiveRecord rec : records) {
+            try {
+                delegate.insertData(rec);
+                count++;
+            } catch (Exception e) {
+                log.warn("Data store {} failed to save weather data", name, e);
+                break;
+            }
+        }
+        return count;
+    }
+
+    private void appended(int records, boolean sync) throws IOException {
+        synchronized (lock) {
+            unsynced += records;
+            if (sync || unsynced >= syncRecords) {
+                spool.sync();
+                unsynced = 0;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void init(Properties prop) {
+        delegate.init(prop);
+    }
+
+    /**
+     * Wait up to <code>spool.drain</code> seconds for spooled records to be delivered, then close the spool.
+     * Records not delivered are sent after the next start.
+     */
+    @Override
+    public void cleanup() {
+        if (running) {
+            final long deadline = System.currentTimeMillis() + drainTimeout;
+            try {
+                synchronized (lock) {
+                    long wait;
+                    while (spool.size() > 0 && (wait = deadline - System.currentTimeMillis()) > 0) {
+                        lock.wait(wait);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running = false;
+            drainer.interrupt();
+            try {
+                drainer.join(drainTimeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (spool.size() > 0) {
+                log.info("Data store {} has {} records left in spool", name, spool.size());
+            }
+            try {
+                spool.close();
+            } catch (IOException e) {
+                log.error("Failed to close spool for data store {}", name, e);
+            }
+        }
+        delegate.cleanup();
+    }
+
+    @Override
+    public Date getLastRecordTime() {
+        return delegate.getLastRecordTime();
+    }
+
+    /**
+     * Spool a record for delivery.
+     *
+     * @return always true
+     */
+    @Override
+    public boolean insertData(final ArchiveRecord rec) throws IOException {
+        spool.append(rec);
+        appended(1, false);
+        return true;
+    }
+
+    /**
+     * Spool records for delivery and write them to disk.
+     *
+     * @return the number of records spooled
+     */
+    @Override
+    public int insertBatch(final Collection<? extends ArchiveRecord> records) throws IOException {
+        for (ArchiveRecord rec : records) {
+            spool.append(rec);
+        }
+        appended(records.size(), true);
+        return records.size();
+    }
+
+    @Override
+    public Date updateStatus(final Date lastDownload, final Date lastRecord) throws IOException {
+        return delegate.updateStatus(lastDownload, lastRecord);
+    }
+
+    @Override
+    public void updateCurrent(final CurrentRecord current) throws IOException {
+        delegate.updateCurrent(current);
+    }
+
+    @Override
+    public void beginDownload() throws IOException {
+        delegate.beginDownload();
+    }
+
+    @Override
+    public void endDownload() throws IOException {
+        delegate.endDownload();
+    }
+}
@@ -0,0 +1,178 @@
+package se.technipelago.weather.datastore.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Download status for data stores that have no database of their own.
+ * <p>
+ * Each store has a row in the <code>checkpoint</code> table, keyed by name, so many stores can share one database.
+ * Stores with the same JDBC URL share a {@link ConnectionPool} and the table is only checked once per pool.
+ */
+public class CheckpointStore {
+
+    private static final Logger log = LogManager.getLogger(CheckpointStore.class);
+
+    private static final String SELECT_CHECKPOINT = "SELECT last_rec FROM checkpoint WHERE name = ?";
+    private static final String INSERT_CHECKPOINT = "INSERT INTO checkpoint (name, last_dl, last_rec) VALUES (?, ?, ?)";
+    private static final String UPDATE_CHECKPOINT = "UPDATE checkpoint SET last_dl = ?, last_rec = ? WHERE name = ?";
+    private static final String UPDATE_DOWNLOAD = "UPDATE checkpoint SET last_dl = ? WHERE name = ?";
+
+    private static final Set<ConnectionPool> initialized = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final ConnectionPool pool;
+    private final String name;
+
+    private CheckpointStore(ConnectionPool pool, String name) {
+        this.pool = pool;
+        this.name = name;
+    }
+
+    /**
+     * Open the checkpoint of a data store. Must be matched by a call to {@link #release()}.
+     *
+     * @param url  JDBC URL
+     * @param name data store name, the key of its row
+     * @param prop pool settings, only used when the pool is created
+     * @return the checkpoint store
+     * @throws SQLException if the database cannot be used
+     */
+    public static CheckpointStore acquire(String url, String name, Properties prop) throws SQLException {
+        final ConnectionPool pool = ConnectionPool.acquire(url, prop);
+        try {
+            synchronized (initialized) {
+                if (!initialized.contains(pool)) {
+                    pool.execute(c -> {
+                        createTable(c.getConnection());
+                        return null;
+                    });
+                    initialized.add(pool);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            pool.release();
+            throw e;
+        }
+        return new CheckpointStore(pool, name);
+    }
+
+    private static void createTable(Connection conn) throws SQLException {
+        if (hasTable(conn, "checkpoint")) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS checkpoint ("
+                    + "name varchar(64) NOT NULL,"
+                    + "last_dl datetime NOT NULL,"
+                    + "last_rec datetime NOT NULL,"
+                    + "PRIMARY KEY (name))");
+        }
+        log.debug("Checkpoint table created");
+    }
+
+    private static boolean hasTable(Connection conn, String table) throws SQLException {
+        final DatabaseMetaData metaData = conn.getMetaData();
+        try (ResultSet tables = metaData.getTables(null, "%", null, new String[]{"TABLE"})) {
+            while (tables.next()) {
+                if (table.equalsIgnoreCase(tables.getString("TABLE_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Time of the last record saved, or null if this store has no checkpoint.
+     * <p>
+     * A store without a row that shares a database with an old single-row <code>status</code> table starts from
+     * that status, so an upgrade does not download the whole archive again.
+     */
+    public Date getLastRecord() throws SQLException {
+        return pool.execute(c -> {
+            final PreparedStatement stmt = c.prepare(SELECT_CHECKPOINT);
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getTimestamp(1);
+                }
+            }
+            if (!hasTable(c.getConnection(), "status")) {
+                return null;
+            }
+            final Timestamp lastRecord;
+            try (ResultSet rs = c.prepare("SELECT last_rec FROM status").executeQuery()) {
+                lastRecord = rs.next() ? rs.getTimestamp(1) : null;
+            }
+            if (lastRecord != null) {
+                final PreparedStatement insert = c.prepare(INSERT_CHECKPOINT);
+                insert.setString(1, name);
+                insert.setTimestamp(2, lastRecord);
+                insert.setTimestamp(3, lastRecord);
+                insert.executeUpdate();
+                log.info("Checkpoint {} starts from status {}", name, lastRecord);
+            }
+            return lastRecord;
+        });
+    }
+
+    /**
+     * Save the download status.
+     *
+     * @param lastDownload time of the download
+     * @param lastRecord   time of the last record saved, or null to keep the time saved before
+     * @return the time of the last record saved
+     */
+    public Date update(Date lastDownload, Date lastRecord) throws SQLException {
+        return pool.execute(c -> {
+            final Connection conn = c.getConnection();
+            conn.setAutoCommit(false);
+            final PreparedStatement update;
+            if (lastRecord != null) {
+                update = c.prepare(UPDATE_CHECKPOINT);
+                update.setTimestamp(1, new Timestamp(lastDownload.getTime()));
+                update.setTimestamp(2, new Timestamp(lastRecord.getTime()));
+                update.setString(3, name);
+            } else {
+                update = c.prepare(UPDATE_DOWNLOAD);
+                update.setTimestamp(1, new Timestamp(lastDownload.getTime()));
+                update.setString(2, name);
+            }
+            if (update.executeUpdate() == 0) {
+                final PreparedStatement insert = c.prepare(INSERT_CHECKPOINT);
+                insert.setString(1, name);
+                insert.setTimestamp(2, new Timestamp(lastDownload.getTime()));
+                insert.setTimestamp(3, new Timestamp(lastRecord != null ? lastRecord.getTime() : 0L));
+                insert.executeUpdate();
+            }
+            final PreparedStatement select = c.prepare(SELECT_CHECKPOINT);
+            select.setString(1, name);
+            final Date saved;
+            try (ResultSet rs = select.executeQuery()) {
+                saved = rs.next() ? rs.getTimestamp(1) : null;
+            }
+            conn.commit();
+            return saved;
+        });
+    }
+
+    /**
+     * Stop using the database.
+     */
+    public void release() {
+        pool.release();
+    }
+}
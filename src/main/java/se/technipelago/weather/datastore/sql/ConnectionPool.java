@@ -0,0 +1,319 @@
+/*
+ *  Copyright 2006 Goran Ehrsson.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package se.technipelago.weather.datastore.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.technipelago.weather.WeatherUtils;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small JDBC connection pool shared by all data stores that use the same database URL.
+ * <p>
+ * Connections are validated before use if they have been idle for a while, closed after
+ * <code>pool.idle</code> seconds without use, and cache their prepared statements. A connection that fails
+ * with an SQLException is closed instead of returned, so the next caller gets a fresh one after a database restart.
+ * <p>
+ * Settings, read from the properties of the first data store that uses the URL:
+ * <ul>
+ * <li><code>pool.size</code> - max number of open connections, default 4</li>
+ * <li><code>pool.idle</code> - seconds before an unused connection is closed, default 300</li>
+ * <li><code>pool.statements</code> - prepared statements cached per connection, default 20</li>
+ * </ul>
+ *
+ * @author Goran Ehrsson <goran@technipelago.se>
+ */
+public class ConnectionPool {
+
+    private static final Logger log = LogManager.getLogger(ConnectionPool.class);
+
+    private static final int POOL_SIZE = 4;
+    private static final int IDLE_TIMEOUT = 300;
+    private static final int STATEMENT_CACHE = 20;
+    private static final long VALIDATION_INTERVAL = 30000L;
+    private static final int VALIDATION_TIMEOUT = 5;
+    private static final long WAIT_TIMEOUT = 30L;
+
+    private static final Map<String, ConnectionPool> pools = new HashMap<>();
+
+    /**
+     * Work done with a pooled connection.
+     */
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T run(PooledConnection conn) throws SQLException;
+    }
+
+    private final String url;
+    private final int statementCacheSize;
+    private final long idleTimeout;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int users;
+    private boolean closed;
+
+    private ConnectionPool(String url, Properties prop) {
+        this.url = url;
+        this.permits = new Semaphore(WeatherUtils.getInt(prop, "pool.size", POOL_SIZE), true);
+        this.idleTimeout = TimeUnit.SECONDS.toMillis(WeatherUtils.getInt(prop, "pool.idle", IDLE_TIMEOUT));
+        this.statementCacheSize = WeatherUtils.getInt(prop, "pool.statements", STATEMENT_CACHE);
+    }
+
+    /**
+     * Get the pool for a database URL, creating it if this is the first user.
+     * Each call must be matched by a call to {@link #release()}.
+     *
+     * @param url  JDBC URL
+     * @param prop pool settings, only used when the pool is created
+     * @return the pool
+     */
+    public static ConnectionPool acquire(String url, Properties prop) {
+        synchronized (pools) {
+            ConnectionPool pool = pools.get(url);
+            if (pool == null) {
+                pool = new ConnectionPool(url, prop);
+                pools.put(url, pool);
+                log.debug("Connection pool created for {}", url);
+            }
+            pool.users++;
+            return pool;
+        }
+    }
+
+    /**
+     * Stop using the pool. When the last user releases it, all connections are closed.
+     */
+    public void release() {
+        synchronized (pools) {
+            if (--users > 0) {
+                return;
+            }
+            pools.remove(url);
+        }
+        synchronized (idle) {
+            closed = true;
+            for (PooledConnection conn : idle) {
+                conn.closeQuietly();
+            }
+            idle.clear();
+        }
+        log.debug("Connection pool closed for {}", url);
+    }
+
+    /**
+     * Run some work with a connection from the pool.
+     * If the work throws an SQLException the connection is closed, otherwise it is returned to the pool.
+     *
+     * @param work the work
+     * @return what the work returned
+     * @throws SQLException if no connection could be opened or the work failed
+     */
+    public <T> T execute(SqlWork<T> work) throws SQLException {
+        final PooledConnection conn = getConnection();
+        try {
+            final T result = work.run(conn);
+            conn.close();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            conn.broken = true;
+            conn.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Borrow a connection. Close it to return it to the pool.
+     *
+     * @return a connection
+     * @throws SQLException if all connections are in use for too long or a new connection could not be opened
+     */
+    public PooledConnection getConnection() throws SQLException {
+        try {
+            if (!permits.tryAcquire(WAIT_TIMEOUT, TimeUnit.SECONDS)) {
+                throw new SQLException("Timeout waiting for a connection to " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + url, e);
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            PooledConnection conn;
+            synchronized (idle) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                evictIdle(now);
+                conn = idle.pollFirst();
+            }
+            if (conn != null && now - conn.lastUsed > VALIDATION_INTERVAL && !isValid(conn)) {
+                log.debug("Closing stale connection to {}", url);
+                conn.closeQuietly();
+                conn = null;
+            }
+            if (conn == null) {
+                conn = new PooledConnection(DriverManager.getConnection(url));
+            }
+            conn.borrowed = true;
+            return conn;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isValid(PooledConnection conn) {
+        try {
+            return conn.connection.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Close connections that have not been used for a while, the least recently used are last in the queue.
+     */
+    private void evictIdle(long now) {
+        final Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            final PooledConnection conn = it.next();
+            if (now - conn.lastUsed < idleTimeout) {
+                break;
+            }
+            it.remove();
+            conn.closeQuietly();
+        }
+    }
+
+    private void giveBack(PooledConnection conn) {
+        try {
+            if (!conn.broken) {
+                try {
+                    if (!conn.connection.getAutoCommit()) {
+                        conn.connection.rollback();
+                        conn.connection.setAutoCommit(true);
+                    }
+                } catch (SQLException e) {
+                    conn.broken = true;
+                }
+            }
+            synchronized (idle) {
+                if (conn.broken || closed) {
+                    conn.closeQuietly();
+                } else {
+                    conn.lastUsed = System.currentTimeMillis();
+                    idle.addFirst(conn);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * A connection borrowed from the pool.
+     */
+    public class PooledConnection implements AutoCloseable {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+        private long lastUsed;
+        private boolean broken;
+        private boolean borrowed;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * The JDBC connection. Do not close it, close this object instead.
+         */
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Return a cached prepared statement for this connection. Do not close it.
+         *
+         * @param sql the SQL statement
+         * @return a prepared statement
+         * @throws SQLException if the statement could not be prepared
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            }
+            return stmt;
+        }
+
+        /**
+         * Return the connection to the pool.
+         */
+        @Override
+        public void close() {
+            if (borrowed) {
+                borrowed = false;
+                giveBack(this);
+            }
+        }
+
+        private void closeQuietly() {
+            for (PreparedStatement stmt : statements.values()) {
+                closeQuietly(stmt);
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("Exception while closing connection to {}", url, e);
+            }
+        }
+
+        private void closeQuietly(PreparedStatement stmt) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                log.debug("Exception while closing statement", e);
+            }
+        }
+    }
+}
@@ -20,149 +20,259 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.technipelago.weather.archive.ArchiveRecord;
 import se.technipelago.weather.archive.CurrentRecord;
-import se.technipelago.weather.datastore.DataStore;
+import se.technipelago.weather.datastore.BatchDataStore;
 
 import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * A data persistence implementation that sore data in a SQL database.
  *
  * @author Goran Ehrsson <goran@technipelago.se>
  */
-public class SqlDataStore implements DataStore {
+public class SqlDataStore implements BatchDataStore {
 
     private static final Logger log = LogManager.getLogger(SqlDataStore.class);
-    private Connection conn;
-    private PreparedStatement selectStatus;
-    private PreparedStatement updateStatus;
-    private PreparedStatement selectData;
-    private PreparedStatement insertData;
-    private PreparedStatement updateCurrent;
+    private static final int BATCH_SIZE = 500;
+    private static final String ARCHIVE_COLUMNS = "ts,temp_out,temp_in,hum_out,hum_in,barometer,rain,rain_rate,wind_avg,wind_dir,wind_high,solar,uv";
+
+    /**
+     * How a record is inserted unless it already exists.
+     */
+    private enum Dialect {
+        /**
+         * MERGE ... WHEN NOT MATCHED THEN INSERT.
+         */
+        H2,
+        /**
+         * INSERT IGNORE, the unique index on ts skips existing records.
+         */
+        MYSQL,
+        /**
+         * SELECT before INSERT.
+         */
+        OTHER
+    }
+
+    private static final String SELECT_DATA = "SELECT COUNT(*) AS cnt FROM archive WHERE ts = ?";
+    private static final String SELECT_RANGE = "SELECT ts FROM archive WHERE ts BETWEEN ? AND ?";
+    private static final String SELECT_STATUS = "SELECT last_rec FROM status";
+    private static final String INSERT_STATUS = "INSERT INTO status (last_dl, last_rec) VALUES (?, ?)";
+    private static final String UPDATE_STATUS = "UPDATE status SET last_dl = ?, last_rec = ?";
+    private static final String INSERT_CURRENT = "INSERT INTO current (bar_trend, console_battery, forecast_icons, forecast_msg, sunrise, sunset, ts, transmit_battery) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_CURRENT = "UPDATE current SET bar_trend = ?, console_battery = ?, forecast_icons = ?, forecast_msg = ?, sunrise = ?, sunset = ?, ts = ?, transmit_battery = ?";
+
+    private ConnectionPool pool;
+    private Dialect dialect;
+    private String insertSql;
+    private int batchSize = BATCH_SIZE;
 
     public void init(Properties prop) {
-        if (conn == null) {
+        final String size = prop.getProperty("batch.size");
+        if (size != null && !size.trim().isEmpty()) {
+            batchSize = Math.max(1, Integer.parseInt(size.trim()));
+        }
+        if (pool == null) {
             try {
                 Class.forName(prop.getProperty("driver", "org.h2.Driver"));
-                conn = DriverManager.getConnection(prop.getProperty("url", "jdbc:h2:file:./weatherDb"));
-                createTables();
             } catch (ClassNotFoundException e) {
                 log.error("Cannot find JDBC driver", e);
                 throw new RuntimeException(e);
-            } catch (SQLException e) {
-                log.error("Cannot connect to database", e);
-                throw new RuntimeException(e);
             }
-        }
-
-        if (selectData == null) {
+            pool = ConnectionPool.acquire(prop.getProperty("url", "jdbc:h2:file:./weatherDb"), prop);
             try {
-                selectData = conn.prepareStatement("SELECT COUNT(*) AS cnt FROM archive WHERE ts = ?");
-                insertData = conn.prepareStatement("INSERT INTO archive (ts,temp_out,temp_in,hum_out,hum_in,barometer,rain,rain_rate,wind_avg,wind_dir,wind_high,solar,uv) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)");
-                selectStatus = conn.prepareStatement("SELECT last_rec FROM status");
-                updateStatus = conn.prepareStatement("UPDATE status SET last_dl = ?, last_rec = ?");
-                updateCurrent = conn.prepareStatement("UPDATE current SET bar_trend = ?, console_battery = ?, forecast_icons = ?, forecast_msg = ?, sunrise = ?, sunset = ?, ts = ?, transmit_battery = ?");
+                dialect = pool.execute(c -> {
+                    createTables(c.getConnection());
+                    return getDialect(c.getConnection().getMetaData().getDatabaseProductName());
+                });
+                insertSql = getInsertSql(dialect);
             } catch (SQLException e) {
-                log.error("Failed to prepare SQL statements", e);
+                log.error("Cannot connect to database", e);
+                pool.release();
+                pool = null;
                 throw new RuntimeException(e);
             }
         }
     }
 
     public void cleanup() {
+        if (pool != null) {
+            pool.release();
+            pool = null;
+        }
+    }
 
-        if (insertData != null) {
-            try {
-                insertData.close();
-            } catch (SQLException ex) {
-                log.warn("Exception while closing INSERT statement", ex);
-            }
-            insertData = null;
+    private static Dialect getDialect(String productName) {
+        if ("H2".equals(productName)) {
+            return Dialect.H2;
+        } else if (productName.contains("MySQL") || productName.contains("MariaDB")) {
+            return Dialect.MYSQL;
         }
-        if (selectData != null) {
-            try {
-                selectData.close();
-            } catch (SQLException ex) {
-                log.warn("Exception while closing SELECT statement", ex);
-            }
-            selectData = null;
+        return Dialect.OTHER;
+    }
+
+    /**
+     * Return an INSERT statement that reports an update count of 1 for a new record and 0 for an existing one.
+     */
+    private static String getInsertSql(Dialect dialect) {
+        switch (dialect) {
+            case H2:
+                return "MERGE INTO archive a USING (SELECT CAST(? AS TIMESTAMP) AS ts, CAST(? AS REAL) AS temp_out,"
+                        + " CAST(? AS REAL) AS temp_in, CAST(? AS SMALLINT) AS hum_out, CAST(? AS SMALLINT) AS hum_in,"
+                        + " CAST(? AS INT) AS barometer, CAST(? AS REAL) AS rain, CAST(? AS REAL) AS rain_rate,"
+                        + " CAST(? AS REAL) AS wind_avg, CAST(? AS SMALLINT) AS wind_dir, CAST(? AS REAL) AS wind_high,"
+                        + " CAST(? AS SMALLINT) AS solar, CAST(? AS REAL) AS uv) r ON a.ts = r.ts"
+                        + " WHEN NOT MATCHED THEN INSERT (" + ARCHIVE_COLUMNS + ") VALUES (r.ts, r.temp_out, r.temp_in,"
+                        + " r.hum_out, r.hum_in, r.barometer, r.rain, r.rain_rate, r.wind_avg, r.wind_dir, r.wind_high, r.solar, r.uv)";
+            case MYSQL:
+                return "INSERT IGNORE INTO archive (" + ARCHIVE_COLUMNS + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)";
+            default:
+                return "INSERT INTO archive (" + ARCHIVE_COLUMNS + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)";
         }
-        if (updateStatus != null) {
-            try {
-                updateStatus.close();
-            } catch (SQLException ex) {
-                log.warn("Exception while closing INSERT statement", ex);
-            }
-            updateStatus = null;
+    }
+
+    public boolean insertData(final ArchiveRecord rec) throws IOException {
+        try {
+            return pool.execute(c -> {
+                final PreparedStatement insertData = c.prepare(insertSql);
+                if (dialect != Dialect.OTHER) {
+                    setArchiveValues(insertData, rec);
+                    return insertData.executeUpdate() > 0;
+                }
+                final PreparedStatement selectData = c.prepare(SELECT_DATA);
+                selectData.setTimestamp(1, new java.sql.Timestamp(rec.getTimestampMillis()));
+                try (ResultSet duplicate = selectData.executeQuery()) {
+                    if (duplicate.next() && duplicate.getInt("cnt") > 0) {
+                        return false;
+                    }
+                }
+                setArchiveValues(insertData, rec);
+                insertData.execute();
+                return true;
+            });
+        } catch(SQLException e) {
+            throw new IOException(e);
         }
-        if (selectStatus != null) {
-            try {
-                selectStatus.close();
-            } catch (SQLException ex) {
-                log.warn("Exception while closing SELECT statement", ex);
-            }
-            selectStatus = null;
+    }
+
+    /**
+     * Insert records with JDBC batches, <code>batch.size</code> records per transaction.
+     */
+    public int insertBatch(final Collection<? extends ArchiveRecord> records) throws IOException {
+        final List<ArchiveRecord> batch = new ArrayList<>(Math.min(records.size(), batchSize));
+        try {
+            return pool.execute(c -> {
+                final Connection conn = c.getConnection();
+                int count = 0;
+                conn.setAutoCommit(false);
+                try {
+                    for (ArchiveRecord rec : records) {
+                        batch.add(rec);
+                        if (batch.size() == batchSize) {
+                            count += executeBatch(c, batch);
+                            batch.clear();
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        count += executeBatch(c, batch);
+                    }
+                } catch (SQLException e) {
+                    c.prepare(insertSql).clearBatch();
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                return count;
+            });
+        } catch (SQLException e) {
+            throw new IOException(e);
         }
-        if (updateCurrent != null) {
-            try {
-                updateCurrent.close();
-            } catch (SQLException ex) {
-                log.warn("Exception while closing UPDATE statement", ex);
+    }
+
+    private int executeBatch(final ConnectionPool.PooledConnection c, final List<ArchiveRecord> batch) throws SQLException {
+        final PreparedStatement insertData = c.prepare(insertSql);
+        final Set<Long> saved = dialect == Dialect.OTHER ? selectSaved(c, batch) : new HashSet<>();
+        int count = 0;
+        for (ArchiveRecord rec : batch) {
+            if (saved.add(rec.getTimestampMillis())) {
+                setArchiveValues(insertData, rec);
+                insertData.addBatch();
+                count++;
             }
-            updateCurrent = null;
         }
-        if (conn != null) {
-            try {
-                conn.close();
-            } catch (SQLException ex) {
-                log.error("Cannot close database connection", ex);
+        if (count > 0 && dialect != Dialect.OTHER) {
+            count = 0;
+            for (int n : insertData.executeBatch()) {
+                // Some drivers do not report counts for batches, then count the record as new.
+                if (n > 0 || n == Statement.SUCCESS_NO_INFO) {
+                    count++;
+                }
             }
-            conn = null;
+        } else if (count > 0) {
+            insertData.executeBatch();
         }
+        c.getConnection().commit();
+        return count;
     }
 
-    public boolean insertData(final ArchiveRecord rec) throws IOException {
-        final java.sql.Timestamp timestamp = new java.sql.Timestamp(rec.getTimestamp().getTime());
-        try {
-            selectData.setTimestamp(1, timestamp);
-            ResultSet duplicate = selectData.executeQuery();
-            if (duplicate.next()) {
-                int count = duplicate.getInt("cnt");
-                if (count > 0) {
-                    return false;
-                }
+    /**
+     * Return timestamps of records in the batch that are already saved, with one query for the whole batch.
+     */
+    private Set<Long> selectSaved(final ConnectionPool.PooledConnection c, final List<ArchiveRecord> batch) throws SQLException {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (ArchiveRecord rec : batch) {
+            first = Math.min(first, rec.getTimestampMillis());
+            last = Math.max(last, rec.getTimestampMillis());
+        }
+        final Set<Long> saved = new HashSet<>();
+        final PreparedStatement selectRange = c.prepare(SELECT_RANGE);
+        selectRange.setTimestamp(1, new java.sql.Timestamp(first));
+        selectRange.setTimestamp(2, new java.sql.Timestamp(last));
+        try (ResultSet rs = selectRange.executeQuery()) {
+            while (rs.next()) {
+                saved.add(rs.getTimestamp(1).getTime());
             }
-            insertData.setTimestamp(1, timestamp);
-            insertData.setFloat(2, (float) rec.getOutsideTemperature());
-            insertData.setFloat(3, (float) rec.getInsideTemperature());
-            insertData.setShort(4, (short) rec.getOutsideHumidity());
-            insertData.setShort(5, (short) rec.getInsideHumidity());
-            insertData.setInt(6, rec.getBarometer());
-            insertData.setFloat(7, (float) rec.getRainFall());
-            insertData.setFloat(8, (float) rec.getRainRateHigh());
-            insertData.setFloat(9, (float) rec.getWindSpeedAvg());
-            insertData.setShort(10, (short) rec.getWindDirection());
-            insertData.setFloat(11, (float) rec.getWindSpeedHigh());
-            insertData.setShort(12, (short) rec.getSolarRadiation());
-            insertData.setFloat(13, (float) rec.getUvIndex());
-            insertData.execute();
-        } catch(SQLException e) {
-            throw new IOException(e);
         }
-        return true;
+        return saved;
+    }
+
+    private void setArchiveValues(final PreparedStatement stmt, final ArchiveRecord rec) throws SQLException {
+        stmt.setTimestamp(1, new java.sql.Timestamp(rec.getTimestampMillis()));
+        stmt.setFloat(2, (float) rec.getOutsideTemperature());
+        stmt.setFloat(3, (float) rec.getInsideTemperature());
+        stmt.setShort(4, (short) rec.getOutsideHumidity());
+        stmt.setShort(5, (short) rec.getInsideHumidity());
+        stmt.setInt(6, rec.getBarometer());
+        stmt.setFloat(7, (float) rec.getRainFall());
+        stmt.setFloat(8, (float) rec.getRainRateHigh());
+        stmt.setFloat(9, (float) rec.getWindSpeedAvg());
+        stmt.setShort(10, (short) rec.getWindDirection());
+        stmt.setFloat(11, (float) rec.getWindSpeedHigh());
+        stmt.setShort(12, (short) rec.getSolarRadiation());
+        stmt.setFloat(13, (float) rec.getUvIndex());
     }
 
     public Date getLastRecordTime() {
         Date d = null;
         try {
-            ResultSet rs = selectStatus.executeQuery();
-            if (rs.next()) {
-                d = rs.getTimestamp(1);
-            } else {
+            d = pool.execute(c -> {
+                try (ResultSet rs = c.prepare(SELECT_STATUS).executeQuery()) {
+                    return rs.next() ? rs.getTimestamp(1) : null;
+                }
+            });
+            if (d == null) {
                 final Date EPOCH = new Date(0L);
                 d = insertStatus(EPOCH, EPOCH);
             }
@@ -179,12 +289,14 @@ public class SqlDataStore implements DataStore {
      * @return <code>lastRecord</code>
      * @throws java.sql.SQLException
      */
-    public Date insertStatus(Date lastDownload, Date lastRecord) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("INSERT INTO status (last_dl, last_rec) VALUES (?, ?)");
-        stmt.setTimestamp(1, new java.sql.Timestamp(lastDownload.getTime()));
-        stmt.setTimestamp(2, new java.sql.Timestamp(lastRecord.getTime()));
-        stmt.execute();
-        return lastRecord;
+    public Date insertStatus(final Date lastDownload, final Date lastRecord) throws SQLException {
+        return pool.execute(c -> {
+            final PreparedStatement stmt = c.prepare(INSERT_STATUS);
+            stmt.setTimestamp(1, new java.sql.Timestamp(lastDownload.getTime()));
+            stmt.setTimestamp(2, new java.sql.Timestamp(lastRecord.getTime()));
+            stmt.execute();
+            return lastRecord;
+        });
     }
 
     /**
@@ -196,19 +308,26 @@ public class SqlDataStore implements DataStore {
      */
     public Date updateStatus(final Date lastDownload, final Date lastRecord) throws IOException {
         try {
-            updateStatus.setTimestamp(1, new java.sql.Timestamp(lastDownload.getTime()));
-            updateStatus.setTimestamp(2, new java.sql.Timestamp(lastRecord.getTime()));
-            updateStatus.executeUpdate();
+            return pool.execute(c -> {
+                final PreparedStatement updateStatus = c.prepare(UPDATE_STATUS);
+                updateStatus.setTimestamp(1, new java.sql.Timestamp(lastDownload.getTime()));
+                updateStatus.setTimestamp(2, new java.sql.Timestamp(lastRecord.getTime()));
+                updateStatus.executeUpdate();
+                return lastRecord;
+            });
         } catch(SQLException e) {
             throw new IOException(e);
         }
-        return lastRecord;
     }
 
     public void updateCurrent(final CurrentRecord current) throws IOException {
         try {
-            setCurrentValues(updateCurrent, current);
-            if (updateCurrent.executeUpdate() < 1) {
+            final boolean updated = pool.execute(c -> {
+                final PreparedStatement updateCurrent = c.prepare(UPDATE_CURRENT);
+                setCurrentValues(updateCurrent, current);
+                return updateCurrent.executeUpdate() > 0;
+            });
+            if (!updated) {
                 insertCurrent(current);
             }
         } catch(SQLException e) {
@@ -217,10 +336,11 @@ public class SqlDataStore implements DataStore {
     }
 
     public void insertCurrent(final CurrentRecord current) throws SQLException {
-
-        final PreparedStatement stmt = conn.prepareStatement("INSERT INTO current (bar_trend, console_battery, forecast_icons, forecast_msg, sunrise, sunset, ts, transmit_battery) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
-        setCurrentValues(stmt, current);
-        stmt.executeUpdate();
+        pool.execute(c -> {
+            final PreparedStatement stmt = c.prepare(INSERT_CURRENT);
+            setCurrentValues(stmt, current);
+            return stmt.executeUpdate();
+        });
     }
 
     public void setCurrentValues(final PreparedStatement stmt, final CurrentRecord current) throws SQLException {
@@ -242,18 +362,16 @@ public class SqlDataStore implements DataStore {
         stmt.setInt(8, current.getTransmitterBatteryStatus());
     }
 
-    private void createTables() throws SQLException {
+    private void createTables(Connection conn) throws SQLException {
         DatabaseMetaData metaData = conn.getMetaData();
         ResultSet tables = metaData.getTables(null, "%", null, new String[]{"TABLE"});
-        List<String> tablesFound = new ArrayList<String>();
+        Map<String, String> tablesFound = new HashMap<String, String>();
         while (tables.next()) {
-            tablesFound.add(tables.getString("TABLE_NAME").toLowerCase());
+            final String name = tables.getString("TABLE_NAME");
+            tablesFound.put(name.toLowerCase(), name);
         }
-        Statement stmt = null;
-
-        try {
-            stmt = conn.createStatement();
-            if (!tablesFound.contains("archive")) {
+        try (Statement stmt = conn.createStatement()) {
+            if (!tablesFound.containsKey("archive")) {
                 stmt.executeUpdate("CREATE TABLE IF NOT EXISTS archive ("
                         + "id int NOT NULL AUTO_INCREMENT,"
                         + "ts datetime NOT NULL,"
@@ -269,9 +387,12 @@ public class SqlDataStore implements DataStore {
                         + "wind_high float NULL,"
                         + "solar smallint NULL,"
                         + "uv float NULL,"
-                        + "PRIMARY KEY (id));");
+                        + "PRIMARY KEY (id),"
+                        + "CONSTRAINT archive_ts UNIQUE (ts));");
+            } else if (!hasUniqueIndex(conn, metaData, tablesFound.get("archive"), "ts")) {
+                addArchiveIndex(conn, stmt);
             }
-            if (!tablesFound.contains("current")) {
+            if (!tablesFound.containsKey("current")) {
                 stmt.executeUpdate("CREATE TABLE IF NOT EXISTS current ("
                         + "id int AUTO_INCREMENT,"
                         + "bar_trend smallint NULL,"
@@ -284,16 +405,57 @@ public class SqlDataStore implements DataStore {
                         + "transmit_battery smallint NULL,"
                         + "PRIMARY KEY (id));");
             }
-            if (!tablesFound.contains("status")) {
+            if (!tablesFound.containsKey("status")) {
                 stmt.executeUpdate("CREATE TABLE IF NOT EXISTS status ("
                         + "id int AUTO_INCREMENT,"
                         + "last_dl datetime NOT NULL,"
                         + "last_rec datetime NOT NULL,"
                         + "PRIMARY KEY (id));");
             }
-        } finally {
-            stmt.close();
         }
         log.debug("Database tables created successfully");
     }
+
+    /**
+     * Check if a table has a unique index on a single column.
+     */
+    private boolean hasUniqueIndex(Connection conn, DatabaseMetaData metaData, String table, String column) throws SQLException {
+        final Map<String, List<String>> indexes = new HashMap<String, List<String>>();
+        try (ResultSet rs = metaData.getIndexInfo(conn.getCatalog(), null, table, true, false)) {
+            while (rs.next()) {
+                final String name = rs.getString("INDEX_NAME");
+                final String col = rs.getString("COLUMN_NAME");
+                if (name != null && col != null) {
+                    indexes.computeIfAbsent(name, k -> new ArrayList<String>()).add(col.toLowerCase());
+                }
+            }
+        }
+        return indexes.containsValue(Collections.singletonList(column));
+    }
+
+    /**
+     * Migrate a database created by an earlier version. Duplicate records are removed, keeping the first one saved,
+     * and a unique index is added on archive.ts.
+     */
+    private void addArchiveIndex(Connection conn, Statement stmt) throws SQLException {
+        log.info("Adding unique index on archive.ts, this may take a while");
+        final Map<java.sql.Timestamp, Integer> duplicates = new HashMap<java.sql.Timestamp, Integer>();
+        try (ResultSet rs = stmt.executeQuery("SELECT ts, MIN(id) FROM archive GROUP BY ts HAVING COUNT(*) > 1")) {
+            while (rs.next()) {
+                duplicates.put(rs.getTimestamp(1), rs.getInt(2));
+            }
+        }
+        if (!duplicates.isEmpty()) {
+            int count = 0;
+            try (PreparedStatement delete = conn.prepareStatement("DELETE FROM archive WHERE ts = ? AND id <> ?")) {
+                for (Map.Entry<java.sql.Timestamp, Integer> entry : duplicates.entrySet()) {
+                    delete.setTimestamp(1, entry.getKey());
+                    delete.setInt(2, entry.getValue());
+                    count += delete.executeUpdate();
+                }
+            }
+            log.info("Removed " + count + " duplicate archive records");
+        }
+        stmt.executeUpdate("CREATE UNIQUE INDEX archive_ts ON archive (ts)");
+    }
 }
@@ -35,7 +35,7 @@ public class Server {
     private static final Logger log = LogManager.getLogger(Server.class.getName());
 
     private static boolean keepRunning = true;
-    private int port;
+    private volatile int port;
 
     /**
      * This is the entry point of the emulator server.
@@ -19,13 +19,16 @@ package se.technipelago.weather.emulator.vantagepro;
 import se.technipelago.weather.vantagepro.Constants;
 import se.technipelago.weather.vantagepro.CRCOutputStream;
 import se.technipelago.weather.vantagepro.CRC16;
+import se.technipelago.weather.vantagepro.TimestampCodec;
 import se.technipelago.weather.vantagepro.VantageUtil;
 import se.technipelago.weather.emulator.Command;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Download data from the weather station.
@@ -37,12 +40,29 @@ import java.util.Date;
  */
 public class Download implements Command {
 
+    private static final AtomicInteger corruptPages = new AtomicInteger();
+    private static volatile Date lastRequest;
+
     private boolean downloadAll;
 
     public Download(boolean all) {
         this.downloadAll = all;
     }
 
+    /**
+     * Send the next <code>count</code> pages with a bad CRC the first time, to test retransmission.
+     */
+    public static void setCorruptPages(int count) {
+        corruptPages.set(count);
+    }
+
+    /**
+     * The time sent with the last download request.
+     */
+    public static Date getLastRequest() {
+        return lastRequest;
+    }
+
     public void execute(Socket connection) throws IOException {
         CRCOutputStream out = new CRCOutputStream(connection.getOutputStream());
         InputStream in = connection.getInputStream();
@@ -58,9 +78,10 @@ public class Download implements Command {
             out.write(0x18);
             return;
         }
-        // Parse date and time.
-        Date timeStamp = VantageUtil.getTime(buf, 0);
+        // Parse date and time, packed like the timestamp of an archive record.
+        Date timeStamp = new Date(new TimestampCodec().decodeArchive(buf, 0));
         System.out.println("Download requested from " + timeStamp);
+        lastRequest = timeStamp;
         
         out.write(Constants.ACK);
         out.resetCRC();
@@ -78,73 +99,90 @@ public class Download implements Command {
         cal.set(Calendar.MILLISECOND, 0);
         cal.set(Calendar.SECOND, 0);
         cal.set(Calendar.MINUTE, 0);
+        // Records are sent oldest first, like the station does. The last one is at the start of this hour.
+        cal.add(Calendar.MINUTE, -135);
 
-        
         // Send pages.
         int numPages = 2;
         for (int page = 0; page < numPages; page++) {
-            out.resetCRC();
-            out.write((byte) 0); // Page number.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(267);
+            CRCOutputStream frame = new CRCOutputStream(bytes);
+            frame.write((byte) 0); // Page number.
             for (int seq = 0; seq < 5; seq++) {
                 // There are 5 data records in each page.
                 Date ts = cal.getTime();
-                out.write(VantageUtil.getDate(ts));
-                out.write(VantageUtil.getTime(ts));
-                out.write(VantageUtil.getTemperature(17 + seq * 2 + Math.random())); // Outside temp
-                out.write(VantageUtil.getTemperature(20 + seq * 3 + Math.random())); // Hight out temp
-                out.write(VantageUtil.getTemperature(15 + seq + Math.random())); // Low out temp
-                out.write(VantageUtil.getRain(1.6)); // Rain fall
-                out.write(VantageUtil.getRain(1.2)); // High Rain rate
-                out.write(getBytes((int)(VantageUtil.millibar2inchHg(1012) * 1000.0))); // Barometer
-                out.write(getBytes(742)); // Solar Radiation
-                out.write(getBytes(123)); // Number of Wind Packets
-                out.write(VantageUtil.getTemperature(22.5)); // Inside Temperature
-                out.write((byte) 56); // Inside Humidity
-                out.write((byte) 72); // Outside Humidity
-                out.write((byte) VantageUtil.ms2mph(4.5)); // Average Wind Speed (MPH)
-                out.write((byte) VantageUtil.ms2mph(12)); // High Wind Speed
-                out.write((byte) Constants.WIND_DIR_SE); // Direction of High Wind Speed
-                out.write((byte) Constants.WIND_DIR_S); // Prevailing/Dominant Wind Direction
-                out.write((byte) (3.1 * 10)); // Average UV
-                out.write((byte) 0); // ET
-                out.write(getBytes(960)); // High Solar Radiation
-                out.write((byte) (3.9 * 10)); // High UV Index
-                out.write((byte) 193); // Forecast Rule
-                out.write(255); // Leaf Temperature 1 (unit is degreeF + 90)
-                out.write(255); // Leaf Temperature 2
-                out.write(255); // Leaf Wetness 1
-                out.write(255); // Leaf Wetness 2
-
-                out.write(255); // Soil Temperature 1
-                out.write(255); // Soil Temperature 2
-                out.write(255); // Soil Temperature 3
-                out.write(255); // Soil Temperature 4
-
-                out.write((byte) 0); // Download Record Type 0xff = Rev A, 0x00 = Rev B
-
-                out.write(255); // Extra Humidity 1
-                out.write(255); // Extra Humidity 2
-                out.write(255); // Extra Temp 1
-                out.write(255); // Extra Temp 2
-                out.write(255); // Extra Temp 3
-
-                out.write(255); // Soil Moisture 1 (unit is cb)
-                out.write(255); // Soil Moisture 2
-                out.write(255); // Soil Moisture 3
-                out.write(255); // Soil Moisture 4
+                frame.write(VantageUtil.getDate(ts));
+                frame.write(VantageUtil.getTime(ts));
+                frame.write(VantageUtil.getTemperature(17 + seq * 2 + Math.random())); // Outside temp
+                frame.write(VantageUtil.getTemperature(20 + seq * 3 + Math.random())); // Hight out temp
+                frame.write(VantageUtil.getTemperature(15 + seq + Math.random())); // Low out temp
+                frame.write(VantageUtil.getRain(1.6)); // Rain fall
+                frame.write(VantageUtil.getRain(1.2)); // High Rain rate
+                frame.write(getBytes((int)(VantageUtil.millibar2inchHg(1012) * 1000.0))); // Barometer
+                frame.write(getBytes(742)); // Solar Radiation
+                frame.write(getBytes(123)); // Number of Wind Packets
+                frame.write(VantageUtil.getTemperature(22.5)); // Inside Temperature
+                frame.write((byte) 56); // Inside Humidity
+                frame.write((byte) 72); // Outside Humidity
+                frame.write((byte) VantageUtil.ms2mph(4.5)); // Average Wind Speed (MPH)
+                frame.write((byte) VantageUtil.ms2mph(12)); // High Wind Speed
+                frame.write((byte) Constants.WIND_DIR_SE); // Direction of High Wind Speed
+                frame.write((byte) Constants.WIND_DIR_S); // Prevailing/Dominant Wind Direction
+                frame.write((byte) (3.1 * 10)); // Average UV
+                frame.write((byte) 0); // ET
+                frame.write(getBytes(960)); // High Solar Radiation
+                frame.write((byte) (3.9 * 10)); // High UV Index
+                frame.write((byte) 193); // Forecast Rule
+                frame.write(255); // Leaf Temperature 1 (unit is degreeF + 90)
+                frame.write(255); // Leaf Temperature 2
+                frame.write(255); // Leaf Wetness 1
+                frame.write(255); // Leaf Wetness 2
+
+                frame.write(255); // Soil Temperature 1
+                frame.write(255); // Soil Temperature 2
+                frame.write(255); // Soil Temperature 3
+                frame.write(255); // Soil Temperature 4
+
+                frame.write((byte) 0); // Download Record Type 0xff = Rev A, 0x00 = Rev B
+
+                frame.write(255); // Extra Humidity 1
+                frame.write(255); // Extra Humidity 2
+                frame.write(255); // Extra Temp 1
+                frame.write(255); // Extra Temp 2
+                frame.write(255); // Extra Temp 3
+
+                frame.write(255); // Soil Moisture 1 (unit is cb)
+                frame.write(255); // Soil Moisture 2
+                frame.write(255); // Soil Moisture 3
+                frame.write(255); // Soil Moisture 4
                 
-                cal.add(Calendar.MINUTE, -15);
+                cal.add(Calendar.MINUTE, 15);
             }
 
             // 4 unused bytes.
-            out.write((byte) 0);
-            out.write((byte) 0);
-            out.write((byte) 0);
-            out.write((byte) 0);
-            out.writeCRC();
-
-            // Wait for ACK before we send the next page.
-            if (in.read() != Constants.ACK) {
+            frame.write((byte) 0);
+            frame.write((byte) 0);
+            frame.write((byte) 0);
+            frame.write((byte) 0);
+            frame.writeCRC();
+
+            // Send the page until the client ACKs it, the client sends NAK if the CRC is wrong.
+            byte[] pageBytes = bytes.toByteArray();
+            boolean corrupt = corruptPages.getAndUpdate(n -> Math.max(n - 1, 0)) > 0;
+            int reply;
+            do {
+                byte[] send = pageBytes;
+                if (corrupt) {
+                    send = pageBytes.clone();
+                    send[10] ^= 0xff;
+                    corrupt = false;
+                }
+                out.write(send);
+                out.flush();
+                reply = in.read();
+            } while (reply == Constants.NAK);
+
+            if (reply != Constants.ACK) {
                 break; // Download cancelled by client.
             }
         }
@@ -17,33 +17,39 @@
 package se.technipelago.weather.emulator.vantagepro;
 
 import org.apache.logging.log4j.LogManager;
+import se.technipelago.weather.archive.CurrentRecord;
 import se.technipelago.weather.emulator.Command;
 import se.technipelago.weather.vantagepro.CRC16;
 import se.technipelago.weather.vantagepro.Constants;
+import se.technipelago.weather.vantagepro.LoopDecoder;
+import se.technipelago.weather.vantagepro.VantageUtil;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author goran
  */
 public class Loop implements Command, Runnable {
 
-    private static boolean active;
+    /**
+     * Incremented for each new LOOP command, a runner stops when it no longer holds the current generation.
+     */
+    private static final AtomicInteger generation = new AtomicInteger();
     private OutputStream outputStream;
     private int repetitions;
+    private int id;
 
     public static void stop() {
-        active = false;
+        generation.incrementAndGet();
     }
 
     public void execute(Socket connection) throws IOException {
-        if (Loop.active) {
-            return;
-        }
-        new Thread(new Loop(repetitions, connection.getOutputStream())).start();
+        // A new LOOP command replaces one that is still running.
+        new Thread(new Loop(repetitions, connection.getOutputStream(), generation.incrementAndGet())).start();
     }
 
     /**
@@ -60,55 +66,77 @@ public class Loop implements Command, Runnable {
      *
      * @param reps
      * @param out
+     * @param id generation of this runner
      */
-    public Loop(int reps, OutputStream out) {
+    public Loop(int reps, OutputStream out, int id) {
         this.repetitions = reps;
         this.outputStream = out;
+        this.id = id;
     }
 
     public void run() {
-        Loop.active = true;
         try {
             outputStream.write(Constants.ACK);
             for (int i = 0; i < repetitions; i++) {
-                if (!active) {
+                if (generation.get() != id) {
                     return;
                 }
                 byte[] bytes = getPacket(i + 1);
                 outputStream.write(bytes);
-                CRC16 crc = new CRC16();
-                crc.add(bytes);
-                outputStream.write(crc.getCrc());
-                try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException e) {
-                    // Ignore.
+                outputStream.write(CRC16.calculate(bytes));
+                if (i < repetitions - 1) {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException e) {
+                        // Ignore.
+                    }
                 }
             }
         } catch (IOException e) {
             LogManager.getLogger(Loop.class).error(e.getMessage());
-        } finally {
-            Loop.active = false;
         }
     }
 
     /**
-     * TODO: Write correct data packet.
+     * Return a LOOP packet with some plausible values.
      *
      * @param num packet number
-     * @return bytes for the LOOP data packet
+     * @return bytes for the LOOP data packet, without CRC
      */
     private byte[] getPacket(int num) {
         byte[] packet = new byte[97];
-
-        // Fake packet begins here.
-        byte[] fake = ("LOOP " + String.valueOf(num)).getBytes();
-        Arrays.fill(packet, (byte) '.');
-        System.arraycopy(fake, 0, packet, 0, fake.length);
-        packet[packet.length - 1] = '\r';
-        packet[packet.length - 2] = '\n';
-        // Fake packet ends here.
-
+        Arrays.fill(packet, (byte) 0xff); // No data from sensors that are not set below.
+        packet[0] = 'L';
+        packet[1] = 'O';
+        packet[2] = 'O';
+        packet[3] = CurrentRecord.BAROMETER_TREND_RISING_SLOWLY;
+        packet[4] = LoopDecoder.PACKET_TYPE_LOOP;
+        put(packet, 5, VantageUtil.getBytes(num)); // Next record
+        put(packet, 7, VantageUtil.getBytes((int) (VantageUtil.millibar2inchHg(1012) * 1000.0))); // Barometer
+        put(packet, 9, VantageUtil.getTemperature(22.5)); // Inside temperature
+        packet[11] = 40; // Inside humidity
+        put(packet, 12, VantageUtil.getTemperature(17 + Math.random())); // Outside temperature
+        packet[14] = (byte) (5 + num % 5); // Wind speed
+        packet[15] = 6; // 10 minute average wind speed
+        put(packet, 16, VantageUtil.getBytes(225)); // Wind direction
+        packet[33] = 65; // Outside humidity
+        put(packet, 41, VantageUtil.getBytes(0)); // Rain rate
+        packet[43] = 12; // UV
+        put(packet, 44, VantageUtil.getBytes(742)); // Solar radiation
+        put(packet, 46, VantageUtil.getBytes(0)); // Storm rain
+        put(packet, 50, VantageUtil.getRain(1.2)); // Day rain
+        packet[86] = 0; // Transmitter battery status
+        put(packet, 87, VantageUtil.getBytes(800)); // Console battery voltage
+        packet[89] = 0x06; // Forecast icons: cloud and partly cloud
+        packet[90] = 1; // Forecast rule
+        put(packet, 91, VantageUtil.getBytes(632)); // Sunrise
+        put(packet, 93, VantageUtil.getBytes(2114)); // Sunset
+        packet[95] = '\n';
+        packet[96] = '\r';
         return packet;
     }
+
+    private static void put(byte[] packet, int offset, byte[] value) {
+        System.arraycopy(value, 0, packet, offset, value.length);
+    }
 }
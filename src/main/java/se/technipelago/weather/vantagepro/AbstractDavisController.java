@@ -25,14 +25,15 @@ import se.technipelago.weather.archive.ArchivePage;
 import se.technipelago.weather.archive.ArchiveRecord;
 import se.technipelago.weather.archive.CurrentRecord;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.SubmissionPublisher;
 
 /**
  * @author goran
@@ -42,81 +43,185 @@ public abstract class AbstractDavisController extends AbstractController {
     protected final Logger log = LogManager.getLogger(getClass());
 
     protected static final String IN = "< ";
+    protected static final int DEFAULT_READ_TIMEOUT = 5000;
+    protected static final int CLEAR_TIMEOUT = 10000;
     protected static final String OUT = "> ";
+    protected static final int LOOP_PACKET_SIZE = 99;
+    protected static final int PAGE_SIZE = 267;
+    protected static final int PAGE_RETRIES = 3;
     protected InputStream in;
     protected OutputStream out;
+    private HandshakeProfile profile = HandshakeProfile.FAST;
+    private Socket connection;
+    private SerialPort serialPort;
+    private RingBuffer buffer;
+    private int pageRetries = PAGE_RETRIES;
+    private final TimestampCodec timestampCodec = new TimestampCodec();
 
     protected abstract void run();
 
     protected void startRemote(List<String> args) throws IOException {
-        Socket connection = null;
         try {
-            String host = args.isEmpty() ? "localhost" : args.get(0);
-            ;
-            int port = args.size() > 1 ? Integer.parseInt(args.get(1)) : 8888;
-            log.debug("Downloading weather data from {}:{}", host, port);
-            connection = new Socket(host, port);
-            connection.setSoTimeout(5000);
-            in = connection.getInputStream();
-            out = connection.getOutputStream();
+            openRemote(args);
             run();
         } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException ex) {
-                    log.warn("Failed to close connection", ex);
-                }
-            }
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException ex) {
-                    log.warn("Failed to close connection", ex);
-                }
-            }
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (IOException ex) {
-                    log.warn("Failed to close connection", ex);
-                }
-            }
+            closeConnection();
         }
     }
 
     protected void startLocal(List<String> args) throws IOException {
-        String portName = args.isEmpty() ? "/dev/ttyUSB0" : args.get(0);
-        int baud = args.size() > 1 ? Integer.parseInt(args.get(1)) : 19200;
-        SerialPort serialPort = new SerialPort(portName);
-        RingBuffer buffer = new RingBuffer();
-        log.debug("Downloading weather data from {}", portName);
         try {
-            serialPort.openPort();
-            serialPort.setParams(baud, 8, 1, 0);
-            serialPort.setEventsMask(SerialPort.MASK_RXCHAR);
-            serialPort.addEventListener(new SerialPortReader(serialPort, buffer));
-            in = new SerialPortInputStream(buffer);
-            out = new SerialPortOutputStream(serialPort);
+            openLocal(args);
             run();
             //serialPort.closePort();
         } catch (SerialPortException ex) {
             log.error("Failed to initialize serial connection", ex);
         } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException ex) {
-                    log.warn("Failed to close connection", ex);
-                }
+            closeConnection();
+        }
+    }
+
+    /**
+     * Open a connection to the station. If the first argument contains a '/' it is a local serial device,
+     * otherwise it is the host name of a remote (emulated) station.
+     *
+     * @param args device and baud rate, or host and port
+     * @throws IOException if the connection cannot be opened
+     */
+    protected void openConnection(List<String> args) throws IOException {
+        String firstArg = args.isEmpty() ? "localhost" : args.get(0);
+        if (firstArg.indexOf('/') != -1) {
+            try {
+                openLocal(args); // Local serial device
+            } catch (SerialPortException ex) {
+                throw new IOException("Failed to initialize serial connection", ex);
+            }
+        } else {
+            openRemote(args); // Remote virtual device
+        }
+    }
+
+    protected void openRemote(List<String> args) throws IOException {
+        String host = args.isEmpty() ? "localhost" : args.get(0);
+        int port = args.size() > 1 ? Integer.parseInt(args.get(1)) : 8888;
+        log.debug("Downloading weather data from {}:{}", host, port);
+        connection = new Socket(host, port);
+        connection.setSoTimeout(DEFAULT_READ_TIMEOUT);
+        in = connection.getInputStream();
+        out = new BufferedOutputStream(connection.getOutputStream(), 512);
+    }
+
+    protected void openLocal(List<String> args) throws SerialPortException {
+        String portName = args.isEmpty() ? "/dev/ttyUSB0" : args.get(0);
+        int baud = args.size() > 1 ? Integer.parseInt(args.get(1)) : 19200;
+        log.debug("Downloading weather data from {}", portName);
+        serialPort = new SerialPort(portName);
+        buffer = new RingBuffer(RingBuffer.DEFAULT_CAPACITY, DEFAULT_READ_TIMEOUT);
+        serialPort.openPort();
+        serialPort.setParams(baud, 8, 1, 0);
+        serialPort.setEventsMask(SerialPort.MASK_RXCHAR);
+        serialPort.addEventListener(new SerialPortReader(serialPort, buffer));
+        in = new SerialPortInputStream(buffer);
+        out = new SerialPortOutputStream(serialPort);
+    }
+
+    /**
+     * Close the connection to the station, if one is open.
+     */
+    protected void closeConnection() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                log.warn("Failed to close connection", ex);
+            }
+            out = null;
+        }
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                log.warn("Failed to close connection", ex);
             }
-            if (in != null) {
+            in = null;
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException ex) {
+                log.warn("Failed to close connection", ex);
+            }
+            connection = null;
+        }
+        if (serialPort != null) {
+            if (serialPort.isOpened()) {
                 try {
-                    in.close();
-                } catch (IOException ex) {
-                    log.warn("Failed to close connection", ex);
+                    serialPort.closePort();
+                } catch (SerialPortException ex) {
+                    log.warn("Failed to close serial port", ex);
                 }
             }
+            serialPort = null;
+        }
+        buffer = null;
+    }
+
+    public HandshakeProfile getHandshakeProfile() {
+        return profile;
+    }
+
+    public void setHandshakeProfile(HandshakeProfile profile) {
+        this.profile = profile != null ? profile : HandshakeProfile.FAST;
+    }
+
+    /**
+     * Set how many times an archive page with a CRC error is requested again before the download fails.
+     *
+     * @param pageRetries number of retransmissions per page
+     */
+    public void setPageRetries(int pageRetries) {
+        this.pageRetries = pageRetries;
+    }
+
+    /**
+     * Set the number of milliseconds a read waits for data from the station.
+     *
+     * @param timeout timeout in milliseconds
+     * @throws IOException if the timeout cannot be changed
+     */
+    protected void setReadTimeout(long timeout) throws IOException {
+        if (buffer != null) {
+            buffer.setTimeout(timeout);
+        } else if (connection != null) {
+            connection.setSoTimeout((int) timeout);
+        }
+    }
+
+    /**
+     * Throw away bytes that the station has sent but nobody has asked for.
+     *
+     * @throws IOException if the input stream fails
+     */
+    protected void discardInput() throws IOException {
+        int n;
+        while ((n = in.available()) > 0) {
+            in.skip(n);
+        }
+    }
+
+    /**
+     * Wait for an ACK, giving the station at most <code>timeout</code> milliseconds to respond.
+     *
+     * @param message exception message if no ACK is received
+     * @param timeout timeout in milliseconds
+     * @throws IOException if something else than an ACK is received or the station does not respond
+     */
+    protected void awaitAck(String message, long timeout) throws IOException {
+        setReadTimeout(timeout);
+        try {
+            assertAck(message);
+        } finally {
+            setReadTimeout(DEFAULT_READ_TIMEOUT);
         }
     }
 
@@ -127,13 +232,73 @@ public abstract class AbstractDavisController extends AbstractController {
     }
 
     protected void writeString(String string) throws IOException {
-        out.write(string.getBytes());
-        out.flush();
+        final byte[] bytes = string.getBytes();
+        if (out instanceof SerialPortOutputStream) {
+            ((SerialPortOutputStream) out).writeCommand(bytes);
+        } else {
+            out.write(bytes);
+            out.flush();
+        }
         log(OUT, escape(string));
+        sleep(profile.getCommandDelay());
+    }
+
+    /**
+     * Send a binary frame. The parts are buffered and sent to the station together.
+     *
+     * @param parts the frame parts
+     * @throws IOException if the frame cannot be sent
+     */
+    protected void writeBytes(byte[]... parts) throws IOException {
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        flush();
+        if (log.isTraceEnabled()) {
+            for (byte[] part : parts) {
+                log(OUT, part, 0, part.length);
+            }
+        }
+    }
+
+    /**
+     * Send buffered output. The conservative profile then waits, like every flush did in earlier versions.
+     */
+    private void flush() throws IOException {
+        out.flush();
+        sleep(profile.getCommandDelay());
+    }
+
+    protected void writeAck() throws IOException {
+        out.write(Constants.ACK);
+        flush();
+        log(OUT, "<ACK>");
+    }
+
+    protected void writeNak() throws IOException {
+        out.write(Constants.NAK);
+        flush();
+        log(OUT, "<NAK>");
+    }
+
+    /**
+     * Read an expected response, giving the station at most <code>timeout</code> milliseconds to respond.
+     *
+     * @param string  the expected response
+     * @param timeout timeout in milliseconds
+     * @throws IOException if the response is different or does not arrive in time
+     */
+    protected void expectString(String string, long timeout) throws IOException {
+        setReadTimeout(timeout);
+        try {
+            expectString(string);
+        } finally {
+            setReadTimeout(DEFAULT_READ_TIMEOUT);
+        }
     }
 
     protected void expectString(String string) throws IOException {
-        sleep(250);
+        sleep(profile.getResponseDelay());
         int length = string.length();
         byte[] buf = readBytes(length);
         String s = new String(buf);
@@ -144,20 +309,30 @@ public abstract class AbstractDavisController extends AbstractController {
 
     protected byte[] readBytes(int length) throws IOException {
         byte[] buf = new byte[length];
-        //log(IN);
-        for (int i = 0; i < length; i++) {
-            int c = in.read();
-            if (c != -1) {
-                buf[i] = (byte) (c & 0xff);
-                //logByte(buf[i]);
-            } else {
+        readBytes(buf, 0, length);
+        return buf;
+    }
+
+    /**
+     * Fill a frame with bytes from the station, reading as many bytes per call as are available.
+     *
+     * @param buf    the frame buffer
+     * @param offset where in the buffer the frame starts
+     * @param length the frame length
+     * @throws IOException if the stream ends before the frame is complete
+     */
+    protected void readBytes(byte[] buf, int offset, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int count = in.read(buf, offset + n, length - n);
+            if (count == -1) {
                 throw new IOException("Unexpected EOF");
             }
+            n += count;
+        }
+        if (log.isTraceEnabled()) {
+            log(IN, buf, offset, length);
         }
-        log(IN, buf, 0, length);
-        //logNL();
-
-        return buf;
     }
 
     public void test() throws IOException {
@@ -175,8 +350,7 @@ public abstract class AbstractDavisController extends AbstractController {
         expectString("\n\rTEST\n\r");
 
         // Determine station type.
-        out.write(new byte[]{'W', 'R', 'D', 0x12, 0x4d, '\n'});
-        log(OUT, "WRD<0x12><0x4d>\n");
+        writeBytes(new byte[]{'W', 'R', 'D', 0x12, 0x4d, '\n'});
         buf = readBytes(2);
         if (buf[0] != Constants.ACK) {
             throw new IOException("Invalid response");
@@ -217,7 +391,7 @@ public abstract class AbstractDavisController extends AbstractController {
         setConsoleTime(new Date());
         writeString("SETPER 10\n");
         assertAck("Invalid response");
-        sleep(1200);
+        sleep(profile.getSettleDelay());
     }
 
     protected void clear() throws IOException {
@@ -228,8 +402,8 @@ public abstract class AbstractDavisController extends AbstractController {
 
         log.debug("Connected to weather station");
         writeString("CLRLOG\n");
-        sleep(3000);
-        assertAck("Invalid response");
+        sleep(profile.getSettleDelay());
+        awaitAck("Invalid response", CLEAR_TIMEOUT);
         log(IN, "<ACK>");
         log.debug("Archive data cleared");
     }
@@ -239,14 +413,15 @@ public abstract class AbstractDavisController extends AbstractController {
         boolean awake = false;
         int i = 0;
         while (awake == false && i++ < 3) {
+            discardInput();
             writeString("\n");
             try {
-                expectString("\n\r");
+                expectString("\n\r", HandshakeProfile.WAKEUP_TIMEOUT);
                 awake = true;
             } catch (IOException e) {
                 // Ignore.
             }
-            sleep(2000);
+            sleep(profile.getWakeupDelay());
         }
         if (log.isDebugEnabled()) {
             log.debug(awake ? "The station is awake" : "No response from station");
@@ -256,6 +431,9 @@ public abstract class AbstractDavisController extends AbstractController {
 
 
     protected void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
         try {
             Thread.sleep(ms);
         } catch (InterruptedException ex) {
@@ -304,39 +482,20 @@ public abstract class AbstractDavisController extends AbstractController {
         bytes[4] = (byte) (cal.get(Calendar.MONTH) + 1);
         bytes[5] = (byte) (cal.get(Calendar.YEAR) - 1900);
 
-        out.write(bytes);
         CRC16 crc = new CRC16();
         crc.add(bytes);
-        out.write(crc.getCrc());
+        writeBytes(bytes, crc.getCrc());
         assertAck("Cannot set station time");
         // Wait a while because the station can get a little dizzy after SETTIME.
-        sleep(3000);
+        sleep(profile.getSettleDelay());
     }
 
     protected Date parseTimestamp(byte[] buf, int offset) {
-        int word = parseWord(buf, offset);
-        int year = ((word >>> 9) & 0x7f) + 2000;
-        int month = ((word >>> 5) & 0x0f) - 1;
-        int day = word & 0x1f;
-        Calendar cal = Calendar.getInstance();
-        cal.set(Calendar.YEAR, year);
-        cal.set(Calendar.MONTH, month);
-        cal.set(Calendar.DAY_OF_MONTH, day);
-
-        word = parseWord(buf, offset + 2);
-        int hour = (int) (word / 100);
-        int minute = word % 100;
-        cal.set(Calendar.HOUR_OF_DAY, hour);
-        cal.set(Calendar.MINUTE, minute);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
-        return cal.getTime();
+        return new Date(timestampCodec.decodeArchive(buf, offset));
     }
 
     protected int parseWord(byte[] buf, int offset) {
-        int firstByte = (0x000000ff & ((int) buf[offset + 1]));
-        int secondByte = (0x000000ff & ((int) buf[offset]));
-        return (firstByte << 8 | secondByte);
+        return VantageUtil.parseWord(buf, offset);
     }
 
     /**
@@ -347,11 +506,7 @@ public abstract class AbstractDavisController extends AbstractController {
      * @return
      */
     protected double parseTemperature(byte[] buf, int offset) {
-        int f = ((int) buf[offset + 1] << 8) | (buf[offset] & 0xff) & 0xffff;
-        if (f == 32767) {
-            return 0.0;
-        }
-        return VantageUtil.fahrenheit2celcius(f / 10.0);
+        return VantageUtil.parseTemperature(buf, offset);
     }
 
     /**
@@ -362,11 +517,7 @@ public abstract class AbstractDavisController extends AbstractController {
      * @return
      */
     protected double parseExtraTemperature(byte[] buf, int offset) {
-        int f = (int) (buf[offset] & 0xff);
-        if (f == 255) {
-            return 0.0;
-        }
-        return VantageUtil.fahrenheit2celcius(f - 90.0);
+        return VantageUtil.parseExtraTemperature(buf, offset);
     }
 
     /**
@@ -377,23 +528,30 @@ public abstract class AbstractDavisController extends AbstractController {
      * @return
      */
     protected double parseRain(byte[] buf, int offset) {
-        int word = parseWord(buf, offset);
-        return word / 5.0;
+        return VantageUtil.parseRain(buf, offset);
     }
 
     protected int parseBarometer(byte[] buf, int offset) {
-        int word = parseWord(buf, offset);
-        double inchHg = word / 1000.0;
-
-        return VantageUtil.inchHg2millibar(inchHg);
+        return VantageUtil.parseBarometer(buf, offset);
     }
 
     protected double parseWindSpeed(byte[] buf, int offset) {
-        int mph = buf[offset];
-        return mph != -1 ? mph * 0.45 : 0;
+        return VantageUtil.parseWindSpeed(buf, offset);
     }
 
-    protected ArchivePage[] download(Date startRecord) throws IOException {
+    /**
+     * Download archive records after <code>startRecord</code> with DMPAFT.
+     * <p>
+     * Each page is handed to the pipeline before it is acknowledged, so the station waits while the pipeline is full.
+     * Pages already handed over when a failure occurs stay in the pipeline. A page with a CRC error is
+     * answered with NAK and sent again by the station.
+     *
+     * @param startRecord time of the last record already saved
+     * @param pipeline    where to send the downloaded pages
+     * @return number of pages downloaded
+     * @throws IOException if the station does not respond, a page is still corrupt after retries or the pipeline has failed
+     */
+    protected int download(Date startRecord, ArchivePipeline pipeline) throws IOException {
         if (startRecord == null) {
             throw new IllegalArgumentException("startRecord must be != null");
         }
@@ -407,9 +565,7 @@ public abstract class AbstractDavisController extends AbstractController {
         crc.add(dateBytes);
         crc.add(timeBytes);
 
-        out.write(dateBytes);
-        out.write(timeBytes);
-        out.write(crc.getCrc());
+        writeBytes(dateBytes, timeBytes, crc.getCrc());
         int n = in.read();
         if (n != Constants.ACK) {
             throw new IOException("Invalid response: " + Integer.toHexString(n));
@@ -420,72 +576,46 @@ public abstract class AbstractDavisController extends AbstractController {
             throw new IOException("CRC error");
         }
         int numPages = parseWord(buf, 0);
-        int startPage = parseWord(buf, 2);
+        int firstRecord = parseWord(buf, 2);
         log.debug("Number of pages: {}", numPages);
-        log.debug("Start page: {}", startPage);
+        log.debug("First record in first page: {}", firstRecord);
 
-        out.write(Constants.ACK);
-        log(OUT, "<ACK>");
+        writeAck();
 
-        List<ArchivePage> pages = new ArrayList<ArchivePage>();
         for (int i = 0; i < numPages; i++) {
-            byte[] page = readBytes(267);
-            if (!CRC16.check(page, 0, page.length)) {
-                throw new IOException("CRC error");
+            // A new buffer for every page, the records in the page are views of it.
+            byte[] page = readBytes(PAGE_SIZE);
+            for (int retry = 0; !CRC16.check(page, 0, page.length); retry++) {
+                if (retry == pageRetries) {
+                    throw new IOException("CRC error in page " + (i + 1) + "/" + numPages);
+                }
+                log.warn("CRC error in page {}/{}, requesting it again", i + 1, numPages);
+                discardInput();
+                writeNak();
+                readBytes(page, 0, page.length);
             }
-            ArchivePage ap = parseArchivePage(page);
-            pages.add(ap);
-            out.write(Constants.ACK);
-            log(OUT, "<ACK>");
+            pipeline.put(parseArchivePage(page));
+            writeAck();
             log.debug("Downloaded page {}/{}", i + 1, numPages);
         }
-        return pages.toArray(new ArchivePage[pages.size()]);
+        return numPages;
     }
 
+    /**
+     * Wrap a downloaded page. The records are views that decode their values from the page bytes
+     * when they are read, so the page buffer must not be reused while the records are in use.
+     *
+     * @param page the page, as received from the station
+     * @return the archive page
+     */
     protected ArchivePage parseArchivePage(byte[] page) {
         ArchivePage ap = new ArchivePage();
-        int offset = 0;
-
-        ap.setPageNumber((int) page[offset++] & 0xff);
+        ap.setPageNumber((int) page[0] & 0xff);
         for (int i = 0; i < 5; i++) {
-            ArchiveRecord rec = ap.getRecord(i);
-            rec.setTimestamp(parseTimestamp(page, offset));
-            rec.setOutsideTemperature(parseTemperature(page, offset + 4));
-            rec.setOutsideTemperatureHigh(parseTemperature(page, offset + 6));
-            rec.setOutsideTemperatureLow(parseTemperature(page, offset + 8));
-            rec.setRainFall(parseRain(page, offset + 10));
-            rec.setRainRateHigh(parseRain(page, offset + 12));
-            rec.setBarometer(parseBarometer(page, offset + 14));
-            int solar = parseWord(page, offset + 16);
-            if (solar == 32767) {
-                solar = 0;
-            }
-            rec.setSolarRadiation(solar);
-            // Number of wind samples skipped.
-            rec.setInsideTemperature(parseTemperature(page, offset + 20));
-            int humidity = (int) page[offset + 22];
-            rec.setInsideHumidity(humidity == -1 ? 0 : humidity);
-            humidity = (int) page[offset + 23];
-            rec.setOutsideHumidity(humidity == -1 ? 0 : humidity);
-            rec.setWindSpeedAvg(parseWindSpeed(page, offset + 24));
-            rec.setWindSpeedHigh(parseWindSpeed(page, offset + 25));
-            // Direction of high wind speed skipped.
-            rec.setWindDirection((int) page[offset + 27]);
-            int uv = (int) page[offset + 28];
-            rec.setUvIndex(uv == -1 ? 0 : uv / 10.0);
-
-            rec.setExtraTemperature1(parseExtraTemperature(page, offset + 45));
-            rec.setExtraTemperature2(parseExtraTemperature(page, offset + 46));
-            rec.setExtraTemperature3(parseExtraTemperature(page, offset + 47));
-
-            humidity = (int) page[offset + 43];
-            rec.setExtraHumidity1(humidity == -1 ? 0 : humidity);
-            humidity = (int) page[offset + 44];
-            rec.setExtraHumidity2(humidity == -1 ? 0 : humidity);
-
-            offset += 52;
+            // Timestamps are decoded in record order, that is how the codec tells repeated hours apart.
+            long timestamp = timestampCodec.decodeArchive(page, 1 + i * ArchiveRecordView.RECORD_SIZE);
+            ap.setRecord(i, new ArchiveRecordView(page, i, timestamp));
         }
-
         return ap;
     }
 
@@ -495,7 +625,7 @@ public abstract class AbstractDavisController extends AbstractController {
         assertAck("Invalid response");
         log(IN, "<ACK>");
 
-        byte[] buf = readBytes(99);
+        byte[] buf = readBytes(LOOP_PACKET_SIZE);
         if (!CRC16.check(buf, 0, buf.length)) {
             throw new IOException("CRC error");
         }
@@ -503,6 +633,57 @@ public abstract class AbstractDavisController extends AbstractController {
         return parseLoopRecord(buf);
     }
 
+    /**
+     * Stream LOOP packets until <code>deadline</code>.
+     * <p>
+     * Each packet is parsed as soon as it arrives and offered to the publisher. A subscriber that cannot keep up
+     * misses packets instead of holding up the stream. A new <code>LOOP</code> command is sent as soon as the
+     * previous one has delivered its last packet, so there is no gap in the data.
+     *
+     * @param packets   number of packets to request with each <code>LOOP</code> command
+     * @param deadline  time in milliseconds since epoch when streaming should stop
+     * @param publisher where to publish the records, streaming stops if it is closed
+     * @return number of records published
+     * @throws IOException if the station does not respond
+     */
+    protected int streamLoop(int packets, long deadline, SubmissionPublisher<CurrentRecord> publisher) throws IOException {
+        if (!wakeup()) {
+            throw new IOException("No response from station");
+        }
+        final byte[] buf = new byte[LOOP_PACKET_SIZE];
+        final CurrentRecord current = new CurrentRecord();
+        int count = 0;
+        while (System.currentTimeMillis() < deadline && !publisher.isClosed()) {
+            writeString("LOOP " + packets + "\n");
+            assertAck("Invalid response");
+            log(IN, "<ACK>");
+            for (int i = 0; i < packets; i++) {
+                readBytes(buf, 0, buf.length);
+                if (!CRC16.check(buf, 0, buf.length)) {
+                    // The stream is probably out of sync, stop it and start over.
+                    log.warn("CRC error in LOOP packet");
+                    if (!wakeup()) {
+                        throw new IOException("No response from station");
+                    }
+                    break;
+                }
+                LoopDecoder.decode(buf, current);
+                // Subscribers get their own copy, the decoder keeps writing into the same record.
+                publisher.offer(new CurrentRecord(current), (subscriber, rec) -> {
+                    log.debug("Subscriber {} is too slow, LOOP record dropped", subscriber);
+                    return false;
+                });
+                count++;
+                if (System.currentTimeMillis() >= deadline || publisher.isClosed()) {
+                    break;
+                }
+            }
+        }
+        // Any character stops the station from sending more packets.
+        wakeup();
+        return count;
+    }
+
     protected static final byte FORECAST_ICON_RAIN_BIT = 0x01;
     protected static final byte FORECAST_ICON_CLOUD_BIT = 0x02;
     protected static final byte FORECAST_ICON_PARTLY_CLOUD_BIT = 0x04;
@@ -513,66 +694,13 @@ public abstract class AbstractDavisController extends AbstractController {
         if (buf[0] != 'L' || buf[1] != 'O' || buf[2] != 'O') {
             throw new IOException("Invalid response: " + escape(buf, 0, 3, true));
         }
-        byte barTrend = buf[3];
-        byte xmitBatteryStatus = buf[86];
-        double consoleBatteryVoltage = ((parseWord(buf, 87) * 300) / 512) / 100.0;
-        String[] icons = parseForecastIcons(buf[89]);
-        String forecast = ForecastRules.getText((int) buf[90] & 0xff);
-        Date sunrise = parseHourMinute(buf, 91);
-        Date sunset = parseHourMinute(buf, 93);
-        // Initialize a CurrentRecord instance with the collected values.
         CurrentRecord rec = new CurrentRecord();
-        rec.setBarometerTrend(barTrend);
-        rec.setConsoleBatteryVolt(consoleBatteryVoltage);
-        rec.setForecastIcons(icons);
-        rec.setForecastMessage(forecast);
-        rec.setSunrise(sunrise);
-        rec.setSunset(sunset);
-        // My guess is that the battery status will switch from zero to one
-        // when there is a low-battery situation in the transmitter.
-        rec.setTransmitterBatteryStatus((int) xmitBatteryStatus & 0xff);
-
+        LoopDecoder.decode(buf, rec);
         return rec;
     }
 
-    private String[] parseForecastIcons(byte b) {
-        String[] tmp = new String[5];
-        String[] icons;
-        int size = 0;
-        if ((b & FORECAST_ICON_RAIN_BIT) != 0) {
-            tmp[size++] = CurrentRecord.FORECAST_ICON_RAIN;
-        }
-        if ((b & FORECAST_ICON_CLOUD_BIT) != 0) {
-            tmp[size++] = CurrentRecord.FORECAST_ICON_CLOUD;
-        }
-        if ((b & FORECAST_ICON_PARTLY_CLOUD_BIT) != 0) {
-            tmp[size++] = CurrentRecord.FORECAST_ICON_PARTLY_CLOUD;
-        }
-        if ((b & FORECAST_ICON_SUN_BIT) != 0) {
-            tmp[size++] = CurrentRecord.FORECAST_ICON_SUN;
-        }
-        if ((b & FORECAST_ICON_SNOW_BIT) != 0) {
-            tmp[size++] = CurrentRecord.FORECAST_ICON_SNOW;
-        }
-        if (size == 5) {
-            icons = tmp;
-        } else {
-            icons = new String[size];
-            System.arraycopy(tmp, 0, icons, 0, size);
-        }
-        return icons;
-    }
-
     protected Date parseHourMinute(byte[] buf, int offset) {
-        int w = parseWord(buf, offset);
-        int h = w / 100;
-        int m = w % 100;
-        Calendar cal = Calendar.getInstance();
-        cal.set(Calendar.HOUR_OF_DAY, h);
-        cal.set(Calendar.MINUTE, m);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
-        return cal.getTime();
+        return new Date(timestampCodec.decodeHourMinute(parseWord(buf, offset), System.currentTimeMillis()));
     }
 
     protected String escape(String string) {
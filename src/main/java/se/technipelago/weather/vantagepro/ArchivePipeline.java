@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2006 Goran Ehrsson.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package se.technipelago.weather.vantagepro;
+
+import se.technipelago.weather.archive.ArchivePage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands downloaded archive pages to a writer thread, so pages are saved while the next one is on the wire.
+ * <p>
+ * The queue is bounded. When the writer falls behind, {@link #put(ArchivePage)} blocks and the station
+ * waits for its ACK, so memory use does not grow with the size of the download.
+ *
+ * @author Goran Ehrsson <goran@technipelago.se>
+ */
+public class ArchivePipeline {
+
+    /**
+     * Saves one page. Called on the writer thread, in download order.
+     */
+    @FunctionalInterface
+    public interface PageWriter {
+        void write(ArchivePage page) throws IOException;
+    }
+
+    private static final ArchivePage END = new ArchivePage();
+    private static final long POLL_INTERVAL = 100L;
+    private static final long STOP_TIMEOUT = 10000L;
+
+    private final BlockingQueue<ArchivePage> queue;
+    private final PageWriter writer;
+    private final Thread thread;
+    private volatile Throwable failure;
+    private volatile boolean aborted;
+    private int written;
+
+    /**
+     * Create a pipeline and start its writer thread.
+     *
+     * @param capacity max number of pages waiting to be written
+     * @param writer   saves the pages
+     */
+    public ArchivePipeline(int capacity, PageWriter writer) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = writer;
+        this.thread = new Thread(this::run, "archive-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        try {
+            ArchivePage page;
+            while (!aborted && (page = queue.take()) != END) {
+                writer.write(page);
+                written++;
+            }
+        } catch (InterruptedException e) {
+            // Aborted.
+        } catch (Throwable e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Queue a page for writing, wait if the queue is full.
+     *
+     * @param page a downloaded page
+     * @throws IOException if the writer has failed or the calling thread was interrupted
+     */
+    public void put(ArchivePage page) throws IOException {
+        enqueue(page);
+    }
+
+    /**
+     * Wait until all queued pages are written and stop the writer thread.
+     *
+     * @return number of pages written
+     * @throws IOException if the writer failed or the calling thread was interrupted
+     */
+    public int finish() throws IOException {
+        if (!aborted) {
+            enqueue(END);
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+        checkFailure();
+        return written;
+    }
+
+    /**
+     * Stop the writer thread without writing queued pages. A page being written is finished, this waits for it
+     * at most 10 seconds.
+     *
+     * @return true if the writer has stopped
+     */
+    public boolean abort() {
+        aborted = true;
+        queue.clear();
+        queue.offer(END);
+        thread.interrupt();
+        // Wait also when the caller was interrupted.
+        final boolean interrupted = Thread.interrupted();
+        try {
+            thread.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            // Give up waiting.
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return !thread.isAlive();
+    }
+
+    /**
+     * True until the writer thread has stopped.
+     */
+    public boolean isRunning() {
+        return thread.isAlive();
+    }
+
+    private void enqueue(ArchivePage page) throws IOException {
+        try {
+            // Poll, so a writer that died does not leave us waiting for room forever.
+            while (!queue.offer(page, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+                if (!thread.isAlive()) {
+                    throw new IOException("Archive writer stopped");
+                }
+            }
+        } catch (InterruptedException e) {
+            abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Failed to save archive page", failure);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ *  Copyright 2006 Goran Ehrsson.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package se.technipelago.weather.vantagepro;
+
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.util.Date;
+
+import static se.technipelago.weather.vantagepro.VantageUtil.parseBarometer;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseExtraTemperature;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseHumidity;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseRain;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseTemperature;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseWindSpeed;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseWord;
+
+/**
+ * Read-only archive record that decodes its values from a downloaded archive page when they are asked for.
+ * <p>
+ * Data stores can use it like any other ArchiveRecord. Use {@link #toArchiveRecord()} to get a record
+ * that can be modified or kept after the page buffer is reused. Setters throw UnsupportedOperationException.
+ *
+ * @author Goran Ehrsson <goran@technipelago.se>
+ */
+public class ArchiveRecordView extends ArchiveRecord {
+
+    /**
+     * Size of one archive record in a DMP/DMPAFT page.
+     */
+    public static final int RECORD_SIZE = 52;
+
+    private final byte[] page;
+    private final int offset;
+    private final int recordNumber;
+    private final long timestamp;
+
+    /**
+     * Create a view over one record in an archive page.
+     *
+     * @param page         the page, including the page number byte
+     * @param recordNumber record index in the page (0-4)
+     * @param timestamp    record time in milliseconds since epoch, see {@link TimestampCodec#decodeArchive(byte[], int)}
+     */
+    public ArchiveRecordView(byte[] page, int recordNumber, long timestamp) {
+        if (recordNumber < 0 || recordNumber > 4) {
+            throw new IllegalArgumentException("index " + recordNumber + " is illegal");
+        }
+        this.page = page;
+        this.offset = 1 + recordNumber * RECORD_SIZE;
+        this.recordNumber = recordNumber;
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public int getRecordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+
+    @Override
+    public Date getTimestamp() {
+        return new Date(getTimestampMillis());
+    }
+
+    @Override
+    public double getOutsideTemperature() {
+        return parseTemperature(page, offset + 4);
+    }
+
+    @Override
+    public double getOutsideTemperatureHigh() {
+        return parseTemperature(page, offset + 6);
+    }
+
+    @Override
+    public double getOutsideTemperatureLow() {
+        return parseTemperature(page, offset + 8);
+    }
+
+    @Override
+    public double getRainFall() {
+        return parseRain(page, offset + 10);
+    }
+
+    @Override
+    public double getRainRateHigh() {
+        return parseRain(page, offset + 12);
+    }
+
+    @Override
+    public int getBarometer() {
+        return parseBarometer(page, offset + 14);
+    }
+
+    @Override
+    public int getSolarRadiation() {
+        final int solar = parseWord(page, offset + 16);
+        return solar == 32767 ? 0 : solar;
+    }
+
+    @Override
+    public double getInsideTemperature() {
+        return parseTemperature(page, offset + 20);
+    }
+
+    @Override
+    public int getInsideHumidity() {
+        return parseHumidity(page, offset + 22);
+    }
+
+    @Override
+    public int getOutsideHumidity() {
+        return parseHumidity(page, offset + 23);
+    }
+
+    @Override
+    public double getWindSpeedAvg() {
+        return parseWindSpeed(page, offset + 24);
+    }
+
+    @Override
+    public double getWindSpeedHigh() {
+        return parseWindSpeed(page, offset + 25);
+    }
+
+    @Override
+    public int getWindDirection() {
+        return page[offset + 27];
+    }
+
+    @Override
+    public double getUvIndex() {
+        final int uv = page[offset + 28];
+        return uv == -1 ? 0 : uv / 10.0;
+    }
+
+    @Override
+    public int getExtraHumidity1() {
+        return parseHumidity(page, offset + 43);
+    }
+
+    @Override
+    public int getExtraHumidity2() {
+        return parseHumidity(page, offset + 44);
+    }
+
+    @Override
+    public double getExtraTemperature1() {
+        return parseExtraTemperature(page, offset + 45);
+    }
+
+    @Override
+    public double getExtraTemperature2() {
+        return parseExtraTemperature(page, offset + 46);
+    }
+
+    @Override
+    public double getExtraTemperature3() {
+        return parseExtraTemperature(page, offset + 47);
+    }
+
+    @Override
+    public ArchiveRecord toArchiveRecord() {
+        final ArchiveRecord rec = new ArchiveRecord();
+        rec.setRecordNumber(getRecordNumber());
+        rec.setTimestamp(getTimestamp());
+        rec.setOutsideTemperature(getOutsideTemperature());
+        rec.setOutsideTemperatureHigh(getOutsideTemperatureHigh());
+        rec.setOutsideTemperatureLow(getOutsideTemperatureLow());
+        rec.setRainFall(getRainFall());
+        rec.setRainRateHigh(getRainRateHigh());
+        rec.setBarometer(getBarometer());
+        rec.setSolarRadiation(getSolarRadiation());
+        rec.setInsideTemperature(getInsideTemperature());
+        rec.setInsideHumidity(getInsideHumidity());
+        rec.setOutsideHumidity(getOutsideHumidity());
+        rec.setWindSpeedAvg(getWindSpeedAvg());
+        rec.setWindSpeedHigh(getWindSpeedHigh());
+        rec.setWindDirection(getWindDirection());
+        rec.setUvIndex(getUvIndex());
+        rec.setExtraTemperature1(getExtraTemperature1());
+        rec.setExtraTemperature2(getExtraTemperature2());
+        rec.setExtraTemperature3(getExtraTemperature3());
+        rec.setExtraHumidity1(getExtraHumidity1());
+        rec.setExtraHumidity2(getExtraHumidity2());
+        return rec;
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Archive record view is read-only");
+    }
+
+    @Override
+    public void setRecordNumber(int recordNumber) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setTimestamp(Date timestamp) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setOutsideTemperature(double outsideTemperature) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setBarometer(int barometer) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setOutsideTemperatureHigh(double outsideTemperatureHigh) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setOutsideTemperatureLow(double outsideTemperatureLow) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setInsideHumidity(int insideHumidity) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setExtraHumidity1(int extraHumidity1) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setExtraHumidity2(int extraHumidity2) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setInsideTemperature(double insideTemperature) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setExtraTemperature1(double extraTemperature1) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setExtraTemperature2(double extraTemperature2) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setExtraTemperature3(double extraTemperature3) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setRainFall(double rainFall) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setRainRateHigh(double rainRateHigh) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setOutsideHumidity(int outsideHumidity) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setSolarRadiation(int solarRadiation) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setUvIndex(double uvIndex) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setWindDirection(int windDirection) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setWindSpeedAvg(double windSpeedAvg) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setWindSpeedHigh(double windSpeedHigh) {
+        throw readOnly();
+    }
+}
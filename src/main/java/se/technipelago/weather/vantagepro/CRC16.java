@@ -16,7 +16,14 @@
  */
 package se.technipelago.weather.vantagepro;
 
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
 /**
+ * CRC-CCITT (polynomial 0x1021, initial value 0) as used by the Davis Vantage Pro protocol.
+ * <p>
+ * Bulk updates use slicing-by-8: eight lookup tables let the CRC advance eight bytes per step.
+ * A buffer followed by its own CRC gives a CRC of zero.
  *
  * @author goran
  */
@@ -57,40 +64,106 @@ public class CRC16 {
         0xef1f, 0xff3e, 0xcf5d, 0xdf7c, 0xaf9b, 0xbfba, 0x8fd9, 0x9ff8, // 0xF0
         0x6e17, 0x7e36, 0x4e55, 0x5e74, 0x2e93, 0x3eb2, 0x0ed1, 0x1ef0  // 0xF8
     };
+
+    /**
+     * SLICES[k * 256 + b] is the CRC of byte b followed by k zero bytes. SLICES[b] is TABLE[b].
+     */
+    private static final int[] SLICES = new int[8 * 256];
+
+    static {
+        System.arraycopy(TABLE, 0, SLICES, 0, 256);
+        for (int i = 256; i < SLICES.length; i++) {
+            final int prev = SLICES[i - 256];
+            SLICES[i] = (TABLE[prev >>> 8] ^ (prev << 8)) & 0xffff;
+        }
+    }
+
     private int work;
 
-    public static byte[] calculate(byte[] data) {
-        CRC16 instance = new CRC16();
-        for (int i = 0; i < data.length; i++) {
-            instance.add(data[i]);
+    /**
+     * Update a CRC with bytes from an array.
+     *
+     * @param crc    current CRC, 0 to start a new calculation
+     * @param buf    data
+     * @param offset first byte
+     * @param length number of bytes
+     * @return the updated CRC
+     */
+    public static int update(int crc, byte[] buf, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, buf.length);
+        int i = offset;
+        final int end = offset + length;
+        for (final int last = end - 8; i <= last; i += 8) {
+            crc = SLICES[7 * 256 + ((buf[i] ^ (crc >>> 8)) & 0xff)]
+                    ^ SLICES[6 * 256 + ((buf[i + 1] ^ crc) & 0xff)]
+                    ^ SLICES[5 * 256 + (buf[i + 2] & 0xff)]
+                    ^ SLICES[4 * 256 + (buf[i + 3] & 0xff)]
+                    ^ SLICES[3 * 256 + (buf[i + 4] & 0xff)]
+                    ^ SLICES[2 * 256 + (buf[i + 5] & 0xff)]
+                    ^ SLICES[256 + (buf[i + 6] & 0xff)]
+                    ^ SLICES[buf[i + 7] & 0xff];
         }
-        return instance.getCrc();
+        for (; i < end; i++) {
+            crc = (TABLE[(buf[i] ^ (crc >>> 8)) & 0xff] ^ (crc << 8)) & 0xffff;
+        }
+        return crc;
+    }
+
+    /**
+     * Update a CRC with the remaining bytes in a buffer. The buffer position is advanced to its limit.
+     *
+     * @param crc current CRC, 0 to start a new calculation
+     * @param buf data
+     * @return the updated CRC
+     */
+    public static int update(int crc, ByteBuffer buf) {
+        final int pos = buf.position();
+        final int limit = buf.limit();
+        if (buf.hasArray()) {
+            crc = update(crc, buf.array(), buf.arrayOffset() + pos, limit - pos);
+        } else {
+            int i = pos;
+            for (final int last = limit - 8; i <= last; i += 8) {
+                crc = SLICES[7 * 256 + ((buf.get(i) ^ (crc >>> 8)) & 0xff)]
+                        ^ SLICES[6 * 256 + ((buf.get(i + 1) ^ crc) & 0xff)]
+                        ^ SLICES[5 * 256 + (buf.get(i + 2) & 0xff)]
+                        ^ SLICES[4 * 256 + (buf.get(i + 3) & 0xff)]
+                        ^ SLICES[3 * 256 + (buf.get(i + 4) & 0xff)]
+                        ^ SLICES[2 * 256 + (buf.get(i + 5) & 0xff)]
+                        ^ SLICES[256 + (buf.get(i + 6) & 0xff)]
+                        ^ SLICES[buf.get(i + 7) & 0xff];
+            }
+            for (; i < limit; i++) {
+                crc = (TABLE[(buf.get(i) ^ (crc >>> 8)) & 0xff] ^ (crc << 8)) & 0xffff;
+            }
+        }
+        buf.position(limit);
+        return crc;
+    }
+
+    /**
+     * Return a CRC as the two bytes sent on the wire, high byte first.
+     */
+    public static byte[] toBytes(int crc) {
+        return new byte[]{(byte) (crc >>> 8 & 0xff), (byte) (crc & 0xff)};
+    }
+
+    public static byte[] calculate(byte[] data) {
+        return toBytes(update(0, data, 0, data.length));
     }
 
     public static boolean check(byte[] data, int offset, int length) {
         if ((offset + length) > data.length) {
             throw new IllegalArgumentException("Invalid offset of length");
         }
-        CRC16 instance = new CRC16();
-        for (int i = offset; i < (offset + length); i++) {
-            instance.add(data[i]);
-        }
-
-        return instance.isValid();
+        return update(0, data, offset, length) == 0;
     }
 
     public static boolean check(byte[] data, byte[] crc) {
         if (crc.length != 2) {
             throw new IllegalArgumentException("Invalid CRC length (must be 2 bytes)");
         }
-        CRC16 instance = new CRC16();
-        for (int i = 0; i < data.length; i++) {
-            instance.add(data[i]);
-        }
-        instance.add(crc[0]);
-        instance.add(crc[1]);
-
-        return instance.isValid();
+        return update(update(0, data, 0, data.length), crc, 0, 2) == 0;
     }
 
     public void add(byte b) {
@@ -98,17 +171,20 @@ public class CRC16 {
     }
 
     public void add(byte[] b) {
-        for(int i = 0; i < b.length; i++) {
-            add(b[i]);
-        }
+        add(b, 0, b.length);
+    }
+
+    public void add(byte[] b, int offset, int length) {
+        work = update(work, b, offset, length);
     }
-    
+
+
     public boolean isValid() {
         return work == 0;
     }
 
     public byte[] getCrc() {
-        return new byte[]{(byte) (work >>> 8 & 0xff), (byte) (work & 0xff)};
+        return toBytes(work);
     }
 
     public void reset() {
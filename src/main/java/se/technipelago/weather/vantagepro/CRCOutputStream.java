@@ -52,9 +52,7 @@ public class CRCOutputStream extends OutputStream {
     @Override
     public void write(byte[] buf, int offset, int length) throws IOException {
         out.write(buf, offset, length);
-        for (int n = offset; n < offset + length; n++) {
-            crc.add(buf[n]);
-        }
+        crc.add(buf, offset, length);
     }
 
     public void writeCRC() throws IOException {
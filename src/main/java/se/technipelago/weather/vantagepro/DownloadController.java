@@ -16,6 +16,7 @@
  */
 package se.technipelago.weather.vantagepro;
 
+import se.technipelago.weather.CollectionSchedule;
 import se.technipelago.weather.WeatherUtils;
 import se.technipelago.weather.archive.ArchivePage;
 import se.technipelago.weather.archive.ArchiveRecord;
@@ -26,6 +27,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
 
 /**
  * @author Goran Ehrsson <goran@technipelago.se>
@@ -34,15 +38,40 @@ public class DownloadController extends AbstractDavisController {
 
     private static final String COLLECTOR_PROPERTIES = "collector.properties";
 
+    private static final long RETRY_DELAY = 30000L;
+    private static final int LOOP_PACKETS = 200;
+    private static final int DOWNLOAD_QUEUE = 8;
+    private static final int CHECKPOINT_PAGES = 1;
+
     private boolean test;
+    private boolean daemon;
+    private volatile boolean running;
+    private Properties properties;
+    private final SubmissionPublisher<CurrentRecord> publisher = new SubmissionPublisher<>();
+    private final Object storeLock = new Object();
+    private int checkpointPages = CHECKPOINT_PAGES;
+    private long resumeTime;
+    private long progress;
+    private long checkpoint;
+    private int pagesSinceCheckpoint;
 
     @Override
     public void start(String[] args) {
         try {
             final List<String> arguments = new ArrayList<>(Arrays.asList(args));
-            if (!arguments.isEmpty() && "--test".equals(arguments.get(0))) {
-                this.test = true;
-                arguments.remove(0);
+            while (!arguments.isEmpty() && arguments.get(0).startsWith("--")) {
+                final String option = arguments.remove(0);
+                if ("--test".equals(option)) {
+                    this.test = true;
+                } else if ("--daemon".equals(option)) {
+                    this.daemon = true;
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            }
+            if (daemon && !test) {
+                runDaemon(arguments);
+                return;
             }
             String firstArg = arguments.isEmpty() ? "localhost" : arguments.get(0);
             if (firstArg.indexOf('/') != -1) {
@@ -66,7 +95,7 @@ public class DownloadController extends AbstractDavisController {
             } else {
                 execute();
             }
-            sleep(3000);
+            sleep(getHandshakeProfile().getFinishDelay());
         } catch (IOException ex) {
             log.error("Download failed", ex);
         } finally {
@@ -74,16 +103,113 @@ public class DownloadController extends AbstractDavisController {
         }
     }
 
+    /**
+     * Keep data stores and the station connection open and collect data on a schedule until stopped.
+     * The connection is only re-opened after a failure.
+     *
+     * @param args connection arguments
+     */
+    protected void runDaemon(List<String> args) {
+        init();
+        final CollectionSchedule schedule = CollectionSchedule.fromProperties(properties);
+        final Thread worker = Thread.currentThread();
+        final Thread shutdownHook = new Thread(() -> {
+            stop();
+            worker.interrupt();
+            try {
+                worker.join(RETRY_DELAY);
+            } catch (InterruptedException e) {
+                // Ignore.
+            }
+        }, "collector-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        final boolean stream = Boolean.parseBoolean(properties.getProperty("loop.stream"));
+        final int packets = WeatherUtils.getInt(properties, "loop.packets", LOOP_PACKETS);
+        if (stream) {
+            // Data stores get live values, the lock keeps them out of the way of the archive download.
+            publisher.consume(this::updateCurrentValues);
+        }
+
+        log.info("Collector started, running every {} minutes", schedule.getInterval() / 60000);
+        running = true;
+        long retryDelay = RETRY_DELAY;
+        try {
+            while (running) {
+                try {
+                    openConnection(args);
+                    while (running) {
+                        synchronized (storeLock) {
+                            execute();
+                        }
+                        retryDelay = RETRY_DELAY;
+                        if (stream) {
+                            streamLoop(packets, schedule.next(System.currentTimeMillis()), publisher);
+                        } else {
+                            schedule.await();
+                        }
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    // One failed cycle must not stop the collector.
+                    log.error("Collection failed, reconnecting in {} seconds", retryDelay / 1000, ex);
+                } finally {
+                    closeConnection();
+                }
+                if (running) {
+                    Thread.sleep(retryDelay);
+                    retryDelay = Math.min(retryDelay * 2, schedule.getInterval());
+                }
+            }
+        } catch (InterruptedException ex) {
+            log.debug("Collector interrupted");
+        } finally {
+            running = false;
+            publisher.close();
+            synchronized (storeLock) {
+                cleanup();
+            }
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ex) {
+                // Already shutting down.
+            }
+            log.info("Collector stopped");
+        }
+    }
+
+    /**
+     * Stop a running daemon after the current cycle.
+     */
+    public void stop() {
+        running = false;
+        publisher.close();
+    }
+
+    /**
+     * Receive live values while the daemon is streaming LOOP packets (<code>loop.stream=true</code>).
+     * Records are delivered on a separate thread, a slow subscriber misses records but never holds up the station.
+     *
+     * @param subscriber the subscriber
+     */
+    public void subscribe(Flow.Subscriber<? super CurrentRecord> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
     public void init() {
-        initDataStores(WeatherUtils.loadProperties(COLLECTOR_PROPERTIES));
+        final Properties prop = WeatherUtils.loadProperties(COLLECTOR_PROPERTIES);
+        this.properties = prop;
+        setHandshakeProfile(HandshakeProfile.forName(prop.getProperty("station.profile")));
+        setPageRetries(WeatherUtils.getInt(properties, "download.retries", PAGE_RETRIES));
+        this.checkpointPages = Math.max(1, WeatherUtils.getInt(properties, "download.checkpoint", CHECKPOINT_PAGES));
+        initDataStores(prop);
     }
 
     public void execute() throws IOException {
         byte[] buf;
 
-        // Send wakeup command.
+        // Send wakeup command. A station that does not answer is reconnected by the daemon.
         if (!wakeup()) {
-            return;
+            throw new IOException("No response from station");
         }
 
         log.debug("Connected to weather station");
@@ -117,54 +243,135 @@ public class DownloadController extends AbstractDavisController {
         }
     }
 
+    /**
+     * Download new archive records and save them while the download is running.
+     * <p>
+     * The status is updated every <code>download.checkpoint</code> pages and when the download ends, also when it fails.
+     * The next download then only requests records after the last saved one.
+     */
     private void downloadAndSave() throws IOException {
         Date lastTime = getStatusDataStore().getLastRecordTime();
-        long highTime = 0L;
-        ArchivePage[] pages = download(lastTime);
-        if (pages.length == 0) {
+        if (lastTime == null) {
+            throw new IOException("Status data store did not return the last record time");
+        }
+        resumeTime = lastTime.getTime();
+        progress = resumeTime;
+        checkpoint = resumeTime;
+        pagesSinceCheckpoint = 0;
+        forEachDataStore(store -> {
+            try {
+                store.beginDownload();
+            } catch (IOException ex) {
+                log.error("Failed to start download in data store", ex);
+            }
+        });
+        final ArchivePipeline pipeline = new ArchivePipeline(WeatherUtils.getInt(properties, "download.queue", DOWNLOAD_QUEUE), this::persistPage);
+        final int pages;
+        try {
+            pages = download(lastTime, pipeline);
+        } catch (IOException | RuntimeException e) {
+            // Save the pages received before the failure and record how far we got.
+            try {
+                finishDownload(pipeline);
+            } catch (IOException | RuntimeException f) {
+                e.addSuppressed(f);
+            }
+            throw e;
+        }
+        finishDownload(pipeline);
+        if (pages == 0) {
             log.warn("No data downloaded");
             return;
         }
-        for (ArchivePage p : pages) {
-            Date d = savePage(p);
-            long l = d.getTime();
-            if (l > highTime) {
-                highTime = l;
+        log.debug("Last recorded time was {}", new Date(progress));
+        logDataStoreLag();
+    }
+
+    /**
+     * Wait until the pipeline has saved all pages, end the download in all data stores and save progress,
+     * also when saving failed. Progress is only saved after the writer thread has stopped.
+     */
+    private void finishDownload(ArchivePipeline pipeline) throws IOException {
+        boolean written = false;
+        try {
+            written = pipeline.finish() > 0;
+        } finally {
+            if (pipeline.isRunning()) {
+                // The writer still owns the progress, the next download starts from the last checkpoint.
+                log.error("Archive writer did not stop, download status not updated");
+            } else {
+                endDownload();
+                checkpoint(written);
             }
         }
-        Date last = new Date(highTime);
-        log.debug("Last recorded time was {}", last);
-        saveStatus(last);
     }
 
-    private Date savePage(ArchivePage p) {
+    private void endDownload() {
+        forEachDataStore(store -> {
+            try {
+                store.endDownload();
+            } catch (IOException ex) {
+                log.error("Failed to end download in data store", ex);
+            }
+        });
+    }
+
+    /**
+     * Save a page. Called on the pipeline writer thread.
+     */
+    private void persistPage(ArchivePage p) throws IOException {
+        // Records in the last page may be older than the ones before, progress never moves back.
+        progress = Math.max(progress, savePage(p));
+        if (++pagesSinceCheckpoint >= checkpointPages) {
+            checkpoint(false);
+        }
+    }
+
+    /**
+     * Save progress in the status data store.
+     *
+     * @param force update the status even if no new records were saved, to record the download time
+     */
+    private void checkpoint(boolean force) {
+        pagesSinceCheckpoint = 0;
+        if (progress > checkpoint || (force && progress > 0)) {
+            checkpoint = progress;
+            saveStatus(new Date(progress));
+        }
+    }
+
+    /**
+     * Save the records in a page that are newer than the last record saved by a previous download.
+     * The first page of a download also holds older records.
+     *
+     * @return time of the newest record saved, or 0 if no record was saved
+     * @throws IOException if the status data store failed, the download stops and progress stays before this page
+     */
+    private long savePage(ArchivePage p) throws IOException {
         log.debug("Saving page {}", p.getPageNumber());
+        final List<ArchiveRecord> records = new ArrayList<>(5);
         long highTime = 0;
         for (int i = 0; i < 5; i++) {
             ArchiveRecord rec = p.getRecord(i);
-            try {
-                if (validate(rec)) {
-                    saveRecord(rec);
-                    Date d = rec.getTimestamp();
-                    long l = d.getTime();
-                    if (l > highTime) {
-                        highTime = l;
-                    }
-                } else {
-                    log.warn("Invalid record: {}", rec);
-                }
-            } catch (IOException e) {
-                log.warn("Failed to save record: {}", rec, e);
+            if (rec.getTimestampMillis() <= resumeTime) {
+                continue;
+            }
+            if (validate(rec)) {
+                records.add(rec);
+                highTime = Math.max(highTime, rec.getTimestampMillis());
+            } else {
+                log.warn("Invalid record: {}", rec);
             }
         }
-        return new Date(highTime);
+        saveRecords(records);
+        return highTime;
     }
 
     private boolean validate(ArchiveRecord rec) {
         if (rec.getBarometer() < 500) {
             return false;
         }
-        return new Date().after(rec.getTimestamp());
+        return rec.getTimestampMillis() < System.currentTimeMillis();
     }
 
     private void saveStatus(Date lastRecord) {
@@ -176,15 +383,19 @@ public class DownloadController extends AbstractDavisController {
     }
 
     private void saveCurrentValues() throws IOException {
-        final CurrentRecord current = loop();
+        updateCurrentValues(loop());
+    }
 
-        forEachDataStore(store -> {
-            try {
-                store.updateCurrent(current);
-            } catch (IOException ex) {
-                log.error("Failed to update data store", ex);
-            }
-        });
+    private void updateCurrentValues(CurrentRecord current) {
+        synchronized (storeLock) {
+            forEachDataStore(store -> {
+                try {
+                    store.updateCurrent(current);
+                } catch (IOException ex) {
+                    log.error("Failed to update data store", ex);
+                }
+            });
+        }
     }
 
 
@@ -24,7 +24,8 @@ package se.technipelago.weather.vantagepro;
  */
 public class ForecastRules {
 
-    private static final String[] FORECAST_RULE = new String[197];
+    static final int RULES = 197;
+    private static final String[] FORECAST_RULE = new String[RULES];
 
     static {
         FORECAST_RULE[  0] = "Mostly clear and cooler.";
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2006 Goran Ehrsson.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package se.technipelago.weather.vantagepro;
+
+/**
+ * Timing used when talking to the console.
+ * <p>
+ * With the fast profile a command returns as soon as the expected response has arrived.
+ * The conservative profile adds the fixed delays that earlier versions always used,
+ * for old consoles that need extra time between commands.
+ *
+ * @author Goran Ehrsson <goran@technipelago.se>
+ */
+public enum HandshakeProfile {
+
+    FAST(0, 0, 0, 0, 0),
+    CONSERVATIVE(500, 250, 2000, 3000, 3000);
+
+    /**
+     * The console should answer a wakeup within 1.2 seconds.
+     */
+    public static final long WAKEUP_TIMEOUT = 1200;
+
+    private final long commandDelay;
+    private final long responseDelay;
+    private final long wakeupDelay;
+    private final long settleDelay;
+    private final long finishDelay;
+
+    HandshakeProfile(long commandDelay, long responseDelay, long wakeupDelay, long settleDelay, long finishDelay) {
+        this.commandDelay = commandDelay;
+        this.responseDelay = responseDelay;
+        this.wakeupDelay = wakeupDelay;
+        this.settleDelay = settleDelay;
+        this.finishDelay = finishDelay;
+    }
+
+    /**
+     * Return the profile with the given name (case insensitive), or FAST if name is empty.
+     *
+     * @param name profile name
+     * @return the handshake profile
+     */
+    public static HandshakeProfile forName(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return FAST;
+        }
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * Milliseconds to wait after a command, a binary frame or an ACK/NAK has been sent.
+     */
+    public long getCommandDelay() {
+        return commandDelay;
+    }
+
+    /**
+     * Milliseconds to wait before reading an expected response.
+     */
+    public long getResponseDelay() {
+        return responseDelay;
+    }
+
+    /**
+     * Milliseconds to wait after each wakeup attempt.
+     */
+    public long getWakeupDelay() {
+        return wakeupDelay;
+    }
+
+    /**
+     * Milliseconds to let the console settle after it has changed its configuration.
+     */
+    public long getSettleDelay() {
+        return settleDelay;
+    }
+
+    /**
+     * Milliseconds to wait before the connection is closed.
+     */
+    public long getFinishDelay() {
+        return finishDelay;
+    }
+}
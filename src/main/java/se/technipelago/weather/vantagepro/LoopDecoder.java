@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2006 Goran Ehrsson.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package se.technipelago.weather.vantagepro;
+
+import se.technipelago.weather.archive.CurrentRecord;
+
+import java.io.IOException;
+
+import static se.technipelago.weather.vantagepro.VantageUtil.fahrenheit2celcius;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseBarometer;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseExtraTemperature;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseHumidity;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseRain;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseSignedWord;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseTemperature;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseWindSpeed;
+import static se.technipelago.weather.vantagepro.VantageUtil.parseWord;
+
+/**
+ * Decodes LOOP and LOOP2 packets into a {@link CurrentRecord}.
+ * <p>
+ * The decoder writes into the record it is given and does not allocate anything, so the same record
+ * can be reused for every packet. Fields that are only sent in the other packet type are left unchanged,
+ * which means a record that receives both LOOP and LOOP2 packets always has the latest value of every field.
+ *
+ * @author Goran Ehrsson <goran@technipelago.se>
+ */
+public final class LoopDecoder {
+
+    public static final int PACKET_TYPE_LOOP = 0;
+    public static final int PACKET_TYPE_LOOP2 = 1;
+
+    private LoopDecoder() {
+    }
+
+    /**
+     * Decode a LOOP or LOOP2 packet.
+     *
+     * @param buf the 99 byte packet
+     * @param rec the record to update
+     * @throws IOException if the packet is not a LOOP packet
+     */
+    public static void decode(byte[] buf, CurrentRecord rec) throws IOException {
+        if (buf[0] != 'L' || buf[1] != 'O' || buf[2] != 'O') {
+            throw new IOException("Invalid LOOP packet");
+        }
+        // Rev A consoles send 'P' instead of the barometer trend in LOOP packets.
+        final int barTrend = buf[3];
+        rec.setBarometerTrend(barTrend == 'P' ? CurrentRecord.BAROMETER_TREND_STEADY : barTrend);
+        rec.setTimestampMillis(System.currentTimeMillis());
+        rec.setBarometer(parseBarometer(buf, 7));
+        rec.setInsideTemperature(parseTemperature(buf, 9));
+        rec.setInsideHumidity(parseHumidity(buf, 11));
+        rec.setOutsideTemperature(parseTemperature(buf, 12));
+        rec.setWindSpeed(parseWindSpeed(buf, 14));
+        rec.setWindDirection(parseWord(buf, 16));
+        rec.setOutsideHumidity(parseHumidity(buf, 33));
+        rec.setRainRate(parseRain(buf, 41));
+        final int uv = buf[43] & 0xff;
+        rec.setUvIndex(uv == 255 ? 0 : uv / 10.0);
+        final int solar = parseWord(buf, 44);
+        rec.setSolarRadiation(solar == 32767 ? 0 : solar);
+        rec.setRainDay(parseRain(buf, 50));
+
+        if (buf[4] == PACKET_TYPE_LOOP2) {
+            decodeLoop2(buf, rec);
+        } else {
+            decodeLoop(buf, rec);
+        }
+    }
+
+    private static void decodeLoop(byte[] buf, CurrentRecord rec) {
+        rec.setWindSpeedAvg(parseWindSpeed(buf, 15));
+        rec.setExtraTemperature1(parseExtraTemperature(buf, 18));
+        rec.setExtraTemperature2(parseExtraTemperature(buf, 19));
+        rec.setExtraTemperature3(parseExtraTemperature(buf, 20));
+        rec.setExtraHumidity1(parseHumidity(buf, 34));
+        rec.setExtraHumidity2(parseHumidity(buf, 35));
+        // My guess is that the battery status will switch from zero to one
+        // when there is a low-battery situation in the transmitter.
+        rec.setTransmitterBatteryStatus(buf[86] & 0xff);
+        rec.setConsoleBatteryVolt(((parseWord(buf, 87) * 300) / 512) / 100.0);
+        rec.setForecastIconMask(buf[89]);
+        final int rule = buf[90] & 0xff;
+        rec.setForecastMessage(rule < ForecastRules.RULES ? ForecastRules.getText(rule) : null);
+        rec.setSunriseTime(parseWord(buf, 91));
+        rec.setSunsetTime(parseWord(buf, 93));
+    }
+
+    private static void decodeLoop2(byte[] buf, CurrentRecord rec) {
+        final int avg = parseWord(buf, 18);
+        rec.setWindSpeedAvg(avg == 32767 ? 0 : avg * 0.045);
+        final int gust = parseWord(buf, 22);
+        rec.setWindGust(gust == 32767 ? 0 : gust * 0.45);
+        rec.setDewPoint(parseDegrees(buf, 30));
+        rec.setHeatIndex(parseDegrees(buf, 35));
+        rec.setWindChill(parseDegrees(buf, 37));
+    }
+
+    /**
+     * LOOP2 sends derived temperatures in whole degrees Fahrenheit.
+     */
+    private static double parseDegrees(byte[] buf, int offset) {
+        final int f = parseSignedWord(buf, offset);
+        if (f == 255 || f == 32767) {
+            return 0.0;
+        }
+        return fahrenheit2celcius(f);
+    }
+}
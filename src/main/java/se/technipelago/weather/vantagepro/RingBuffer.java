@@ -1,52 +1,208 @@
 package se.technipelago.weather.vantagepro;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 /**
+ * A single-producer/single-consumer byte ring buffer.
+ * <p>
+ * The producer (the serial port event thread) and the consumer (the protocol thread)
+ * never share a lock. Indices are monotonic counters published through volatile fields,
+ * and a consumer that runs out of data parks until the producer unparks it or the
+ * read timeout expires.
+ * <p>
+ * If the producer gets more than {@link #getCapacity()} bytes ahead of the consumer
+ * the surplus bytes are dropped and the next read fails with an {@link IOException}.
+ * <p>
  * Created by goran on 15-06-12.
  */
 public class RingBuffer {
 
-    private static final int BUFFER_SIZE = 2048;
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_TIMEOUT = 3600;
+
+    private final byte[] buffer;
+    private final int mask;
+    private volatile long readIndex = 0;
+    private volatile long writeIndex = 0;
+    private volatile boolean overrun;
+    private volatile Thread waiter;
+    private volatile long timeout;
+
+    public RingBuffer() {
+        this(DEFAULT_CAPACITY, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Create a new ring buffer.
+     *
+     * @param capacity minimum number of bytes the buffer can hold, rounded up to a power of two
+     * @param timeout  number of milliseconds a read waits for data before it gives up
+     */
+    public RingBuffer(int capacity, long timeout) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+        setTimeout(timeout);
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
 
-    private int[] buffer = new int[BUFFER_SIZE];
-    private int readIndex = 0;
-    private int writeIndex = 0;
+    /**
+     * Set the number of milliseconds a read waits for data.
+     *
+     * @param timeout timeout in milliseconds, zero means do not wait at all
+     */
+    public void setTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeout);
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * Return the number of bytes that can be read without blocking.
+     */
+    public int available() {
+        return (int) (writeIndex - readIndex);
+    }
 
     public void write(int b) {
-        buffer[writeIndex++ % BUFFER_SIZE] = b;
+        final long w = writeIndex;
+        if (w - readIndex >= buffer.length) {
+            overrun = true;
+            return;
+        }
+        buffer[(int) w & mask] = (byte) b;
+        writeIndex = w + 1;
+        signal();
     }
 
     public void write(int[] b) {
-        for (int i = 0; i < b.length; i++) {
-            write(b[i]);
+        final long w = writeIndex;
+        final int n = Math.min(b.length, buffer.length - (int) (w - readIndex));
+        for (int i = 0; i < n; i++) {
+            buffer[(int) (w + i) & mask] = (byte) b[i];
+        }
+        if (n < b.length) {
+            overrun = true;
         }
+        writeIndex = w + n;
+        signal();
     }
 
-    public int read() {
-        for (int i = 0; i < 3; i++) {
-            if (readIndex < writeIndex) {
-                return buffer[readIndex++ % BUFFER_SIZE];
-            } else {
-                // Data not ready yet, wait a while.
-                try {
-                    Thread.sleep(1200);
-                } catch (InterruptedException e) {
-                    // Ignore.
-                }
-            }
+    public void write(byte[] b, int off, int len) {
+        final long w = writeIndex;
+        final int n = Math.min(len, buffer.length - (int) (w - readIndex));
+        final int pos = (int) w & mask;
+        final int first = Math.min(n, buffer.length - pos);
+        System.arraycopy(b, off, buffer, pos, first);
+        System.arraycopy(b, off + first, buffer, 0, n - first);
+        if (n < len) {
+            overrun = true;
         }
-        return -1;
+        writeIndex = w + n;
+        signal();
     }
 
-    public int[] read(int len) {
-        int[] b = new int[len];
-        for (int i = 0; i < len; i++) {
-            b[i] = read();
+    /**
+     * Read one byte.
+     *
+     * @return the byte as an int in the range 0-255, or -1 if no data arrived within the timeout
+     * @throws IOException if the producer has overrun the buffer
+     */
+    public int read() throws IOException {
+        if (!await()) {
+            return -1;
         }
+        final long r = readIndex;
+        final int b = buffer[(int) r & mask] & 0xff;
+        readIndex = r + 1;
         return b;
     }
 
+    /**
+     * Read up to <code>len</code> bytes. This method blocks until at least one byte is available.
+     *
+     * @return the number of bytes read, or -1 if no data arrived within the timeout
+     * @throws IOException if the producer has overrun the buffer
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!await()) {
+            return -1;
+        }
+        final long r = readIndex;
+        final int n = Math.min(len, (int) (writeIndex - r));
+        final int pos = (int) r & mask;
+        final int first = Math.min(n, buffer.length - pos);
+        System.arraycopy(buffer, pos, b, off, first);
+        System.arraycopy(buffer, 0, b, off + first, n - first);
+        readIndex = r + n;
+        return n;
+    }
+
+    /**
+     * Discard all unread bytes and reset the overrun flag. Must be called from the consumer thread.
+     */
     public void clear() {
-        readIndex = 0;
-        writeIndex = 0;
+        readIndex = writeIndex;
+        overrun = false;
+    }
+
+    /**
+     * Wait for data.
+     *
+     * @return true if data is available, false if the timeout expired
+     */
+    private boolean await() throws IOException {
+        checkOverrun();
+        if (writeIndex != readIndex) {
+            return true;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        waiter = Thread.currentThread();
+        try {
+            while (writeIndex == readIndex) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waiter = null;
+        }
+        checkOverrun();
+        return true;
+    }
+
+    private void checkOverrun() throws IOException {
+        if (overrun) {
+            clear();
+            throw new IOException("Serial input buffer overrun, " + buffer.length + " bytes exceeded");
+        }
+    }
+
+    private void signal() {
+        final Thread t = waiter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
     }
 }
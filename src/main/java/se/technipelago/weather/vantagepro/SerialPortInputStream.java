@@ -19,6 +19,19 @@ public class SerialPortInputStream extends InputStream {
         return buffer.read();
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        return buffer.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer.available();
+    }
+
     @Override
     public void close() throws IOException {
         buffer.clear();
@@ -5,8 +5,14 @@ import jssc.SerialPortException;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
+ * Buffered output stream to a serial port.
+ * <p>
+ * Bytes are collected until {@link #flush()} is called, so a frame that is written in several
+ * parts goes out to the port in one <code>writeBytes</code> call.
+ * <p>
  * Created by goran on 15-06-12.
  */
 public class SerialPortOutputStream extends OutputStream {
@@ -14,63 +20,106 @@ public class SerialPortOutputStream extends OutputStream {
     private static final byte[] QUIT = "quit".getBytes();//new byte[]{'q', 'u', 'i', 't'};
     private static final byte[] KILL = "kill".getBytes(); //new byte[]{'k', 'i', 'l', 'l'};
 
+    private static final int BUFFER_SIZE = 512;
+
     private SerialPort serialPort;
+    private final byte[] buffer;
+    private int count;
 
     public SerialPortOutputStream(SerialPort serialPort) {
+        this(serialPort, BUFFER_SIZE);
+    }
+
+    public SerialPortOutputStream(SerialPort serialPort, int bufferSize) {
         this.serialPort = serialPort;
+        this.buffer = new byte[bufferSize];
     }
 
     @Override
     public void write(int b) throws IOException {
-        try {
-            serialPort.writeByte((byte) (b & 0xff));
-        } catch (SerialPortException e) {
-            throw new IOException("Failed to write to serial port", e);
+        if (count == buffer.length) {
+            flushBuffer();
         }
+        buffer[count++] = (byte) b;
     }
 
     @Override
     public void write(byte[] b) throws IOException {
-        if(compareBytes(b, QUIT) || compareBytes(b, KILL)) {
-            close();
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len >= buffer.length) {
+            // Larger than the buffer, send it right away.
+            flushBuffer();
+            writePort(off == 0 && len == b.length ? b : Arrays.copyOfRange(b, off, off + len));
             return;
         }
+        if (len > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
 
-        try {
-            serialPort.writeBytes(b);
-        } catch (SerialPortException e) {
-            throw new IOException("Failed to write to serial port", e);
+    /**
+     * Send a text command to the station.
+     * The commands "quit" and "kill" are not sent, they close the serial port instead.
+     *
+     * @param command the command bytes
+     * @throws IOException if the command cannot be sent
+     */
+    public void writeCommand(byte[] command) throws IOException {
+        if (compareBytes(command, QUIT) || compareBytes(command, KILL)) {
+            close();
+            return;
         }
+        write(command, 0, command.length);
+        flush();
     }
 
     @Override
-    public void write(byte[] b, int off, int len) throws IOException {
-        int i = off;
-        while (len-- > 0) {
-            write(b[i++]);
-        }
+    public void flush() throws IOException {
+        flushBuffer();
     }
 
     @Override
     public void close() throws IOException {
         if(serialPort != null) {
             try {
-                serialPort.closePort();
-                serialPort = null;
-            } catch (SerialPortException e) {
-                throw new IOException("Failed to close serial port", e);
+                flushBuffer();
+            } finally {
+                try {
+                    serialPort.closePort();
+                    serialPort = null;
+                } catch (SerialPortException e) {
+                    throw new IOException("Failed to close serial port", e);
+                }
             }
         }
         super.close();
     }
 
-    @Override
-    public void flush() throws IOException {
-        super.flush();
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            final byte[] bytes = count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+            count = 0;
+            writePort(bytes);
+        }
+    }
+
+    private void writePort(byte[] bytes) throws IOException {
+        if (serialPort == null) {
+            throw new IOException("Serial port is closed");
+        }
         try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            // Ignore.
+            serialPort.writeBytes(bytes);
+        } catch (SerialPortException e) {
+            throw new IOException("Failed to write to serial port", e);
         }
     }
 
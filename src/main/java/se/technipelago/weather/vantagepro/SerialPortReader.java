@@ -21,9 +21,10 @@ public class SerialPortReader implements SerialPortEventListener {
         if (event.isRXCHAR()) {
             int len = event.getEventValue();
             try {
-                int buf[] = serialPort.readIntArray(len);
-                for(int i = 0; i < len; i++) {
-                    buffer.write(buf[i]);
+                // jssc cannot read into a caller supplied buffer, readBytes() is the cheapest call it offers.
+                byte[] buf = serialPort.readBytes(len);
+                if (buf != null) {
+                    buffer.write(buf, 0, buf.length);
                 }
             } catch (SerialPortException ex) {
                 System.out.println(ex);
@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2006 Goran Ehrsson.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package se.technipelago.weather.vantagepro;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Converts the local date and time values sent by the console to milliseconds since epoch.
+ * <p>
+ * Time zone rules are looked up once per day and cached, so decoding a page of records from the same day
+ * is plain arithmetic. Local times that fall in a daylight saving gap are moved forward by the length of
+ * the gap. Local times that occur twice when clocks are set back are resolved with the earlier offset.
+ * Archive records are stored in time order, so {@link #decodeArchive(byte[], int)} and
+ * {@link #toEpochMillis(long, long)} use the later offset when the earlier one would put the record before
+ * the previous one they decoded: a record at 02:10 that follows one at 02:50 belongs to the second 02:10.
+ * {@link #decodeTime(byte[], int)} and {@link #decodeHourMinute(int, long)} decode single values and neither
+ * use nor change that order.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author Goran Ehrsson <goran@technipelago.se>
+ */
+public class TimestampCodec {
+
+    private static final int SECONDS_PER_DAY = 86400;
+    private static final int MAX_OFFSET = 18 * 3600;
+
+    private final ZoneRules rules;
+
+    private int cachedDateWord = -1;
+    private long cachedDateDay;
+
+    private long day = Long.MIN_VALUE;
+    private long midnight;
+    private int offsetBefore;
+    private int offsetAfter;
+    private long transition = Long.MAX_VALUE;
+
+    private long last = Long.MIN_VALUE;
+
+    public TimestampCodec() {
+        this(ZoneId.systemDefault());
+    }
+
+    public TimestampCodec(ZoneId zone) {
+        this.rules = zone.getRules();
+    }
+
+    /**
+     * Decode an archive record timestamp: a packed date word followed by a time word (hour * 100 + minute).
+     *
+     * @param buf    station data
+     * @param offset where the date word begins
+     * @return milliseconds since epoch
+     */
+    public long decodeArchive(byte[] buf, int offset) {
+        final int date = VantageUtil.parseWord(buf, offset);
+        final int time = VantageUtil.parseWord(buf, offset + 2);
+        if (date != cachedDateWord) {
+            // Out of range values roll over to the next month/day, like a lenient Calendar.
+            cachedDateDay = epochDay(((date >>> 9) & 0x7f) + 2000, (date >>> 5) & 0x0f, date & 0x1f);
+            cachedDateWord = date;
+        }
+        return toEpochMillis(cachedDateDay, ((time / 100) * 60 + time % 100) * 60);
+    }
+
+    /**
+     * Decode the six byte time sent by GETTIME and SETTIME: seconds, minutes, hour, day, month, year - 1900.
+     *
+     * @param buf    station data
+     * @param offset where the time begins
+     * @return milliseconds since epoch
+     */
+    public long decodeTime(byte[] buf, int offset) {
+        final long epochDay = epochDay(buf[offset + 5] + 1900, buf[offset + 4], buf[offset + 3]);
+        return resolve(epochDay, buf[offset + 2] * 3600 + buf[offset + 1] * 60 + buf[offset], Long.MIN_VALUE) * 1000;
+    }
+
+    /**
+     * Return a time of day (hour * 100 + minute) on the same day as <code>reference</code>.
+     *
+     * @param hourMinute time of day
+     * @param reference  milliseconds since epoch
+     * @return milliseconds since epoch
+     */
+    public long decodeHourMinute(int hourMinute, long reference) {
+        final Instant instant = Instant.ofEpochMilli(reference);
+        final long epochDay = Math.floorDiv(instant.getEpochSecond() + rules.getOffset(instant).getTotalSeconds(), SECONDS_PER_DAY);
+        return resolve(epochDay, ((hourMinute / 100) * 60 + hourMinute % 100) * 60, Long.MIN_VALUE) * 1000;
+    }
+
+    /**
+     * Convert a local date and time to milliseconds since epoch.
+     *
+     * @param year   year
+     * @param month  month, 1-12
+     * @param day    day of month
+     * @param hour   hour of day
+     * @param minute minute
+     * @return milliseconds since epoch
+     */
+    public long toEpochMillis(int year, int month, int day, int hour, int minute) {
+        return toEpochMillis(epochDay(year, month, day), (hour * 60 + minute) * 60);
+    }
+
+    /**
+     * Convert a local date and time to milliseconds since epoch.
+     *
+     * @param epochDay    local date as days since 1970-01-01
+     * @param secondOfDay seconds since local midnight, values outside the day roll over to the next/previous day
+     * @return milliseconds since epoch
+     */
+    public long toEpochMillis(long epochDay, long secondOfDay) {
+        last = resolve(epochDay, secondOfDay, last) * 1000;
+        return last;
+    }
+
+    /**
+     * Convert a local date and time to seconds since epoch, using the later offset in an overlap if the earlier
+     * one would be before <code>after</code>.
+     */
+    private long resolve(long epochDay, long secondOfDay, long after) {
+        epochDay += Math.floorDiv(secondOfDay, SECONDS_PER_DAY);
+        secondOfDay = Math.floorMod(secondOfDay, SECONDS_PER_DAY);
+        if (epochDay != day) {
+            loadDay(epochDay);
+        }
+        final long local = midnight + secondOfDay;
+        long epochSecond;
+        if (local < transition + Math.min(offsetBefore, offsetAfter)) {
+            epochSecond = local - offsetBefore;
+        } else if (local >= transition + Math.max(offsetBefore, offsetAfter)) {
+            epochSecond = local - offsetAfter;
+        } else if (offsetAfter > offsetBefore) {
+            // In the gap, move forward.
+            epochSecond = local - offsetBefore;
+        } else {
+            // In the overlap, use the earlier instant unless we have already passed it.
+            epochSecond = local - offsetBefore;
+            if (epochSecond * 1000 < after) {
+                epochSecond = local - offsetAfter;
+            }
+        }
+        return epochSecond;
+    }
+
+    private void loadDay(long epochDay) {
+        final long start = epochDay * SECONDS_PER_DAY;
+        // Local midnight is at most 18 hours from UTC midnight, start before that and skip transitions
+        // that are completed before midnight.
+        final Instant probe = Instant.ofEpochSecond(start - MAX_OFFSET);
+        int before = rules.getOffset(probe).getTotalSeconds();
+        ZoneOffsetTransition next = rules.nextTransition(probe);
+        while (next != null && next.toEpochSecond() + Math.max(before, next.getOffsetAfter().getTotalSeconds()) <= start) {
+            before = next.getOffsetAfter().getTotalSeconds();
+            next = rules.nextTransition(next.getInstant());
+        }
+        this.day = epochDay;
+        this.midnight = start;
+        this.offsetBefore = before;
+        if (next != null && next.toEpochSecond() + Math.min(before, next.getOffsetAfter().getTotalSeconds()) < start + SECONDS_PER_DAY) {
+            this.offsetAfter = next.getOffsetAfter().getTotalSeconds();
+            this.transition = next.toEpochSecond();
+        } else {
+            this.offsetAfter = before;
+            this.transition = Long.MAX_VALUE - SECONDS_PER_DAY;
+        }
+    }
+
+    private static long epochDay(int year, int month, int day) {
+        return LocalDate.of(year, 1, 1).plusMonths(month - 1).plusDays(day - 1).toEpochDay();
+    }
+}
@@ -30,6 +30,11 @@ public class VantageUtil {
 
     private static final int BUF_LENGTH = 256;
 
+    /**
+     * Only used for single values, which do not depend on earlier values decoded, so the codec is just a cache.
+     */
+    private static final ThreadLocal<TimestampCodec> CODEC = ThreadLocal.withInitial(TimestampCodec::new);
+
     private VantageUtil() {
     }
 
@@ -145,15 +150,7 @@ public class VantageUtil {
      * @return the date in Java format.
      */
     public static Date getTime(byte[] buf, int offset) {
-        Calendar cal = Calendar.getInstance();
-        cal.clear();
-        cal.set(Calendar.SECOND, (int) buf[offset + 0]);
-        cal.set(Calendar.MINUTE, (int) buf[offset + 1]);
-        cal.set(Calendar.HOUR_OF_DAY, (int) buf[offset + 2]);
-        cal.set(Calendar.DAY_OF_MONTH, (int) buf[offset + 3]);
-        cal.set(Calendar.MONTH, (int) buf[offset + 4] - 1);
-        cal.set(Calendar.YEAR, (int) buf[offset + 5] + 1900);
-        return cal.getTime();
+        return new Date(CODEC.get().decodeTime(buf, offset));
     }
 
     /**
@@ -268,4 +265,94 @@ public class VantageUtil {
     public static byte[] getRain(double mm) {
         return getBytes((int) (mm * 5.0));
     }
+
+    /**
+     * Parse an unsigned two-byte value, least significant byte first.
+     * @param buf the station data
+     * @param offset where the value begins
+     * @return the value
+     */
+    public static int parseWord(byte[] buf, int offset) {
+        return (buf[offset + 1] & 0xff) << 8 | (buf[offset] & 0xff);
+    }
+
+    /**
+     * Parse a signed two-byte value, least significant byte first.
+     * @param buf the station data
+     * @param offset where the value begins
+     * @return the value
+     */
+    public static int parseSignedWord(byte[] buf, int offset) {
+        return buf[offset + 1] << 8 | (buf[offset] & 0xff);
+    }
+
+    /**
+     * Parse temperature in tenths of a degree Fahrenheit.
+     * @param buf the station data
+     * @param offset where the value begins
+     * @return degrees Celcius, or 0 if the sensor has no data.
+     */
+    public static double parseTemperature(byte[] buf, int offset) {
+        int f = parseSignedWord(buf, offset);
+        if (f == 32767) {
+            return 0.0;
+        }
+        return fahrenheit2celcius(f / 10.0);
+    }
+
+    /**
+     * Parse a one-byte extra temperature, stored as degrees Fahrenheit + 90.
+     * @param buf the station data
+     * @param offset where the value begins
+     * @return degrees Celcius, or 0 if the sensor has no data.
+     */
+    public static double parseExtraTemperature(byte[] buf, int offset) {
+        int f = buf[offset] & 0xff;
+        if (f == 255) {
+            return 0.0;
+        }
+        return fahrenheit2celcius(f - 90.0);
+    }
+
+    /**
+     * Parse rain as number of 0.2 mm rain clicks.
+     * @param buf the station data
+     * @param offset where the value begins
+     * @return millimeter rain.
+     */
+    public static double parseRain(byte[] buf, int offset) {
+        return parseWord(buf, offset) / 5.0;
+    }
+
+    /**
+     * Parse barometer in thousandths of an inch Hg.
+     * @param buf the station data
+     * @param offset where the value begins
+     * @return the pressure as millibar.
+     */
+    public static int parseBarometer(byte[] buf, int offset) {
+        return inchHg2millibar(parseWord(buf, offset) / 1000.0);
+    }
+
+    /**
+     * Parse a one-byte wind speed in miles per hour.
+     * @param buf the station data
+     * @param offset where the value begins
+     * @return meter per second, or 0 if the sensor has no data.
+     */
+    public static double parseWindSpeed(byte[] buf, int offset) {
+        int mph = buf[offset];
+        return mph != -1 ? mph * 0.45 : 0;
+    }
+
+    /**
+     * Parse a one-byte humidity value.
+     * @param buf the station data
+     * @param offset where the value begins
+     * @return relative humidity in percent, or 0 if the sensor has no data.
+     */
+    public static int parseHumidity(byte[] buf, int offset) {
+        int humidity = buf[offset];
+        return humidity == -1 ? 0 : humidity;
+    }
 }
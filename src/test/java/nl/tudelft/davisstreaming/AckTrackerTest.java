@@ -0,0 +1,96 @@
+package nl.tudelft.davisstreaming;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AckTrackerTest {
+
+    private final List<CompletableFuture<Object>> acks = new ArrayList<>();
+
+    private void send(AckTracker tracker, long time) throws IOException {
+        tracker.send(time, () -> {
+            CompletableFuture<Object> ack = new CompletableFuture<>();
+            acks.add(ack);
+            return ack;
+        });
+    }
+
+    @Test
+    public void checkpointAfterContiguousAcks() throws Exception {
+        AckTracker tracker = new AckTracker(10);
+        send(tracker, 100);
+        send(tracker, 200);
+        send(tracker, 300);
+        assertEquals(-1, tracker.getCheckpoint(300));
+
+        acks.get(0).complete("1");
+        acks.get(2).complete("3");
+        assertEquals(100, tracker.getCheckpoint(300));
+        assertEquals(1, tracker.getPending());
+
+        acks.get(1).complete("2");
+        assertTrue(tracker.await(1000));
+        assertEquals(300, tracker.getCheckpoint(300));
+    }
+
+    @Test
+    public void stopAtFailure() throws Exception {
+        AckTracker tracker = new AckTracker(10);
+        send(tracker, 100);
+        send(tracker, 200);
+        send(tracker, 300);
+        acks.get(0).complete("1");
+        acks.get(1).completeExceptionally(new IllegalStateException("Send timeout"));
+        acks.get(2).complete("3");
+
+        assertNotNull(tracker.getFailure());
+        assertEquals(100, tracker.getCheckpoint(300));
+        // Nothing is sent after a failure, the next download starts from the checkpoint.
+        assertThrows(IOException.class, () -> send(tracker, 400));
+        assertEquals(3, acks.size());
+
+        tracker.reset();
+        send(tracker, 200);
+        acks.get(3).complete("4");
+        assertEquals(200, tracker.getCheckpoint(200));
+    }
+
+    @Test
+    public void blockWhenWindowIsFull() throws Exception {
+        AckTracker tracker = new AckTracker(2);
+        send(tracker, 100);
+        send(tracker, 200);
+        CountDownLatch sent = new CountDownLatch(1);
+        Thread sender = new Thread(() -> {
+            try {
+                tracker.send(300, () -> {
+                    sent.countDown();
+                    return CompletableFuture.completedFuture("3");
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        sender.start();
+        assertFalse(sent.await(200, TimeUnit.MILLISECONDS));
+
+        acks.get(0).complete("1");
+        assertTrue(sent.await(1, TimeUnit.SECONDS));
+        sender.join();
+        acks.get(1).complete("2");
+        assertTrue(tracker.await(1000));
+        assertEquals(300, tracker.getCheckpoint(300));
+    }
+}
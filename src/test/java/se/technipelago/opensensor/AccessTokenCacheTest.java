@@ -0,0 +1,62 @@
+package se.technipelago.opensensor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.technipelago.weather.datastore.remote.HttpClientFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class AccessTokenCacheTest {
+
+    private HttpServer server;
+    private final AtomicInteger issued = new AtomicInteger();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/oauth/token", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = ("{\"access_token\":\"token" + issued.incrementAndGet()
+                    + "\",\"token_type\":\"bearer\",\"expires_in\":1}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void refreshBeforeExpiry() throws Exception {
+        URI tokenUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/oauth/token");
+        try (CloseableHttpClient client = HttpClientFactory.create(new Properties());
+             AccessTokenCache tokens = new AccessTokenCache(client, new ObjectMapper(),
+                     tokenUri, "user", "pass", "client", "secret")) {
+            assertEquals("token1", tokens.getToken());
+            assertEquals("token1", tokens.getToken());
+            // Refreshed in the background after 80% of the lifetime.
+            Thread.sleep(900);
+            assertNotEquals("token1", tokens.getToken());
+            assertEquals(2, issued.get());
+        }
+    }
+}
@@ -1,13 +1,187 @@
 package se.technipelago.opensensor;
 
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import se.technipelago.weather.archive.ArchiveRecord;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static se.technipelago.weather.TestRecords.record;
+import static se.technipelago.weather.TestRecords.records;
 
 public class OpenSensorTests {
 
+    private HttpServer server;
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final Set<String> failing = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger issued = new AtomicInteger();
+    private final Set<String> revoked = ConcurrentHashMap.newKeySet();
+    private final List<String> accepted = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/oauth/token", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = ("{\"access_token\":\"token" + issued.incrementAndGet()
+                    + "\",\"expires_in\":3600}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/api/data", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String token = exchange.getRequestHeaders().getFirst("Authorization").substring("Bearer ".length());
+            if (revoked.contains(token)) {
+                exchange.sendResponseHeaders(401, -1);
+            } else if (failing.stream().anyMatch(sid -> body.contains("\"" + sid + "\""))) {
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                accepted.add(token);
+                bodies.add(body);
+                exchange.sendResponseHeaders(204, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private Properties properties() {
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        Properties prop = new Properties();
+        prop.setProperty("url", baseUrl + "/api/data");
+        prop.setProperty("accessTokenUri", baseUrl + "/oauth/token");
+        prop.setProperty("collector.values", "outsideTemperature, barometer");
+        prop.setProperty("collector.outsideTemperature.sid", "temp");
+        prop.setProperty("collector.barometer.sid", "baro");
+        return prop;
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void onePayloadPerSid() throws Exception {
+        OpenSensorDataStore ds = new OpenSensorDataStore();
+        ds.init(properties());
+        try {
+            assertEquals(50, ds.insertBatch(records(0, 50)));
+        } finally {
+            ds.cleanup();
+        }
+        assertEquals(2, bodies.size());
+        for (String body : bodies) {
+            assertEquals(50, count(body, "\"timestamp\""));
+        }
+    }
+
+    @Test
+    public void unknownProbe() {
+        Properties prop = properties();
+        prop.setProperty("collector.values", "outsideTemp");
+        prop.setProperty("collector.outsideTemp.sid", "temp");
+        assertThrows(IllegalArgumentException.class, () -> new OpenSensorDataStore().init(prop));
+    }
+
+    @Test
+    public void retryFailedSid() throws Exception {
+        OpenSensorDataStore ds = new OpenSensorDataStore();
+        ds.init(properties());
+        try {
+            failing.add("baro");
+            assertThrows(IOException.class, () -> ds.insertBatch(records(0, 10)));
+            assertEquals(1, bodies.size());
+            assertTrue(bodies.get(0).contains("\"temp\""));
+
+            // Only the failed sid is sent again, with the new records.
+            failing.clear();
+            ds.insertBatch(records(0, 12));
+            assertEquals(3, bodies.size());
+            assertEquals(2 + 12, count(bodies.get(1), "\"timestamp\"") + count(bodies.get(2), "\"timestamp\""));
+        } finally {
+            ds.cleanup();
+        }
+    }
+
+    @Test
+    public void sendOlderRecords() throws Exception {
+        OpenSensorDataStore ds = new OpenSensorDataStore();
+        ds.init(properties());
+        try {
+            failing.add("baro");
+            assertThrows(IOException.class, () -> ds.insertBatch(records(10, 20)));
+            failing.clear();
+            // A backfill of older records is not mistaken for a retry.
+            assertEquals(5, ds.insertBatch(records(0, 5)));
+            assertEquals(3, bodies.size());
+            assertEquals(5, count(bodies.get(1), "\"timestamp\""));
+            assertEquals(5, count(bodies.get(2), "\"timestamp\""));
+        } finally {
+            ds.cleanup();
+        }
+    }
+
+    @Test
+    public void shareToken() throws Exception {
+        Properties prop = properties();
+        prop.setProperty("collector.values", "outsideTemperature");
+        OpenSensorDataStore ds = new OpenSensorDataStore();
+        ds.init(prop);
+        try {
+            for (int i = 0; i < 5; i++) {
+                ds.insertData(record(i));
+            }
+        } finally {
+            ds.cleanup();
+        }
+        assertEquals(1, issued.get());
+        assertEquals(5, accepted.size());
+    }
+
+    @Test
+    public void retryUnauthorized() throws Exception {
+        Properties prop = properties();
+        prop.setProperty("collector.values", "outsideTemperature");
+        OpenSensorDataStore ds = new OpenSensorDataStore();
+        ds.init(prop);
+        try {
+            ds.insertData(record(0));
+            revoked.add("token1");
+            ds.insertData(record(1));
+            ds.insertData(record(2));
+        } finally {
+            ds.cleanup();
+        }
+        assertEquals(2, issued.get());
+        assertEquals(List.of("token1", "token2", "token2"), accepted);
+    }
+
     @Test
     public void testPayload() throws Exception {
         ArchiveRecord rec = new ArchiveRecord();
@@ -0,0 +1,56 @@
+package se.technipelago.weather;
+
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Archive records used in tests.
+ */
+public final class TestRecords {
+
+    /**
+     * Time of the first record, 2021-06-18T00:00:00Z.
+     */
+    public static final long START = 1623974400000L;
+
+    /**
+     * Archive interval between records.
+     */
+    public static final long INTERVAL = 600000L;
+
+    private TestRecords() {
+    }
+
+    /**
+     * Create the record at the given archive interval after {@link #START}.
+     *
+     * @param i interval number
+     * @return an archive record
+     */
+    public static ArchiveRecord record(int i) {
+        ArchiveRecord rec = new ArchiveRecord();
+        rec.setTimestamp(new Date(START + i * INTERVAL));
+        rec.setOutsideTemperature(15.5);
+        rec.setOutsideHumidity(65);
+        rec.setBarometer(1000 + i);
+        return rec;
+    }
+
+    /**
+     * Create the records from interval <code>from</code> (inclusive) to <code>to</code> (exclusive).
+     *
+     * @param from first interval number
+     * @param to   last interval number, exclusive
+     * @return archive records
+     */
+    public static List<ArchiveRecord> records(int from, int to) {
+        List<ArchiveRecord> records = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            records.add(record(i));
+        }
+        return records;
+    }
+}
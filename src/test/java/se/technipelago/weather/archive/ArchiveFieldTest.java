@@ -0,0 +1,38 @@
+package se.technipelago.weather.archive;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ArchiveFieldTest {
+
+    @Test
+    public void everyMeasuredValue() throws Exception {
+        ArchiveRecord rec = new ArchiveRecord();
+        int n = 1;
+        for (Field field : ArchiveRecord.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.getType() == Date.class || field.getName().equals("recordNumber")) {
+                continue;
+            }
+            field.setAccessible(true);
+            if (field.getType() == int.class) {
+                field.setInt(rec, n);
+            } else {
+                field.setDouble(rec, n + 0.5);
+            }
+            assertEquals(((Number) field.get(rec)).doubleValue(), ArchiveField.forName(field.getName()).getValue(rec), field.getName());
+            n++;
+        }
+        assertEquals(ArchiveField.values().length, n - 1);
+    }
+
+    @Test
+    public void unknownName() {
+        assertThrows(IllegalArgumentException.class, () -> ArchiveField.forName("outsideTemp"));
+    }
+}
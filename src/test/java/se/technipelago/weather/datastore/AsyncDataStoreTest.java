@@ -0,0 +1,149 @@
+package se.technipelago.weather.datastore;
+
+import org.junit.jupiter.api.Test;
+import se.technipelago.weather.TestDataStore;
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AsyncDataStoreTest {
+
+    /**
+     * Records saved records, waits for a latch before each save.
+     */
+    private static class SlowDataStore extends TestDataStore {
+        private final CountDownLatch latch;
+        private final List<Long> saved = new CopyOnWriteArrayList<>();
+
+        SlowDataStore(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public boolean insertData(ArchiveRecord rec) throws IOException {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            saved.add(rec.getTimestampMillis());
+            return true;
+        }
+    }
+
+    private static ArchiveRecord record(long ts) {
+        ArchiveRecord rec = new ArchiveRecord();
+        rec.setTimestamp(new Date(ts));
+        return rec;
+    }
+
+    @Test
+    public void slowStoreDoesNotBlockCaller() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        SlowDataStore slow = new SlowDataStore(latch);
+        AsyncDataStore store = new AsyncDataStore("slow", slow, new Properties());
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(store.insertData(record(i * 60000L)));
+        }
+        assertEquals(10, store.getPending());
+        assertTrue(slow.saved.isEmpty());
+        latch.countDown();
+        assertTrue(store.flush(TimeUnit.SECONDS.toMillis(5)));
+        assertEquals(10, store.getCompleted());
+        assertTrue(store.getMaxLag() >= store.getLastLag());
+        store.cleanup();
+    }
+
+    @Test
+    public void orderedWritesAndStatus() throws Exception {
+        SlowDataStore slow = new SlowDataStore(new CountDownLatch(0));
+        AsyncDataStore store = new AsyncDataStore("ordered", slow, new Properties());
+        store.insertBatch(Arrays.asList(record(3000), record(1000), record(2000)));
+        store.insertData(record(4000));
+        store.updateStatus(new Date(), new Date(4000));
+        // Waits for the queued writes.
+        assertEquals(new Date(4000), store.getLastRecordTime());
+        assertEquals(Arrays.asList(3000L, 1000L, 2000L, 4000L), slow.saved);
+        store.cleanup();
+    }
+
+    @Test
+    public void cleanupDrainsQueue() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        SlowDataStore slow = new SlowDataStore(latch);
+        Properties prop = new Properties();
+        prop.setProperty("async.ordered", "false");
+        prop.setProperty("async.workers", "3");
+        AsyncDataStore store = new AsyncDataStore("parallel", slow, prop);
+        for (int i = 1; i <= 6; i++) {
+            store.insertData(record(i * 1000L));
+        }
+        latch.countDown();
+        store.cleanup();
+        assertEquals(6, slow.saved.size());
+        assertThrows(IOException.class, () -> store.insertData(record(7000)));
+    }
+
+    @Test
+    public void cleanupWaitsPastDrainTimeout() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        SlowDataStore slow = new SlowDataStore(latch);
+        Properties prop = new Properties();
+        prop.setProperty("async.drain", "1");
+        AsyncDataStore store = new AsyncDataStore("stuck", slow, prop);
+        for (int i = 1; i <= 3; i++) {
+            store.insertData(record(i * 1000L));
+        }
+        Thread release = new Thread(() -> {
+            try {
+                Thread.sleep(1500);
+            } catch (InterruptedException e) {
+                // Release now.
+            }
+            latch.countDown();
+        });
+        release.start();
+        store.cleanup();
+        // Nothing queued is dropped.
+        assertEquals(3, slow.saved.size());
+    }
+
+    @Test
+    public void downloadEventsInOrder() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        TestDataStore delegate = new TestDataStore() {
+            @Override
+            public boolean insertData(ArchiveRecord rec) {
+                events.add("insert");
+                return true;
+            }
+
+            @Override
+            public void beginDownload() {
+                events.add("begin");
+            }
+
+            @Override
+            public void endDownload() {
+                events.add("end");
+            }
+        };
+        AsyncDataStore store = new AsyncDataStore("events", delegate, new Properties());
+        store.beginDownload();
+        store.insertData(record(1000));
+        store.endDownload();
+        store.cleanup();
+        assertEquals(Arrays.asList("begin", "insert", "end"), events);
+    }
+}
@@ -0,0 +1,181 @@
+package se.technipelago.weather.datastore.remote;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static se.technipelago.weather.TestRecords.record;
+
+public class RemoteDataStoreTest {
+
+    private HttpServer server;
+    private final Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private volatile boolean unavailable;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/weather", exchange -> {
+            if (unavailable) {
+                exchange.getRequestBody().readAllBytes();
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            // Each client port is one TCP connection.
+            clients.add(exchange.getRemoteAddress());
+            InputStream body = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = new GZIPInputStream(body);
+            }
+            try (InputStream in = body) {
+                bodies.add(new String(in.readAllBytes(), "UTF-8"));
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.createContext("/unavailable", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private Properties properties() {
+        Properties prop = new Properties();
+        prop.setProperty("url", "http://localhost:" + server.getAddress().getPort() + "/weather");
+        prop.setProperty("client.key", "key");
+        prop.setProperty("client.secret", "secret");
+        return prop;
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void reuseConnection() throws IOException {
+        RemoteDataStore store = new RemoteDataStore();
+        store.init(properties());
+        try {
+            for (int i = 0; i < 20; i++) {
+                store.insertData(record(i));
+            }
+        } finally {
+            store.cleanup();
+        }
+        assertEquals(20, bodies.size());
+        String body = bodies.get(0);
+        assertTrue(body.startsWith("{\"clientKey\":\"key\",\"clientSecret\":\"secret\",\"data\":["));
+        assertTrue(body.contains("{\"sid\":\"outsideTemperature\",\"timestamp\":\"2021-06-18T00:00:00Z\",\"value\":15.5}"));
+        assertTrue(body.contains("{\"sid\":\"outsideHumidity\",\"timestamp\":\"2021-06-18T00:00:00Z\",\"value\":65}"));
+        assertEquals(1, clients.size());
+    }
+
+    @Test
+    public void batchRecords() throws IOException {
+        Properties prop = properties();
+        prop.setProperty("batch.size", "100");
+        prop.setProperty("http.gzip", "true");
+        RemoteDataStore store = new RemoteDataStore();
+        store.init(prop);
+        try {
+            List<ArchiveRecord> records = new ArrayList<>();
+            for (int i = 0; i < 250; i++) {
+                records.add(record(i));
+            }
+            assertEquals(250, store.insertBatch(records));
+        } finally {
+            store.cleanup();
+        }
+        assertEquals(3, bodies.size());
+        assertEquals(100 * 14, count(bodies.get(0), "\"sid\""));
+        assertEquals(50 * 14, count(bodies.get(2), "\"sid\""));
+        assertEquals(1, count(bodies.get(0), "clientSecret"));
+    }
+
+    @Test
+    public void bufferSingleRecords() throws IOException {
+        Properties prop = properties();
+        prop.setProperty("batch.size", "5");
+        prop.setProperty("batch.window", "60000");
+        RemoteDataStore store = new RemoteDataStore();
+        store.init(prop);
+        try {
+            for (int i = 0; i < 7; i++) {
+                store.insertData(record(i));
+            }
+            assertEquals(1, bodies.size());
+        } finally {
+            store.cleanup();
+        }
+        // The last two records are sent by cleanup.
+        assertEquals(2, bodies.size());
+        assertEquals(2 * 14, count(bodies.get(1), "\"sid\""));
+    }
+
+    @Test
+    public void failOnErrorStatus() {
+        Properties prop = properties();
+        prop.setProperty("url", "http://localhost:" + server.getAddress().getPort() + "/unavailable");
+        RemoteDataStore store = new RemoteDataStore();
+        store.init(prop);
+        try {
+            assertThrows(IOException.class, () -> store.insertData(record(0)));
+            assertThrows(IOException.class, () -> store.insertBatch(List.of(record(1), record(2))));
+        } finally {
+            store.cleanup();
+        }
+    }
+
+    @Test
+    public void keepBufferedRecordsOnFailure() throws IOException {
+        Properties prop = properties();
+        prop.setProperty("batch.size", "5");
+        prop.setProperty("batch.window", "60000");
+        RemoteDataStore store = new RemoteDataStore();
+        store.init(prop);
+        try {
+            unavailable = true;
+            for (int i = 0; i < 4; i++) {
+                store.insertData(record(i));
+            }
+            assertThrows(IOException.class, () -> store.insertData(record(4)));
+            unavailable = false;
+            store.insertData(record(5));
+        } finally {
+            store.cleanup();
+        }
+        // Nothing is lost, the failed batch is sent before the record after it.
+        assertEquals(2, bodies.size());
+        assertEquals(5 * 14, count(bodies.get(0), "\"sid\""));
+        assertEquals(1 * 14, count(bodies.get(1), "\"sid\""));
+    }
+}
@@ -0,0 +1,150 @@
+package se.technipelago.weather.datastore.spool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.technipelago.weather.TestDataStore;
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpoolTest {
+
+    private static final int SEGMENT = 3 * Spool.ENTRY_SIZE;
+
+    @TempDir
+    Path dir;
+
+    private static ArchiveRecord record(int minutes) {
+        ArchiveRecord rec = new ArchiveRecord();
+        rec.setTimestamp(new Date(minutes * 60000L));
+        rec.setOutsideTemperature(minutes / 10.0);
+        rec.setBarometer(1000 + minutes);
+        rec.setWindDirection(minutes % 360);
+        return rec;
+    }
+
+    private static List<Long> times(List<ArchiveRecord> records) {
+        return records.stream().map(ArchiveRecord::getTimestampMillis).collect(Collectors.toList());
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".spool")).count();
+        }
+    }
+
+    @Test
+    public void appendAndReopen() throws IOException {
+        try (Spool spool = new Spool(dir, SEGMENT)) {
+            for (int i = 1; i <= 7; i++) {
+                spool.append(record(i));
+            }
+            assertEquals(3, segments());
+            List<ArchiveRecord> first = spool.peek(2);
+            assertEquals(60000L, first.get(0).getTimestampMillis());
+            assertEquals(0.2, first.get(1).getOutsideTemperature());
+            assertEquals(1002, first.get(1).getBarometer());
+            spool.remove(4);
+            assertEquals(2, segments());
+        }
+        try (Spool spool = new Spool(dir, SEGMENT)) {
+            assertEquals(3, spool.size());
+            // Records are read one segment at a time.
+            assertEquals(List.of(300000L, 360000L), times(spool.peek(10)));
+            spool.remove(2);
+            spool.append(record(8));
+            assertEquals(List.of(420000L, 480000L), times(spool.peek(10)));
+            spool.remove(2);
+            assertEquals(0, spool.size());
+            assertEquals(1, segments());
+        }
+    }
+
+    @Test
+    public void ignorePartlyWrittenRecord() throws IOException {
+        try (Spool spool = new Spool(dir, SEGMENT)) {
+            spool.append(record(1));
+            spool.append(record(2));
+        }
+        // Damage the second record, as if the program stopped while writing it.
+        try (FileChannel channel = FileChannel.open(dir.resolve(String.format("%016d.spool", 0)), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), Spool.ENTRY_SIZE + 20);
+        }
+        try (Spool spool = new Spool(dir, SEGMENT)) {
+            assertEquals(1, spool.size());
+            spool.append(record(3));
+            assertEquals(List.of(60000L, 180000L), times(spool.peek(10)));
+        }
+    }
+
+    @Test
+    public void retryFailedDelivery() throws Exception {
+        AtomicInteger failures = new AtomicInteger(2);
+        List<Long> delivered = new CopyOnWriteArrayList<>();
+        TestDataStore remote = new TestDataStore() {
+            @Override
+            public boolean insertData(ArchiveRecord rec) throws IOException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IOException("Service unavailable");
+                }
+                delivered.add(rec.getTimestampMillis());
+                return true;
+            }
+        };
+        Properties prop = new Properties();
+        prop.setProperty("spool.dir", dir.toString());
+        prop.setProperty("spool.retry", "10");
+        SpoolingDataStore store = new SpoolingDataStore("remote", remote, prop);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(store.insertData(record(i)));
+        }
+        store.cleanup();
+        assertEquals(List.of(60000L, 120000L, 180000L, 240000L, 300000L), delivered);
+        assertEquals(0, store.getBacklog());
+    }
+
+    @Test
+    public void skipCorruptSegment() throws Exception {
+        try (Spool spool = new Spool(dir, SEGMENT)) {
+            for (int i = 1; i <= 7; i++) {
+                spool.append(record(i));
+            }
+        }
+        // Damage the first record of the second segment.
+        try (FileChannel channel = FileChannel.open(dir.resolve(String.format("%016d.spool", 1)), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 20);
+        }
+        List<Long> delivered = new CopyOnWriteArrayList<>();
+        TestDataStore remote = new TestDataStore() {
+            @Override
+            public boolean insertData(ArchiveRecord rec) {
+                delivered.add(rec.getTimestampMillis());
+                return true;
+            }
+        };
+        Properties prop = new Properties();
+        prop.setProperty("spool.dir", dir.toString());
+        prop.setProperty("spool.segment", String.valueOf(SEGMENT));
+        SpoolingDataStore store = new SpoolingDataStore("remote", remote, prop);
+        store.cleanup();
+        // The damaged segment is skipped and kept, delivery goes on with the next one.
+        assertEquals(List.of(60000L, 120000L, 180000L, 420000L), delivered);
+        assertEquals(0, store.getBacklog());
+        assertTrue(Files.exists(dir.resolve(String.format("%016d.spool.corrupt", 1))));
+    }
+}
@@ -0,0 +1,55 @@
+package se.technipelago.weather.datastore.sql;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CheckpointStoreTest {
+
+    @Test
+    public void oneRowPerStore() throws SQLException {
+        String url = "jdbc:h2:mem:checkpoints";
+        CheckpointStore station1 = CheckpointStore.acquire(url, "station1", new Properties());
+        CheckpointStore station2 = CheckpointStore.acquire(url, "station2", new Properties());
+        try {
+            assertNull(station1.getLastRecord());
+            assertEquals(new Date(1000L), station1.update(new Date(), new Date(1000L)));
+            assertEquals(new Date(2000L), station2.update(new Date(), new Date(2000L)));
+            assertEquals(new Date(3000L), station1.update(new Date(), new Date(3000L)));
+
+            // Without a record time only the download time is saved.
+            assertEquals(new Date(2000L), station2.update(new Date(), null));
+            assertEquals(new Date(3000L), station1.getLastRecord());
+            assertEquals(new Date(2000L), station2.getLastRecord());
+        } finally {
+            station1.release();
+            station2.release();
+        }
+    }
+
+    @Test
+    public void startFromOldStatus() throws SQLException {
+        String url = "jdbc:h2:mem:oldstatus";
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE status (id int AUTO_INCREMENT, last_dl datetime NOT NULL, last_rec datetime NOT NULL, PRIMARY KEY (id))");
+            stmt.executeUpdate("INSERT INTO status (last_dl, last_rec) VALUES ('2021-06-18 12:00:00', '2021-06-18 11:50:00')");
+            CheckpointStore checkpoints = CheckpointStore.acquire(url, "station1", new Properties());
+            try {
+                Date lastRecord = checkpoints.getLastRecord();
+                assertEquals(java.sql.Timestamp.valueOf("2021-06-18 11:50:00"), lastRecord);
+                checkpoints.update(new Date(), null);
+                assertEquals(lastRecord, checkpoints.getLastRecord());
+            } finally {
+                checkpoints.release();
+            }
+        }
+    }
+}
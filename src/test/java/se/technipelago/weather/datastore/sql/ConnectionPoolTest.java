@@ -0,0 +1,90 @@
+package se.technipelago.weather.datastore.sql;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConnectionPoolTest {
+
+    private static final String URL = "jdbc:h2:mem:connectionpooltest";
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    public void setup() {
+        Properties prop = new Properties();
+        prop.setProperty("pool.size", "2");
+        prop.setProperty("pool.statements", "2");
+        pool = ConnectionPool.acquire(URL, prop);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        pool.release();
+    }
+
+    @Test
+    public void sharedByUrl() {
+        ConnectionPool other = ConnectionPool.acquire(URL, new Properties());
+        try {
+            assertSame(pool, other);
+        } finally {
+            other.release();
+        }
+    }
+
+    @Test
+    public void reuseConnectionAndStatements() throws SQLException {
+        PreparedStatement stmt = pool.execute(c -> c.prepare("SELECT 1"));
+        Connection conn = pool.execute(c -> {
+            assertSame(stmt, c.prepare("SELECT 1"));
+            return c.getConnection();
+        });
+        assertFalse(conn.isClosed());
+        assertFalse(stmt.isClosed());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedStatement() throws SQLException {
+        pool.execute(c -> {
+            PreparedStatement first = c.prepare("SELECT 1");
+            c.prepare("SELECT 2");
+            c.prepare("SELECT 3");
+            assertTrue(first.isClosed());
+            return null;
+        });
+    }
+
+    @Test
+    public void discardConnectionOnError() throws SQLException {
+        Connection conn = pool.execute(c -> c.getConnection());
+        assertThrows(SQLException.class, () -> pool.execute(c -> c.prepare("SELECT * FROM no_such_table")));
+        assertTrue(conn.isClosed());
+        assertNotSame(conn, pool.execute(c -> c.getConnection()));
+    }
+
+    @Test
+    public void reuseIdleConnections() throws SQLException {
+        Connection first;
+        Connection second;
+        try (ConnectionPool.PooledConnection a = pool.getConnection();
+             ConnectionPool.PooledConnection b = pool.getConnection()) {
+            first = a.getConnection();
+            second = b.getConnection();
+            assertNotSame(first, second);
+        }
+        Connection conn = pool.execute(c -> c.getConnection());
+        assertTrue(conn == first || conn == second);
+    }
+}
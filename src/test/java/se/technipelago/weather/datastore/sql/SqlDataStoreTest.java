@@ -0,0 +1,102 @@
+package se.technipelago.weather.datastore.sql;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static se.technipelago.weather.TestRecords.START;
+
+public class SqlDataStoreTest {
+
+    private static final String URL = "jdbc:h2:mem:sqldatastoretest";
+
+    private SqlDataStore store;
+
+    @BeforeEach
+    public void setup() {
+        Properties prop = new Properties();
+        prop.setProperty("url", URL);
+        prop.setProperty("batch.size", "5");
+        store = new SqlDataStore();
+        store.init(prop);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        store.cleanup();
+    }
+
+    private static ArchiveRecord record(int minutes) {
+        ArchiveRecord rec = new ArchiveRecord();
+        rec.setTimestamp(new Date(START + minutes * 60000L));
+        rec.setOutsideTemperature(15.0 + minutes / 10.0);
+        rec.setBarometer(1012);
+        return rec;
+    }
+
+    private static int count() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(URL);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM archive")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    public void insertBatch() throws Exception {
+        assertTrue(store.insertData(record(30)));
+        assertFalse(store.insertData(record(30)));
+
+        List<ArchiveRecord> records = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            records.add(record(i * 10));
+        }
+        // 12 records in three batches, the one at 00:30 is already saved.
+        assertEquals(11, store.insertBatch(records));
+        assertEquals(12, count());
+        // Nothing new the second time.
+        assertEquals(0, store.insertBatch(records));
+        assertEquals(12, count());
+        assertFalse(store.insertData(record(110)));
+    }
+
+    @Test
+    public void migrateExistingTable() throws Exception {
+        String url = "jdbc:h2:mem:sqldatastoremigration";
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE archive (id int NOT NULL AUTO_INCREMENT, ts datetime NOT NULL, temp_out float NULL,"
+                    + " temp_in float NULL, hum_out smallint NULL, hum_in smallint NULL, barometer int NULL, rain float NULL,"
+                    + " rain_rate float NULL, wind_avg float NULL, wind_dir smallint NULL, wind_high float NULL,"
+                    + " solar smallint NULL, uv float NULL, PRIMARY KEY (id))");
+            stmt.executeUpdate("INSERT INTO archive (ts, temp_out) VALUES ('2021-06-18 12:00:00', 1.0), ('2021-06-18 12:00:00', 2.0),"
+                    + " ('2021-06-18 12:10:00', 3.0)");
+
+            Properties prop = new Properties();
+            prop.setProperty("url", url);
+            SqlDataStore migrated = new SqlDataStore();
+            migrated.init(prop);
+            try (ResultSet rs = stmt.executeQuery("SELECT temp_out FROM archive ORDER BY ts")) {
+                assertTrue(rs.next());
+                assertEquals(1.0, rs.getDouble(1), 0.01);
+                assertTrue(rs.next());
+                assertFalse(rs.next());
+            }
+            migrated.cleanup();
+        }
+    }
+}
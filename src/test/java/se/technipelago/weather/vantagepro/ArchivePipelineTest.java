@@ -0,0 +1,103 @@
+package se.technipelago.weather.vantagepro;
+
+import org.junit.jupiter.api.Test;
+import se.technipelago.weather.archive.ArchivePage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ArchivePipelineTest {
+
+    private static ArchivePage page(int number) {
+        ArchivePage page = new ArchivePage();
+        page.setPageNumber(number);
+        return page;
+    }
+
+    @Test
+    public void writeInOrder() throws IOException {
+        List<Integer> written = new CopyOnWriteArrayList<>();
+        ArchivePipeline pipeline = new ArchivePipeline(2, p -> written.add(p.getPageNumber()));
+        for (int i = 0; i < 20; i++) {
+            pipeline.put(page(i));
+        }
+        assertEquals(20, pipeline.finish());
+        assertEquals(20, written.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, written.get(i));
+        }
+    }
+
+    @Test
+    public void blockWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ArchivePipeline pipeline = new ArchivePipeline(1, p -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        });
+        pipeline.put(page(0)); // Taken by the writer.
+        pipeline.put(page(1)); // Fills the queue.
+        CountDownLatch queued = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                pipeline.put(page(2));
+                queued.countDown();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        });
+        producer.start();
+        assertTrue(!queued.await(200, TimeUnit.MILLISECONDS), "put should wait for the writer");
+        release.countDown();
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        assertEquals(3, pipeline.finish());
+    }
+
+    @Test
+    public void writerFailure() {
+        ArchivePipeline pipeline = new ArchivePipeline(1, p -> {
+            throw new IOException("disk full");
+        });
+        IOException e = assertThrows(IOException.class, () -> {
+            for (int i = 0; i < 10; i++) {
+                pipeline.put(page(i));
+            }
+        });
+        assertEquals("disk full", e.getCause().getMessage());
+        assertThrows(IOException.class, pipeline::finish);
+    }
+
+    @Test
+    public void abortWaitsForWriter() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        List<Integer> written = new CopyOnWriteArrayList<>();
+        ArchivePipeline pipeline = new ArchivePipeline(4, p -> {
+            started.countDown();
+            // A store call that does not stop when interrupted.
+            long end = System.currentTimeMillis() + 300;
+            while (System.currentTimeMillis() < end) {
+                Thread.onSpinWait();
+            }
+            written.add(p.getPageNumber());
+        });
+        pipeline.put(page(0));
+        pipeline.put(page(1));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.abort());
+        assertFalse(pipeline.isRunning());
+        // The page being written is finished, the queued one is dropped.
+        assertEquals(List.of(0), written);
+        assertEquals(1, pipeline.finish());
+    }
+}
@@ -0,0 +1,77 @@
+package se.technipelago.weather.vantagepro;
+
+import org.junit.jupiter.api.Test;
+import se.technipelago.weather.archive.ArchiveRecord;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ArchiveRecordViewTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Stockholm");
+
+    private static ArchiveRecordView view(byte[] page, int index) {
+        return new ArchiveRecordView(page, index, new TimestampCodec(ZONE).decodeArchive(page, 1 + index * ArchiveRecordView.RECORD_SIZE));
+    }
+
+    private static byte[] page() {
+        byte[] page = new byte[267];
+        Arrays.fill(page, (byte) 0xff);
+        page[0] = 42;
+        int offset = 1 + 2 * ArchiveRecordView.RECORD_SIZE;
+        put(page, offset, 18 + 6 * 32 + 21 * 512); // 2021-06-18
+        put(page, offset + 2, 1430); // 14:30
+        System.arraycopy(VantageUtil.getTemperature(21.5), 0, page, offset + 4, 2);
+        put(page, offset + 10, 3); // 0.6 mm
+        put(page, offset + 14, 29880);
+        page[offset + 23] = 77;
+        page[offset + 27] = 4;
+        return page;
+    }
+
+    private static void put(byte[] page, int offset, int value) {
+        System.arraycopy(VantageUtil.getBytes(value), 0, page, offset, 2);
+    }
+
+    @Test
+    public void decodeRecord() {
+        ArchiveRecordView view = view(page(), 2);
+        long expected = LocalDateTime.of(2021, 6, 18, 14, 30).atZone(ZONE).toInstant().toEpochMilli();
+        assertEquals(expected, view.getTimestampMillis());
+        assertEquals(expected, view.getTimestamp().getTime());
+        assertEquals(2, view.getRecordNumber());
+        assertEquals(21.5, view.getOutsideTemperature(), 0.1);
+        assertEquals(0.6, view.getRainFall(), 0.01);
+        assertEquals(1012, view.getBarometer());
+        assertEquals(77, view.getOutsideHumidity());
+        assertEquals(0, view.getInsideHumidity());
+        assertEquals(4, view.getWindDirection());
+        assertEquals(0.0, view.getUvIndex(), 0.01);
+    }
+
+    @Test
+    public void materializeRecord() {
+        ArchiveRecordView view = view(page(), 2);
+        ArchiveRecord rec = view.toArchiveRecord();
+        assertNotSame(view, rec);
+        assertSame(rec, rec.toArchiveRecord());
+        assertEquals(view.getTimestampMillis(), rec.getTimestampMillis());
+        assertEquals(view.getOutsideTemperature(), rec.getOutsideTemperature(), 0.001);
+        assertEquals(view.getOutsideHumidity(), rec.getOutsideHumidity());
+        assertEquals(view.toString(), rec.toString());
+        rec.setBarometer(1000);
+        assertEquals(1000, rec.getBarometer());
+    }
+
+    @Test
+    public void viewIsReadOnly() {
+        ArchiveRecordView view = view(page(), 0);
+        assertThrows(UnsupportedOperationException.class, () -> view.setBarometer(1000));
+    }
+}
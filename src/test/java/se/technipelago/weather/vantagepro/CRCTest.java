@@ -5,7 +5,10 @@
 package se.technipelago.weather.vantagepro;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
@@ -114,4 +117,51 @@ public class CRCTest {
             assertTrue(data[i] == bytes[i], "Invalid byte at pos " + i);
         }
     }
+
+    @Test
+    public void updateMatchesBytewise() {
+        byte[] data = new byte[300];
+        new Random(42).nextBytes(data);
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length = 0; length <= data.length - offset; length++) {
+                CRC16 instance = new CRC16();
+                for (int i = offset; i < offset + length; i++) {
+                    instance.add(data[i]);
+                }
+                byte[] expected = instance.getCrc();
+                int crc = CRC16.update(0, data, offset, length);
+                assertEquals(expected[0], CRC16.toBytes(crc)[0], "offset " + offset + " length " + length);
+                assertEquals(expected[1], CRC16.toBytes(crc)[1], "offset " + offset + " length " + length);
+            }
+        }
+    }
+
+    @Test
+    public void updateByteBuffer() {
+        byte[] data = new byte[267];
+        new Random(7).nextBytes(data);
+        int expected = CRC16.update(0, data, 3, 250);
+
+        ByteBuffer heap = ByteBuffer.wrap(data, 3, 250);
+        assertEquals(expected, CRC16.update(0, heap));
+        assertEquals(253, heap.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).position(3).limit(253);
+        assertEquals(expected, CRC16.update(0, direct));
+        assertEquals(253, direct.position());
+
+        // Split updates give the same result.
+        assertEquals(expected, CRC16.update(CRC16.update(0, data, 3, 101), data, 104, 149));
+    }
+
+    @Test
+    public void pageWithCrcIsValid() {
+        byte[] page = new byte[267];
+        new Random(1).nextBytes(page);
+        byte[] crc = CRC16.toBytes(CRC16.update(0, page, 0, 265));
+        page[265] = crc[0];
+        page[266] = crc[1];
+        assertTrue(CRC16.check(page, 0, page.length), "CRC check failed");
+    }
 }
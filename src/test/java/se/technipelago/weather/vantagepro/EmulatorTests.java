@@ -4,30 +4,44 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import se.technipelago.weather.Controller;
+import se.technipelago.weather.TestDataStore;
+import se.technipelago.weather.archive.ArchivePage;
+import se.technipelago.weather.archive.ArchiveRecord;
+import se.technipelago.weather.archive.CurrentRecord;
 import se.technipelago.weather.datastore.DataStore;
 import se.technipelago.weather.emulator.EmulatorDownloadController;
 import se.technipelago.weather.emulator.Server;
+import se.technipelago.weather.emulator.vantagepro.Download;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class EmulatorTests {
 
-    private static Server server;
+    private static final Server server = new Server();
 
     @BeforeAll
     public static void startEmulator() {
-        new Thread(() -> {
-            server = new Server();
-            server.start(0);
-        }).start();
+        new Thread(() -> server.start(0)).start();
         // Wait for server to accept connections.
         try {
-            Thread.sleep(5000);
+            for (int i = 0; i < 500 && server.getPort() == 0; i++) {
+                Thread.sleep(10);
+            }
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -36,12 +50,6 @@ public class EmulatorTests {
     @AfterAll
     public static void stopEmulator() {
         Server.shutdown();
-        // Wait for server to close connections.
-        try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
     }
 
     @Test
@@ -59,4 +67,89 @@ public class EmulatorTests {
         Date lastRecordTime = test.getLastRecordTime();
         assertTrue(lastRecordTime.toInstant().isAfter(Instant.now().minus(1, ChronoUnit.HOURS)));
     }
+
+    @Test
+    public void streamLoopPackets() throws Exception {
+        DownloadController ctrl = new DownloadController();
+        ctrl.openConnection(Arrays.asList("localhost", String.valueOf(server.getPort())));
+        try {
+            List<CurrentRecord> received = new CopyOnWriteArrayList<>();
+            SubmissionPublisher<CurrentRecord> publisher = new SubmissionPublisher<>();
+            CompletableFuture<Void> done = publisher.consume(received::add);
+            // One packet per LOOP command, so the stream must be re-armed to get more than one.
+            int count = ctrl.streamLoop(1, System.currentTimeMillis() + 300, publisher);
+            publisher.close();
+            done.get(5, TimeUnit.SECONDS);
+            assertTrue(count > 1);
+            assertEquals(count, received.size());
+            assertEquals(65, received.get(0).getOutsideHumidity());
+            assertEquals(632, received.get(0).getSunriseTime());
+        } finally {
+            ctrl.writeString("QUIT\n");
+            ctrl.closeConnection();
+        }
+    }
+
+    @Test
+    public void retransmitCorruptPage() throws Exception {
+        DownloadController ctrl = new DownloadController();
+        ctrl.openConnection(Arrays.asList("localhost", String.valueOf(server.getPort())));
+        try {
+            assertTrue(ctrl.wakeup());
+            Download.setCorruptPages(1);
+            List<ArchivePage> pages = new CopyOnWriteArrayList<>();
+            ArchivePipeline pipeline = new ArchivePipeline(4, pages::add);
+            assertEquals(2, ctrl.download(Date.from(Instant.now().minus(1, ChronoUnit.DAYS)), pipeline));
+            assertEquals(2, pipeline.finish());
+            assertEquals(72, pages.get(0).getRecord(0).getOutsideHumidity());
+        } finally {
+            Download.setCorruptPages(0);
+            ctrl.writeString("QUIT\n");
+            ctrl.closeConnection();
+        }
+    }
+
+    @Test
+    public void resumeAfterFailedPage() throws Exception {
+        FailingDataStore store = new FailingDataStore();
+        DownloadController ctrl = new DownloadController() {
+            @Override
+            protected void initDataStores(Properties prop) {
+                addDataStore("test", store);
+                setStatusDataStore("test");
+            }
+        };
+        ctrl.init();
+        ctrl.openConnection(Arrays.asList("localhost", String.valueOf(server.getPort())));
+        try {
+            Date start = store.getLastRecordTime();
+            // The first page is saved, the second fails.
+            store.accept = 3;
+            assertThrows(IOException.class, ctrl::execute);
+            assertEquals(start, Download.getLastRequest());
+            Date saved = store.getLastRecordTime();
+            assertTrue(saved.after(start));
+            assertTrue(saved.before(new Date(start.getTime() + TimeUnit.HOURS.toMillis(2))));
+
+            store.accept = Integer.MAX_VALUE;
+            ctrl.execute();
+            assertEquals(saved, Download.getLastRequest());
+        } finally {
+            ctrl.writeString("QUIT\n");
+            ctrl.closeConnection();
+            ctrl.cleanup();
+        }
+    }
+
+    private static class FailingDataStore extends TestDataStore {
+        private volatile int accept;
+
+        @Override
+        public boolean insertData(ArchiveRecord rec) throws IOException {
+            if (accept-- <= 0) {
+                throw new IOException("Disk full");
+            }
+            return super.insertData(rec);
+        }
+    }
 }
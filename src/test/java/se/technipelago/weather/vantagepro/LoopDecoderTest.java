@@ -0,0 +1,108 @@
+package se.technipelago.weather.vantagepro;
+
+import org.junit.jupiter.api.Test;
+import se.technipelago.weather.archive.CurrentRecord;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LoopDecoderTest {
+
+    private static byte[] packet(int type) {
+        byte[] buf = new byte[99];
+        Arrays.fill(buf, (byte) 0xff);
+        buf[0] = 'L';
+        buf[1] = 'O';
+        buf[2] = 'O';
+        buf[3] = CurrentRecord.BAROMETER_TREND_FALLING_SLOWLY;
+        buf[4] = (byte) type;
+        put(buf, 7, 29880); // 29.880 inch Hg
+        put(buf, 9, 725); // 72.5 F
+        buf[11] = 38;
+        put(buf, 12, -40); // -4.0 F
+        buf[14] = 10; // mph
+        put(buf, 16, 270);
+        buf[33] = 91;
+        put(buf, 41, 10); // 10 clicks per hour
+        buf[43] = 35;
+        put(buf, 44, 512);
+        put(buf, 50, 6);
+        return buf;
+    }
+
+    private static void put(byte[] buf, int offset, int value) {
+        System.arraycopy(VantageUtil.getBytes(value), 0, buf, offset, 2);
+    }
+
+    @Test
+    public void decodeLoop() throws IOException {
+        byte[] buf = packet(LoopDecoder.PACKET_TYPE_LOOP);
+        buf[15] = 4;
+        buf[34] = 55;
+        buf[86] = 1;
+        buf[89] = 0x09;
+        buf[90] = 1;
+        put(buf, 91, 545);
+        put(buf, 93, 2131);
+
+        CurrentRecord rec = new CurrentRecord();
+        LoopDecoder.decode(buf, rec);
+
+        assertEquals(CurrentRecord.BAROMETER_TREND_FALLING_SLOWLY, rec.getBarometerTrend());
+        assertEquals(1012, rec.getBarometer());
+        assertEquals(22.5, rec.getInsideTemperature(), 0.01);
+        assertEquals(38, rec.getInsideHumidity());
+        assertEquals(-20.0, rec.getOutsideTemperature(), 0.01);
+        assertEquals(4.5, rec.getWindSpeed(), 0.01);
+        assertEquals(1.8, rec.getWindSpeedAvg(), 0.01);
+        assertEquals(270, rec.getWindDirection());
+        assertEquals(91, rec.getOutsideHumidity());
+        assertEquals(2.0, rec.getRainRate(), 0.01);
+        assertEquals(3.5, rec.getUvIndex(), 0.01);
+        assertEquals(512, rec.getSolarRadiation());
+        assertEquals(1.2, rec.getRainDay(), 0.01);
+        assertEquals(0.0, rec.getExtraTemperature1(), 0.01);
+        assertEquals(55, rec.getExtraHumidity1());
+        assertEquals(1, rec.getTransmitterBatteryStatus());
+        assertArrayEquals(new String[]{CurrentRecord.FORECAST_ICON_RAIN, CurrentRecord.FORECAST_ICON_SUN}, rec.getForecastIcons());
+        assertEquals(ForecastRules.getText(1), rec.getForecastMessage());
+        assertEquals(545, rec.getSunriseTime());
+        assertEquals(2131, rec.getSunsetTime());
+    }
+
+    @Test
+    public void decodeLoop2KeepsLoopOnlyFields() throws IOException {
+        CurrentRecord rec = new CurrentRecord();
+        byte[] loop = packet(LoopDecoder.PACKET_TYPE_LOOP);
+        loop[89] = 0x02;
+        put(loop, 91, 600);
+        LoopDecoder.decode(loop, rec);
+
+        byte[] loop2 = packet(LoopDecoder.PACKET_TYPE_LOOP2);
+        put(loop2, 18, 125); // 12.5 mph
+        put(loop2, 22, 20);
+        put(loop2, 30, 50);
+        put(loop2, 35, 255);
+        put(loop2, 37, -4);
+        LoopDecoder.decode(loop2, rec);
+
+        assertEquals(5.625, rec.getWindSpeedAvg(), 0.01);
+        assertEquals(9.0, rec.getWindGust(), 0.01);
+        assertEquals(10.0, rec.getDewPoint(), 0.01);
+        assertEquals(0.0, rec.getHeatIndex(), 0.01);
+        assertEquals(-20.0, rec.getWindChill(), 0.01);
+        assertEquals(600, rec.getSunriseTime());
+        assertArrayEquals(new String[]{CurrentRecord.FORECAST_ICON_CLOUD}, rec.getForecastIcons());
+    }
+
+    @Test
+    public void rejectInvalidPacket() {
+        byte[] buf = packet(LoopDecoder.PACKET_TYPE_LOOP);
+        buf[0] = 'X';
+        assertThrows(IOException.class, () -> LoopDecoder.decode(buf, new CurrentRecord()));
+    }
+}
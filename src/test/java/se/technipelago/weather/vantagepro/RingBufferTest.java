@@ -0,0 +1,81 @@
+package se.technipelago.weather.vantagepro;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RingBufferTest {
+
+    @Test
+    public void readAndWrap() throws Exception {
+        RingBuffer buffer = new RingBuffer(16, 100);
+        byte[] in = new byte[12];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (byte) (i + 200);
+        }
+        byte[] out = new byte[12];
+        for (int round = 0; round < 5; round++) {
+            buffer.write(in, 0, in.length);
+            assertEquals(in.length, buffer.available());
+            assertEquals(in.length, buffer.read(out, 0, out.length));
+            assertArrayEquals(in, out);
+        }
+        buffer.write(0x06);
+        assertEquals(0x06, buffer.read());
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        RingBuffer buffer = new RingBuffer(16, 50);
+        long start = System.nanoTime();
+        assertEquals(-1, buffer.read());
+        assertTrue(System.nanoTime() - start >= 40_000_000L, "Read returned before timeout");
+    }
+
+    @Test
+    public void overrun() throws Exception {
+        RingBuffer buffer = new RingBuffer(8, 50);
+        buffer.write(new byte[10], 0, 10);
+        assertThrows(IOException.class, buffer::read);
+        assertEquals(0, buffer.available());
+        buffer.write(42);
+        assertEquals(42, buffer.read());
+    }
+
+    @Test
+    public void wakeupOnWrite() throws Exception {
+        final RingBuffer buffer = new RingBuffer(256, 5000);
+        final int total = 267 * 20;
+        Thread producer = new Thread(() -> {
+            byte[] chunk = new byte[37];
+            int sent = 0;
+            while (sent < total) {
+                int n = Math.min(chunk.length, total - sent);
+                for (int i = 0; i < n; i++) {
+                    chunk[i] = (byte) (sent + i);
+                }
+                while (buffer.getCapacity() - buffer.available() < n) {
+                    Thread.yield();
+                }
+                buffer.write(chunk, 0, n);
+                sent += n;
+            }
+        });
+        long start = System.nanoTime();
+        producer.start();
+        byte[] page = new byte[267];
+        int received = 0;
+        while (received < total) {
+            int n = buffer.read(page, 0, Math.min(page.length, total - received));
+            assertTrue(n > 0, "Unexpected EOF");
+            for (int i = 0; i < n; i++) {
+                assertEquals((byte) (received + i), page[i]);
+            }
+            received += n;
+        }
+        producer.join();
+        assertTrue(System.nanoTime() - start < 1_000_000_000L, "Transfer stalled");
+    }
+}
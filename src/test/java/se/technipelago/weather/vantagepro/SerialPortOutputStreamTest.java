@@ -0,0 +1,136 @@
+package se.technipelago.weather.vantagepro;
+
+import jssc.SerialPort;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SerialPortOutputStreamTest {
+
+    /**
+     * Serial port that records the bytes written instead of opening a device.
+     */
+    private static class FakeSerialPort extends SerialPort {
+
+        private final List<byte[]> writes = new ArrayList<>();
+        private boolean closed;
+
+        FakeSerialPort() {
+            super("fake");
+        }
+
+        @Override
+        public boolean writeBytes(byte[] buffer) {
+            writes.add(buffer.clone());
+            return true;
+        }
+
+        @Override
+        public boolean closePort() {
+            closed = true;
+            return true;
+        }
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = (byte) i;
+        }
+        return b;
+    }
+
+    @Test
+    public void flushFrameInOneWrite() throws IOException {
+        FakeSerialPort port = new FakeSerialPort();
+        SerialPortOutputStream out = new SerialPortOutputStream(port);
+        out.write(0x06);
+        out.write("DMPAFT".getBytes());
+        out.write(new byte[]{0x0a, 0x0b, 0x0c}, 1, 2);
+        assertTrue(port.writes.isEmpty());
+
+        out.flush();
+        assertEquals(1, port.writes.size());
+        assertArrayEquals(new byte[]{0x06, 'D', 'M', 'P', 'A', 'F', 'T', 0x0b, 0x0c}, port.writes.get(0));
+
+        out.flush();
+        assertEquals(1, port.writes.size());
+    }
+
+    @Test
+    public void splitLargeWrites() throws IOException {
+        FakeSerialPort port = new FakeSerialPort();
+        SerialPortOutputStream out = new SerialPortOutputStream(port);
+        byte[] data = bytes(1500);
+
+        // Buffered bytes go out first, then the large write as it is.
+        out.write(data, 0, 10);
+        out.write(data, 10, 1000);
+        assertEquals(2, port.writes.size());
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 10), port.writes.get(0));
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 1010), port.writes.get(1));
+
+        // A write that does not fit the rest of the buffer sends the buffer first.
+        out.write(data, 1010, 300);
+        out.write(data, 1310, 190);
+        out.write(data, 1310, 190);
+        assertEquals(3, port.writes.size());
+        assertArrayEquals(Arrays.copyOfRange(data, 1010, 1500), port.writes.get(2));
+        out.flush();
+        assertEquals(4, port.writes.size());
+        assertArrayEquals(Arrays.copyOfRange(data, 1310, 1500), port.writes.get(3));
+    }
+
+    @Test
+    public void fillBufferByteByByte() throws IOException {
+        FakeSerialPort port = new FakeSerialPort();
+        SerialPortOutputStream out = new SerialPortOutputStream(port);
+        byte[] data = bytes(513);
+        for (byte b : data) {
+            out.write(b);
+        }
+        assertEquals(1, port.writes.size());
+        assertArrayEquals(Arrays.copyOf(data, 512), port.writes.get(0));
+        out.flush();
+        assertArrayEquals(new byte[]{data[512]}, port.writes.get(1));
+    }
+
+    @Test
+    public void writeCommand() throws IOException {
+        FakeSerialPort port = new FakeSerialPort();
+        SerialPortOutputStream out = new SerialPortOutputStream(port);
+        out.writeCommand("TEST\n".getBytes());
+        assertEquals(1, port.writes.size());
+        assertArrayEquals("TEST\n".getBytes(), port.writes.get(0));
+    }
+
+    @Test
+    public void quitClosesPort() throws IOException {
+        FakeSerialPort port = new FakeSerialPort();
+        SerialPortOutputStream out = new SerialPortOutputStream(port);
+        out.write(0x0a);
+        out.writeCommand("quit\n".getBytes());
+        assertTrue(port.closed);
+        // Pending bytes are sent before the port is closed, the command itself is not.
+        assertEquals(1, port.writes.size());
+        assertArrayEquals(new byte[]{0x0a}, port.writes.get(0));
+        assertThrows(IOException.class, () -> out.writeCommand("TEST\n".getBytes()));
+    }
+
+    @Test
+    public void killClosesPort() throws IOException {
+        FakeSerialPort port = new FakeSerialPort();
+        SerialPortOutputStream out = new SerialPortOutputStream(port);
+        out.writeCommand("kill".getBytes());
+        assertTrue(port.closed);
+        assertTrue(port.writes.isEmpty());
+    }
+}
@@ -0,0 +1,96 @@
+package se.technipelago.weather.vantagepro;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TimestampCodecTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Stockholm");
+
+    private static long expected(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).atZone(ZONE).toInstant().toEpochMilli();
+    }
+
+    private static byte[] archiveTimestamp(int year, int month, int day, int hour, int minute) {
+        byte[] buf = new byte[4];
+        System.arraycopy(VantageUtil.getBytes(day + month * 32 + (year - 2000) * 512), 0, buf, 0, 2);
+        System.arraycopy(VantageUtil.getBytes(hour * 100 + minute), 0, buf, 2, 2);
+        return buf;
+    }
+
+    @Test
+    public void decodeArchive() {
+        TimestampCodec codec = new TimestampCodec(ZONE);
+        assertEquals(expected(2021, 6, 18, 14, 30), codec.decodeArchive(archiveTimestamp(2021, 6, 18, 14, 30), 0));
+        assertEquals(expected(2021, 6, 18, 14, 40), codec.decodeArchive(archiveTimestamp(2021, 6, 18, 14, 40), 0));
+        assertEquals(expected(2021, 12, 31, 23, 50), codec.decodeArchive(archiveTimestamp(2021, 12, 31, 23, 50), 0));
+        assertEquals(expected(2022, 1, 1, 0, 0), codec.decodeArchive(archiveTimestamp(2022, 1, 1, 0, 0), 0));
+    }
+
+    @Test
+    public void decodeTime() {
+        TimestampCodec codec = new TimestampCodec(ZONE);
+        byte[] buf = {15, 2, 23, 9, 10, 121};
+        assertEquals(expected(2021, 10, 9, 23, 2) + 15000, codec.decodeTime(buf, 0));
+    }
+
+    @Test
+    public void springForward() {
+        TimestampCodec codec = new TimestampCodec(ZONE);
+        assertEquals(expected(2021, 3, 28, 1, 50), codec.toEpochMillis(2021, 3, 28, 1, 50));
+        // 02:30 does not exist, it is moved forward to 03:30.
+        assertEquals(expected(2021, 3, 28, 3, 30), codec.toEpochMillis(2021, 3, 28, 2, 30));
+        assertEquals(expected(2021, 3, 28, 3, 0), codec.toEpochMillis(2021, 3, 28, 3, 0));
+        assertEquals(Instant.parse("2021-03-28T10:00:00Z").toEpochMilli(), codec.toEpochMillis(2021, 3, 28, 12, 0));
+    }
+
+    @Test
+    public void fallBack() {
+        TimestampCodec codec = new TimestampCodec(ZONE);
+        long first = Instant.parse("2021-10-31T00:10:00Z").toEpochMilli(); // 02:10 CEST
+        long second = Instant.parse("2021-10-31T01:10:00Z").toEpochMilli(); // 02:10 CET
+        assertEquals(Instant.parse("2021-10-30T23:50:00Z").toEpochMilli(), codec.toEpochMillis(2021, 10, 31, 1, 50));
+        assertEquals(first, codec.toEpochMillis(2021, 10, 31, 2, 10));
+        assertEquals(first + 40 * 60000, codec.toEpochMillis(2021, 10, 31, 2, 50));
+        // The clock is set back, the next 02:10 comes after 02:50 and is an hour later than the first one.
+        assertEquals(second, codec.toEpochMillis(2021, 10, 31, 2, 10));
+        assertEquals(Instant.parse("2021-10-31T02:00:00Z").toEpochMilli(), codec.toEpochMillis(2021, 10, 31, 3, 0));
+    }
+
+    @Test
+    public void singleValuesDoNotChangeOrder() {
+        TimestampCodec codec = new TimestampCodec(ZONE);
+        long first = Instant.parse("2021-10-31T00:10:00Z").toEpochMilli(); // 02:10 CEST
+        assertEquals(first + 40 * 60000, codec.toEpochMillis(2021, 10, 31, 2, 50));
+        // A console time is not part of the archive sequence, it gets the earlier offset.
+        assertEquals(first, codec.decodeTime(new byte[]{0, 10, 2, 31, 10, 121}, 0));
+        assertEquals(first, codec.decodeHourMinute(210, first));
+        // And does not reset the order of archive records.
+        assertEquals(first + 3600000, codec.toEpochMillis(2021, 10, 31, 2, 10));
+    }
+
+    @Test
+    public void matchesJavaTimeForEveryHalfHour() {
+        // Santiago and Havana change their clocks at midnight.
+        for (String zone : new String[]{"Europe/Stockholm", "America/Santiago", "America/Havana", "Australia/Lord_Howe"}) {
+            matchesJavaTime(ZoneId.of(zone));
+        }
+    }
+
+    private void matchesJavaTime(ZoneId zone) {
+        TimestampCodec codec = new TimestampCodec(zone);
+        LocalDateTime t = LocalDateTime.of(2021, 1, 1, 0, 0);
+        while (t.getYear() == 2021) {
+            ZonedDateTime zdt = t.atZone(zone);
+            assertEquals(zdt.toInstant().toEpochMilli(),
+                    codec.toEpochMillis(t.getYear(), t.getMonthValue(), t.getDayOfMonth(), t.getHour(), t.getMinute()), zone + " " + t);
+            t = t.plusMinutes(30);
+        }
+    }
+}